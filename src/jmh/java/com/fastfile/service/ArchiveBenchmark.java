@@ -0,0 +1,52 @@
+package com.fastfile.service;
+
+import com.fastfile.dto.FilePathsDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+// downloadMultiple: building the ZIP and streaming it out.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArchiveBenchmark {
+
+    @Param({"1", "16", "128"})
+    int fileCount;
+
+    @Param({"65536", "4194304"})
+    long fileSize;
+
+    private BenchmarkFixture fixture;
+    private FileService fileService;
+    private FilePathsDTO filePaths;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = new BenchmarkFixture();
+        fileService = fixture.bean(FileService.class);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < fileCount; i++) {
+            names.add(BenchmarkFixture.generateFile(fixture.userRoot, "file-" + i + ".bin", fileSize).getFileName().toString());
+        }
+        filePaths = new FilePathsDTO(names);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void downloadMultiple() throws IOException {
+        Objects.requireNonNull(fileService.downloadMultiple(filePaths).getBody()).writeTo(OutputStream.nullOutputStream());
+    }
+}
@@ -0,0 +1,147 @@
+package com.fastfile.service;
+
+import com.fastfile.auth.JwtService;
+import com.fastfile.auth.PasswordHasher;
+import com.fastfile.config.FilesConfig;
+import com.fastfile.config.GlobalVariables;
+import com.fastfile.event.FileChangeFeed;
+import com.fastfile.metrics.FileMetrics;
+import com.fastfile.model.User;
+import com.fastfile.repository.FileChecksumRepository;
+import com.fastfile.repository.FileLinkRepository;
+import com.fastfile.repository.FileLinkShareRepository;
+import com.fastfile.repository.FileVersionRepository;
+import com.fastfile.repository.UserRepository;
+import com.fastfile.storage.ChecksumStore;
+import com.fastfile.storage.DirectoryStats;
+import com.fastfile.storage.FileEncryption;
+import com.fastfile.storage.LocalStorageBackend;
+import com.fastfile.storage.StoragePlacement;
+import com.fastfile.storage.VersionStore;
+import com.fastfile.transfer.BandwidthLimiter;
+import com.fastfile.transfer.TransferAdmission;
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+// Real services on top of stub repositories and a temp FILES_ROOT, so benchmarks measure file system work only.
+final class BenchmarkFixture implements AutoCloseable {
+
+    static final long USER_ID = 1L;
+
+    final Path filesRoot;
+    final Path userRoot;
+    private final AnnotationConfigApplicationContext context;
+
+    BenchmarkFixture() throws IOException {
+        filesRoot = Files.createTempDirectory("fastfile-bench");
+        FilesConfig.FILES_ROOT = filesRoot + "/";
+        userRoot = Files.createDirectories(filesRoot.resolve(String.valueOf(USER_ID)));
+
+        User user = new User("bench", "bench@example.com", "Bench", "User", "password");
+        user.setId(USER_ID);
+
+        context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", Map.of(
+                "storage.limits.free", Long.MAX_VALUE,
+                "storage.limits.premium", Long.MAX_VALUE,
+                "files.root-dir", FilesConfig.FILES_ROOT,
+                "files.versions.enabled", false
+        )));
+        context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        context.registerBean(GlobalVariables.class, () -> new GlobalVariables("benchmark-secret-key-benchmark-secret-key", null, null, null, null));
+        context.registerBean(PasswordEncoder.class, BCryptPasswordEncoder::new);
+        context.registerBean(UserRepository.class, () -> stub(UserRepository.class, Map.of("findById", Optional.of(user))));
+        context.registerBean(FileLinkRepository.class, () -> stub(FileLinkRepository.class, Map.of()));
+        context.registerBean(FileLinkShareRepository.class, () -> stub(FileLinkShareRepository.class, Map.of()));
+        context.registerBean(FileVersionRepository.class, () -> stub(FileVersionRepository.class, Map.of()));
+        context.registerBean(FileChecksumRepository.class, () -> stub(FileChecksumRepository.class, Map.of()));
+        context.register(FileMetrics.class, StoragePlacement.class, LocalStorageBackend.class, DirectoryStats.class, VersionStore.class, ChecksumStore.class, FileEncryption.class, JwtService.class, PasswordHasher.class, AuthService.class, UserService.class, FileSystemService.class,
+                FileLinkCache.class, BandwidthLimiter.class, TransferAdmission.class, FileChangeFeed.class, FileService.class);
+        context.refresh();
+
+        // JMH runs setup and benchmark methods on different threads.
+        SecurityContextHolder.setStrategyName(SecurityContextHolder.MODE_GLOBAL);
+        JwtService jwtService = context.getBean(JwtService.class);
+        Claims claims = jwtService.extractClaims(jwtService.generateToken(user));
+        UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(USER_ID, null, List.of());
+        auth.setDetails(claims);
+        SecurityContextHolder.getContext().setAuthentication(auth);
+    }
+
+    <T> T bean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    // Every directory gets fanOut files and, above the last level, fanOut subdirectories.
+    static void generateTree(Path dir, int depth, int fanOut, long fileSize) throws IOException {
+        for (int i = 0; i < fanOut; i++) {
+            try (RandomAccessFile file = new RandomAccessFile(dir.resolve("file-" + i + ".bin").toFile(), "rw")) {
+                file.setLength(fileSize);
+            }
+            if (depth > 1) {
+                generateTree(Files.createDirectory(dir.resolve("dir-" + i)), depth - 1, fanOut, fileSize);
+            }
+        }
+    }
+
+    // Real (non sparse) content, so transfer benchmarks read actual pages.
+    static Path generateFile(Path dir, String name, long fileSize) throws IOException {
+        Path path = dir.resolve(name);
+        byte[] chunk = new byte[64 * 1024];
+        new Random(42).nextBytes(chunk);
+        try (OutputStream out = Files.newOutputStream(path)) {
+            for (long written = 0; written < fileSize; written += chunk.length) {
+                out.write(chunk, 0, (int) Math.min(chunk.length, fileSize - written));
+            }
+        }
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        context.close();
+        SecurityContextHolder.clearContext();
+        FileUtils.deleteDirectory(filesRoot.toFile());
+    }
+
+    // Repository stub: canned answers by method name, otherwise empty results, and save() returns its argument.
+    @SuppressWarnings("unchecked")
+    static <T> T stub(Class<T> type, Map<String, Object> answers) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> type.getSimpleName() + " stub";
+                };
+            }
+            if (answers.containsKey(method.getName())) return answers.get(method.getName());
+
+            Class<?> returnType = method.getReturnType();
+            if (returnType == Optional.class) return Optional.empty();
+            if (returnType == List.class || returnType == Collection.class || returnType == Iterable.class) return List.of();
+            if (returnType == Set.class) return Set.of();
+            if (returnType == boolean.class) return false;
+            if (returnType == long.class) return 0L;
+            if (returnType == int.class) return 0;
+            if (args != null && args.length == 1 && returnType.isInstance(args[0])) return args[0];
+            return null;
+        });
+    }
+}
@@ -0,0 +1,42 @@
+package com.fastfile.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Copy loop of prepareFileForDownload, streamed into a null sink.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownloadBenchmark {
+
+    @Param({"65536", "16777216", "268435456"})
+    long fileSize;
+
+    private BenchmarkFixture fixture;
+    private FileSystemService fileSystemService;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = new BenchmarkFixture();
+        fileSystemService = fixture.bean(FileSystemService.class);
+        file = BenchmarkFixture.generateFile(fixture.userRoot, "download.bin", fileSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void download() throws IOException {
+        fileSystemService.prepareFileForDownload(file).body().writeTo(OutputStream.nullOutputStream());
+    }
+}
@@ -0,0 +1,78 @@
+package com.fastfile.service;
+
+import com.fastfile.dto.FileDTO;
+import com.fastfile.model.FileMetadata;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Listing, metadata, storage recount and search over a synthetic tree of fanOut^depth entries.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileSystemBenchmark {
+
+    @Param({"2", "3"})
+    int depth;
+
+    @Param({"8", "32"})
+    int fanOut;
+
+    @Param({"4096", "1048576"})
+    long fileSize;
+
+    private BenchmarkFixture fixture;
+    private FileSystemService fileSystemService;
+    private FileService fileService;
+    private Path someFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = new BenchmarkFixture();
+        BenchmarkFixture.generateTree(fixture.userRoot, depth, fanOut, fileSize);
+        fileSystemService = fixture.bean(FileSystemService.class);
+        fileService = fixture.bean(FileService.class);
+        someFile = fixture.userRoot.resolve("dir-0").resolve("file-0.bin");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public FileMetadata getFileMetadataOfFile() throws IOException {
+        return fileSystemService.getFileMetadata(someFile);
+    }
+
+    @Benchmark
+    public FileMetadata getFileMetadataOfDirectory() throws IOException {
+        return fileSystemService.getFileMetadata(fixture.userRoot);
+    }
+
+    @Benchmark
+    public List<FileDTO> filesInDirectory() throws IOException {
+        return fileSystemService.filesInDirectory(fixture.userRoot, 1);
+    }
+
+    @Benchmark
+    public List<FileDTO> filesInDirectoryRecursive() throws IOException {
+        return fileSystemService.filesInDirectory(fixture.userRoot, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public long bytesInside() throws IOException {
+        return fileService.bytesInside(fixture.userRoot);
+    }
+
+    @Benchmark
+    public List<FileDTO> searchFiles() throws IOException {
+        return fileService.searchFiles("file-1", "");
+    }
+}
@@ -0,0 +1,97 @@
+package com.fastfile.storage;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Cost of encryption at rest: plain file channel streams against SegmentedAesGcm for writes, full reads and a 1 MB range.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncryptionBenchmark {
+
+    private static final int RANGE = 1024 * 1024;
+
+    @Param({"plain", "encrypted"})
+    String mode;
+
+    @Param({"16777216", "268435456"})
+    long fileSize;
+
+    @Param({"65536"})
+    int segmentSize;
+
+    private final SecretKey dataKey = new SecretKeySpec(new byte[32], "AES");
+    private Path dir;
+    private Path file;
+    private Path written;
+    private byte[] chunk;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("fastfile-encryption-bench");
+        file = dir.resolve("read.bin");
+        written = dir.resolve("write.bin");
+        chunk = new byte[64 * 1024];
+        new Random(1).nextBytes(chunk);
+        write(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(written);
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        write(written);
+    }
+
+    @Benchmark
+    public long readAll() throws IOException {
+        try (InputStream in = open(0, -1)) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    @Benchmark
+    public long readRange() throws IOException {
+        try (InputStream in = open(fileSize / 2 + 12345, RANGE)) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    private void write(Path target) throws IOException {
+        OutputStream raw = Files.newOutputStream(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try (OutputStream out = mode.equals("encrypted") ? new SegmentedAesGcm.EncryptingOutputStream(raw, dataKey, segmentSize) : raw) {
+            for (long left = fileSize; left > 0; left -= chunk.length) {
+                out.write(chunk, 0, (int) Math.min(chunk.length, left));
+            }
+        }
+    }
+
+    private InputStream open(long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        if (mode.equals("encrypted")) return new SegmentedAesGcm.DecryptingInputStream(channel, dataKey, offset, length);
+        channel.position(offset);
+        InputStream in = Channels.newInputStream(channel);
+        return length < 0 ? in : BoundedInputStream.builder().setInputStream(in).setMaxCount(length).get();
+    }
+}
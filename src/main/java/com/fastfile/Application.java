@@ -4,9 +4,11 @@ import com.fastfile.config.GlobalVariables;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @EnableConfigurationProperties(GlobalVariables.class)
 @SpringBootApplication
+@EnableScheduling
 public class Application {
 
     public static void main(String[] args) {
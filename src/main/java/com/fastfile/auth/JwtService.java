@@ -6,6 +6,7 @@ import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
 import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.SecretKey;
@@ -24,6 +25,13 @@ public class JwtService {
 
     protected SecretKey secretKey;
 
+    // Tokens from /auth/token and /auth/refresh, renewed with a refresh token.
+    @Value("${auth.token.access-ttl-ms:900000}")
+    private long accessTtlMs;
+    // Tokens from /auth/login, for clients without refresh tokens.
+    @Value("${auth.token.login-ttl-ms:3600000}")
+    private long loginTtlMs;
+
 
     @PostConstruct
     public void init() {
@@ -34,9 +42,22 @@ public class JwtService {
     public String generateToken(User user) {
         return generateToken(user, new HashMap<>());
     }
+
+    public String generateAccessToken(User user) {
+        return generateToken(user, new HashMap<>(), accessTtlMs);
+    }
+
+    public long accessTtlMs() {
+        return accessTtlMs;
+    }
+
     public String generateToken(User user, Map<String, Object> extraClaims) {
-        long expirationMs = 3600000;
+        return generateToken(user, extraClaims, loginTtlMs);
+    }
+
+    private String generateToken(User user, Map<String, Object> extraClaims, long expirationMs) {
         extraClaims.put("userId", user.getId()); // Used for user folders in file system, therefore always a claim.
+        extraClaims.put("userType", user.getUserType()); // Tier tag for metrics, may lag behind a type change until next login.
         return Jwts.builder()
                 .subject(user.getUsername())
                 .claims(extraClaims)
@@ -0,0 +1,105 @@
+package com.fastfile.auth;
+
+import com.fastfile.transfer.TransferRejectedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.*;
+
+// Password hashing (BCrypt, Argon2) on a small pool of its own, so a login storm keeps those threads busy instead of
+// every request thread. The queue is bounded, logins over it or waiting longer than max-wait-ms get 429 with Retry-After.
+// The request thread still waits for its hash, so pool and queue together are held to half of Tomcat's request
+// threads: a storm parks at most that many of them, and only for max-wait-ms, the rest keep serving everything else.
+@Service
+public class PasswordHasher {
+
+    // upgradedHash is set when the password matched a hash of an older algorithm or cost factor.
+    public record Verification(boolean matches, String upgradedHash) {
+    }
+
+    private final PasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor pool;
+    private final long maxWaitMs;
+    private final long retryAfterSeconds;
+    private final Timer queueWait;
+    private final Timer verifyDuration;
+    private final Timer encodeDuration;
+    private final Counter rejections;
+
+    public PasswordHasher(PasswordEncoder passwordEncoder, MeterRegistry meterRegistry,
+                          @Value("${auth.hashing.threads:0}") int threads,
+                          @Value("${auth.hashing.queue-size:32}") int queueSize,
+                          @Value("${auth.hashing.max-wait-ms:1000}") long maxWaitMs,
+                          @Value("${auth.hashing.retry-after-seconds:2}") long retryAfterSeconds,
+                          @Value("${server.tomcat.threads.max:200}") int requestThreads) {
+        this.passwordEncoder = passwordEncoder;
+        this.maxWaitMs = maxWaitMs;
+        this.retryAfterSeconds = retryAfterSeconds;
+        int poolSize = threads > 0 ? threads : Math.clamp(Runtime.getRuntime().availableProcessors(), 1, Math.max(1, requestThreads / 4));
+        if (poolSize + queueSize > requestThreads / 2) {
+            throw new IllegalStateException("auth.hashing.threads (" + poolSize + ") + auth.hashing.queue-size (" + queueSize
+                    + ") have to stay within half of server.tomcat.threads.max (" + requestThreads + ")");
+        }
+        this.pool = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                Thread.ofPlatform().name("password-hasher-", 0).daemon().factory());
+
+        Gauge.builder("fastfile.auth.hashing.queue", pool, p -> p.getQueue().size()).register(meterRegistry);
+        Gauge.builder("fastfile.auth.hashing.active", pool, ThreadPoolExecutor::getActiveCount).register(meterRegistry);
+        this.queueWait = Timer.builder("fastfile.auth.hashing.wait").register(meterRegistry);
+        this.verifyDuration = Timer.builder("fastfile.auth.hashing.duration").tag("operation", "verify").register(meterRegistry);
+        this.encodeDuration = Timer.builder("fastfile.auth.hashing.duration").tag("operation", "encode").register(meterRegistry);
+        this.rejections = Counter.builder("fastfile.auth.hashing.rejected").register(meterRegistry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    // Checks and, when the stored hash is outdated, rehashes in one go while the plaintext is at hand.
+    public Verification verify(String rawPassword, String encodedPassword) {
+        return run(verifyDuration, () -> {
+            boolean matches = encodedPassword != null && passwordEncoder.matches(rawPassword, encodedPassword);
+            String upgraded = matches && passwordEncoder.upgradeEncoding(encodedPassword) ? passwordEncoder.encode(rawPassword) : null;
+            return new Verification(matches, upgraded);
+        });
+    }
+
+    public String encode(String rawPassword) {
+        return run(encodeDuration, () -> passwordEncoder.encode(rawPassword));
+    }
+
+    private <T> T run(Timer duration, Callable<T> hashing) {
+        long submitted = System.nanoTime();
+        Future<T> result;
+        try {
+            result = pool.submit(() -> {
+                queueWait.record(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+                return duration.recordCallable(hashing);
+            });
+        } catch (RejectedExecutionException e) {
+            rejections.increment();
+            throw new TransferRejectedException("Too many logins at once", retryAfterSeconds);
+        }
+        try {
+            return result.get(maxWaitMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            rejections.increment();
+            throw new TransferRejectedException("Too many logins at once", retryAfterSeconds);
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
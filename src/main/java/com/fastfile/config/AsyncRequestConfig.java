@@ -0,0 +1,21 @@
+package com.fastfile.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+// Downloads stream on the async path. Without an explicit timeout the container's applies (Tomcat: 30 s), which
+// would cut off any throttled download that needs longer at its rate. Clients going away still end the request.
+@Configuration
+public class AsyncRequestConfig implements WebMvcConfigurer {
+
+    // -1 = no timeout
+    @Value("${transfer.async-timeout-ms:-1}")
+    private long asyncTimeoutMs;
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setDefaultTimeout(asyncTimeoutMs);
+    }
+}
@@ -10,6 +10,7 @@ public class FilesConfig {
     @Value("${files.root-dir}")
     private String injectedValue;
 
+    // Primary volume, user files are resolved through StoragePlacement (files.volumes).
     public static String FILES_ROOT;
 
     @PostConstruct
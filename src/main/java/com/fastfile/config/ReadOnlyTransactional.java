@@ -0,0 +1,16 @@
+package com.fastfile.config;
+
+import org.springframework.transaction.annotation.Transactional;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Read-only transaction for pure reads (listings, link lookups). jakarta.transaction.Transactional has no read-only
+// flag, this is Spring's. With datasource.replica enabled these run on the replica, see ReplicaRoutingDataSource.
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+@Transactional(readOnly = true)
+public @interface ReadOnlyTransactional {
+}
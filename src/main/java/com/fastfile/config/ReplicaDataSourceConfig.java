@@ -0,0 +1,48 @@
+package com.fastfile.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.hibernate.autoconfigure.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+// Only with datasource.replica.enabled=true. Boot's DataSource is wrapped rather than replaced, so JPA, JdbcTemplate
+// and migrations keep using the one bean and routing happens per connection (see ReplicaRoutingDataSource).
+@Configuration
+@ConditionalOnProperty(name = "datasource.replica.enabled", havingValue = "true")
+public class ReplicaDataSourceConfig {
+
+    // Connection per transaction instead of per request, so each transaction is routed on its own.
+    @Bean
+    HibernatePropertiesCustomizer replicaConnectionHandling() {
+        return properties -> properties.put("hibernate.connection.handling_mode", "DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION");
+    }
+
+    @Bean
+    static BeanPostProcessor replicaRoutingPostProcessor(@Value("${datasource.replica.url}") String url,
+                                                         @Value("${datasource.replica.username:${spring.datasource.username:}}") String username,
+                                                         @Value("${datasource.replica.password:${spring.datasource.password:}}") String password,
+                                                         @Value("${datasource.replica.maximum-pool-size:10}") int maximumPoolSize,
+                                                         @Value("${datasource.replica.sticky-ms:5000}") long stickyMs) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!"dataSource".equals(beanName) || !(bean instanceof DataSource primary) || bean instanceof ReplicaRoutingDataSource) {
+                    return bean;
+                }
+                HikariDataSource replica = new HikariDataSource();
+                replica.setPoolName("replica");
+                replica.setJdbcUrl(url);
+                replica.setUsername(username);
+                replica.setPassword(password);
+                replica.setMaximumPoolSize(maximumPoolSize);
+                replica.setReadOnly(true);
+                return new ReplicaRoutingDataSource(primary, replica, stickyMs);
+            }
+        };
+    }
+}
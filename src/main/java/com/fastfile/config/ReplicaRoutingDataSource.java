@@ -0,0 +1,122 @@
+package com.fastfile.config;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+// Read-only transactions (@ReadOnlyTransactional, Spring Data's finders) get a replica connection, everything else
+// the primary. A user who committed a write in the last stickyMs reads from the primary too, so they see their own
+// writes despite replication lag. Connections are taken lazily, once the transaction's read-only flag is set.
+// Reads whose result outlives the request (caches) or that no sticky user makes (login) go through onPrimary.
+public class ReplicaRoutingDataSource extends LazyConnectionDataSourceProxy implements Closeable {
+
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica";
+    private static final int MAX_TRACKED_WRITERS = 10_000;
+    private static final ThreadLocal<Boolean> ON_PRIMARY = new ThreadLocal<>();
+
+    private final DataSource primary;
+    private final DataSource replica;
+    private final long stickyMs;
+    private final Map<String, Long> lastWrites = new ConcurrentHashMap<>();
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica, long stickyMs) {
+        this.primary = primary;
+        this.replica = replica;
+        this.stickyMs = stickyMs;
+
+        AbstractRoutingDataSource reads = new AbstractRoutingDataSource() {
+            @Override
+            protected Object determineCurrentLookupKey() {
+                return ON_PRIMARY.get() != null || readsOwnWrites() ? PRIMARY : REPLICA;
+            }
+        };
+        reads.setTargetDataSources(Map.of(PRIMARY, primary, REPLICA, replica));
+        reads.setLenientFallback(false);
+        reads.afterPropertiesSet();
+
+        setTargetDataSource(new DelegatingDataSource(primary) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                trackWrite();
+                return super.getConnection();
+            }
+
+            @Override
+            public Connection getConnection(String username, String password) throws SQLException {
+                trackWrite();
+                return super.getConnection(username, password);
+            }
+        });
+        setReadOnlyDataSource(reads);
+        afterPropertiesSet();
+    }
+
+    // Runs read with its read-only transactions on the primary. No effect on a transaction that already has its
+    // connection, nor without a replica.
+    public static <T> T onPrimary(Supplier<T> read) {
+        Boolean outer = ON_PRIMARY.get();
+        ON_PRIMARY.set(true);
+        try {
+            return read.get();
+        } finally {
+            if (outer == null) ON_PRIMARY.remove();
+        }
+    }
+
+    private boolean readsOwnWrites() {
+        String user = currentUser();
+        if (stickyMs <= 0 || user == null) return false;
+        Long wroteAt = lastWrites.get(user);
+        if (wroteAt == null) return false;
+        if (System.currentTimeMillis() - wroteAt < stickyMs) return true;
+        lastWrites.remove(user, wroteAt);
+        return false;
+    }
+
+    // Only writes that commit count, and only ones made in a transaction (the app doesn't write outside of one).
+    private void trackWrite() {
+        String user = currentUser();
+        if (stickyMs <= 0 || user == null || !TransactionSynchronizationManager.isSynchronizationActive()
+                || TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                long now = System.currentTimeMillis();
+                lastWrites.put(user, now);
+                if (lastWrites.size() > MAX_TRACKED_WRITERS) lastWrites.values().removeIf(at -> now - at >= stickyMs);
+            }
+        });
+    }
+
+    private static String currentUser() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth == null || !auth.isAuthenticated() || auth instanceof AnonymousAuthenticationToken) return null;
+        return auth.getName();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (replica instanceof Closeable closeable) closeable.close();
+        } finally {
+            if (primary instanceof Closeable closeable) closeable.close();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.fastfile.config;
 import com.fastfile.auth.JwtAuthenticationFilter;
 import com.fastfile.auth.JwtService;
 import jakarta.servlet.DispatcherType;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -11,7 +12,10 @@ import org.springframework.security.config.annotation.authentication.configurati
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
+import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import org.springframework.web.cors.CorsConfiguration;
@@ -19,6 +23,7 @@ import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 
 import java.util.List;
+import java.util.Map;
 
 @Configuration
 @EnableWebSecurity
@@ -26,16 +31,26 @@ public class SecurityConfig {
 
     private final JwtService jwtService;
 
-    private static final String[] PUBLIC_PATHS_SECURITY = {"/", "/auth/login", "/auth/register", "/swagger-ui/**", "/v3/api-docs/**"};
-    private static final List<String> PUBLIC_PATHS_FILTER = List.of("/auth/login", "/auth/register", "/swagger-ui", "/v3/api-docs");
+    private static final String[] PUBLIC_PATHS_SECURITY = {"/", "/auth/login", "/auth/register", "/auth/token", "/auth/refresh", "/auth/logout", "/dl/**", "/swagger-ui/**", "/v3/api-docs/**"};
+    private static final List<String> PUBLIC_PATHS_FILTER = List.of("/auth/login", "/auth/register", "/auth/token", "/auth/refresh", "/auth/logout", "/dl/", "/swagger-ui", "/v3/api-docs");
 
     public SecurityConfig(JwtService jwtService) {
         this.jwtService = jwtService;
     }
 
+    // New hashes get auth.password.encoder, stored ones match by their "{id}" prefix. Hashes from before the
+    // prefixes ("$2a$...") are BCrypt. Anything but the current encoder and cost is rehashed on login (PasswordHasher).
     @Bean
-    public BCryptPasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(@Value("${auth.password.encoder:bcrypt}") String encoder,
+                                           @Value("${auth.password.bcrypt-strength:10}") int bcryptStrength) {
+        BCryptPasswordEncoder bcrypt = new BCryptPasswordEncoder(bcryptStrength);
+        Map<String, PasswordEncoder> encoders = Map.of(
+                "bcrypt", bcrypt,
+                "argon2", Argon2PasswordEncoder.defaultsForSpringSecurity_v5_8());
+        if (!encoders.containsKey(encoder)) throw new IllegalStateException("Unknown auth.password.encoder " + encoder);
+        DelegatingPasswordEncoder passwordEncoder = new DelegatingPasswordEncoder(encoder, encoders);
+        passwordEncoder.setDefaultPasswordEncoderForMatches(bcrypt);
+        return passwordEncoder;
     }
 
     @Bean
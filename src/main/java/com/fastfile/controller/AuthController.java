@@ -1,11 +1,14 @@
 package com.fastfile.controller;
 
+import com.fastfile.dto.RefreshTokenDTO;
+import com.fastfile.dto.TokenDTO;
 import com.fastfile.dto.UserDTO;
 import com.fastfile.dto.UserTypeDTO;
 import com.fastfile.dto.UserLoginDTO;
 
 import com.fastfile.model.User;
 import com.fastfile.service.AuthService;
+import com.fastfile.service.RefreshTokenService;
 import com.fastfile.service.UserService;
 import com.fastfile.service.deleteUser.DeleteUserService;
 import org.springframework.http.HttpStatus;
@@ -21,11 +24,13 @@ public class AuthController {
     private final UserService userService;
     private final DeleteUserService deleteUserService;
     private final AuthService authService;
+    private final RefreshTokenService refreshTokenService;
 
-    public AuthController(UserService userService, DeleteUserService deleteUserService, AuthService authService) {
+    public AuthController(UserService userService, DeleteUserService deleteUserService, AuthService authService, RefreshTokenService refreshTokenService) {
         this.userService = userService;
         this.deleteUserService = deleteUserService;
         this.authService = authService;
+        this.refreshTokenService = refreshTokenService;
     }
 
     @PostMapping("/register")
@@ -37,6 +42,22 @@ public class AuthController {
     public String login(@RequestBody UserLoginDTO user) {
         return authService.authenticate(user.login(), user.password());
     }
+
+    @PostMapping("/token")
+    public TokenDTO token(@RequestBody UserLoginDTO user) {
+        return refreshTokenService.issue(authService.verifyCredentials(user.login(), user.password()));
+    }
+
+    @PostMapping("/refresh")
+    public TokenDTO refresh(@RequestBody RefreshTokenDTO refreshToken) {
+        return refreshTokenService.refresh(refreshToken.refreshToken());
+    }
+
+    @PostMapping("/logout")
+    public ResponseEntity<Boolean> logout(@RequestBody RefreshTokenDTO refreshToken) {
+        return new ResponseEntity<>(refreshTokenService.logout(refreshToken.refreshToken()), HttpStatus.OK);
+    }
+
     @GetMapping("/user")
     public UserDTO getCurrentUser() {
         var user = userService.getMe();
@@ -0,0 +1,45 @@
+package com.fastfile.controller;
+
+import com.fastfile.service.DeltaSyncService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+
+@RestController
+@RequestMapping("/api/v1/files/delta")
+public class DeltaSyncController {
+
+    private final DeltaSyncService deltaSyncService;
+
+    public DeltaSyncController(DeltaSyncService deltaSyncService) {
+        this.deltaSyncService = deltaSyncService;
+    }
+
+    @GetMapping("/signatures/{*path}")
+    public ResponseEntity<DeltaSyncService.FileSignatures> signatures(@PathVariable("path") String path,
+                                                                      @RequestParam(value = "blockSize", required = false) Integer blockSize) throws IOException {
+        DeltaSyncService.FileSignatures signatures = deltaSyncService.mySignatures(path, blockSize);
+        if (signatures == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(signatures, HttpStatus.OK);
+    }
+
+    // Body is the binary delta (see DeltaSyncService), version and blockSize come from the signatures.
+    @PostMapping(value = "/apply/{*path}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<String> apply(@PathVariable("path") String path,
+                                        @RequestParam("version") String version,
+                                        @RequestParam("blockSize") int blockSize,
+                                        HttpServletRequest request) throws IOException {
+        String errorMsg = deltaSyncService.applyMyDelta(path, version, blockSize, request.getInputStream());
+        if (errorMsg == null) {
+            return new ResponseEntity<>("Successfully updated file.", HttpStatus.OK);
+        }
+        HttpStatus status = DeltaSyncService.VERSION_CONFLICT.equals(errorMsg) ? HttpStatus.CONFLICT : HttpStatus.BAD_REQUEST;
+        return new ResponseEntity<>(errorMsg, status);
+    }
+}
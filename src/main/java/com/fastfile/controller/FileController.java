@@ -1,15 +1,26 @@
 package com.fastfile.controller;
 
+import com.fastfile.dto.ArchiveImportDTO;
 import com.fastfile.dto.DeleteFileDTO;
+import com.fastfile.dto.FileChangesDTO;
 import com.fastfile.dto.FileDTO;
 import com.fastfile.dto.FilePathsDTO;
+import com.fastfile.dto.MoveFileDTO;
+import com.fastfile.dto.PresignedUrlDTO;
+import com.fastfile.dto.RenameFileDTO;
 import com.fastfile.dto.SearchFileDTO;
+import com.fastfile.dto.UploadResultDTO;
+import com.fastfile.event.ChangeJournal;
+import com.fastfile.service.ArchiveImportService;
 import com.fastfile.service.FileService;
+import com.fastfile.service.PresignedDownloadService;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
@@ -19,9 +30,15 @@ import java.util.List;
 @RequestMapping("/api/v1/files")
 public class FileController {
     private final FileService fileService;
+    private final ChangeJournal changeJournal;
+    private final ArchiveImportService archiveImportService;
+    private final PresignedDownloadService presignedDownloadService;
 
-    public FileController(FileService fileService) {
+    public FileController(FileService fileService, ChangeJournal changeJournal, ArchiveImportService archiveImportService, PresignedDownloadService presignedDownloadService) {
         this.fileService = fileService;
+        this.changeJournal = changeJournal;
+        this.archiveImportService = archiveImportService;
+        this.presignedDownloadService = presignedDownloadService;
     }
 
     @GetMapping("/list/{*path}")
@@ -30,6 +47,19 @@ public class FileController {
         return new ResponseEntity<>(files, HttpStatus.OK);
     }
 
+    @GetMapping("/changes")
+    public ResponseEntity<FileChangesDTO> changes(@RequestParam(value = "cursor", required = false) Long cursor,
+                                                  @RequestParam(value = "limit", defaultValue = "500") int limit) {
+        return new ResponseEntity<>(changeJournal.myChanges(cursor, limit), HttpStatus.OK);
+    }
+
+    // Server-sent "change" events for a directory (and below, unless recursive=false), "resync" when some were dropped.
+    @GetMapping(value = "/events/{*path}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter changeEvents(@PathVariable("path") String path,
+                                   @RequestParam(value = "recursive", defaultValue = "true") boolean recursive) {
+        return fileService.subscribeToMyChanges(path, recursive);
+    }
+
     @PostMapping("/search")
     public ResponseEntity<List<FileDTO>> searchFiles(@RequestBody SearchFileDTO searchFile) throws IOException {
         var files = fileService.searchFiles(searchFile.fileName(), searchFile.directory());
@@ -41,6 +71,17 @@ public class FileController {
         return fileService.downloadFile(path);
     }
 
+    // Expiring /dl/ URL for the file, ttl in seconds (files.presign.default-ttl-seconds when missing).
+    @PostMapping("/presign/{*path}")
+    public ResponseEntity<PresignedUrlDTO> presign(@PathVariable("path") String path,
+                                                   @RequestParam(value = "ttl", required = false) Long ttl) throws IOException {
+        PresignedUrlDTO presigned = presignedDownloadService.presign(path, ttl);
+        if (presigned == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return new ResponseEntity<>(presigned, HttpStatus.OK);
+    }
+
     @PostMapping("/download-multiple")
     public ResponseEntity<StreamingResponseBody> downloadMultiple(@RequestBody FilePathsDTO filePaths) throws IOException {
         return fileService.downloadMultiple(filePaths);
@@ -49,14 +90,29 @@ public class FileController {
     @PostMapping(value = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<String> uploadFile(
             @RequestPart("file") MultipartFile file,
-            @RequestPart("filePath") String filePath) throws IOException {
+            @RequestPart("filePath") String filePath,
+            @RequestPart(value = "sha256", required = false) String sha256) throws IOException {
         if (filePath == null) filePath = "";
-        boolean success = fileService.uploadFile(file, filePath);
-        if (success) {
-            return new ResponseEntity<>("Successfully uploaded file.", HttpStatus.OK);
-        } else {
-            return new ResponseEntity<>("Couldn't upload file.", HttpStatus.BAD_REQUEST);
-        }
+        return result(fileService.upload(file, filePath, sha256), "Successfully uploaded file.");
+    }
+
+    // filePath[i] is the target directory of file[i], a missing one means the root, sha256[i] its optional checksum.
+    // Results keep the order of the parts.
+    @PostMapping(value = "/upload-batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<List<UploadResultDTO>> uploadFiles(
+            @RequestPart("file") List<MultipartFile> files,
+            @RequestParam(value = "filePath", required = false) List<String> filePaths,
+            @RequestParam(value = "sha256", required = false) List<String> sha256s) throws IOException {
+        List<UploadResultDTO> results = fileService.uploadFiles(files, filePaths, sha256s);
+        boolean anySuccess = results.stream().anyMatch(UploadResultDTO::success);
+        return new ResponseEntity<>(results, anySuccess ? HttpStatus.OK : HttpStatus.BAD_REQUEST);
+    }
+
+    // Raw ZIP or TAR body (not multipart), extracted into directory while it streams in.
+    @PostMapping(value = "/upload-archive/{*path}", consumes = {MediaType.APPLICATION_OCTET_STREAM_VALUE, "application/zip", "application/x-tar", "application/gzip"})
+    public ResponseEntity<ArchiveImportDTO> uploadArchive(@PathVariable("path") String path, HttpServletRequest request) throws IOException {
+        ArchiveImportDTO result = archiveImportService.importMyArchive(path, request.getInputStream());
+        return new ResponseEntity<>(result, result.error() == null ? HttpStatus.OK : HttpStatus.BAD_REQUEST);
     }
 
     @DeleteMapping("/delete")
@@ -68,6 +124,28 @@ public class FileController {
         return new ResponseEntity<>("Couldn't delete file.", HttpStatus.BAD_REQUEST);
     }
 
+    @PostMapping("/move")
+    public ResponseEntity<String> moveFile(@RequestBody MoveFileDTO dto) throws IOException {
+        return result(fileService.move(dto.source(), dto.target()), "Successfully moved file.");
+    }
+
+    @PostMapping("/rename")
+    public ResponseEntity<String> renameFile(@RequestBody RenameFileDTO dto) throws IOException {
+        return result(fileService.rename(dto.path(), dto.newName()), "Successfully renamed file.");
+    }
+
+    @PostMapping("/copy")
+    public ResponseEntity<String> copyFile(@RequestBody MoveFileDTO dto) throws IOException {
+        return result(fileService.copy(dto.source(), dto.target()), "Successfully copied file.");
+    }
+
+    private static ResponseEntity<String> result(String errorMsg, String successMsg) {
+        if (errorMsg == null) {
+            return new ResponseEntity<>(successMsg, HttpStatus.OK);
+        }
+        return new ResponseEntity<>(errorMsg, HttpStatus.BAD_REQUEST);
+    }
+
     @GetMapping("/create-directory/{*path}")
     public ResponseEntity<String> createDirectory(@PathVariable("path") String path) throws Exception {
         String errorMsg = fileService.createMyPersonalDirectory(path);
@@ -0,0 +1,42 @@
+package com.fastfile.controller;
+
+import com.fastfile.model.FileVersion;
+import com.fastfile.service.FileVersionService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/v1/files/versions")
+public class FileVersionController {
+
+    private final FileVersionService fileVersionService;
+
+    public FileVersionController(FileVersionService fileVersionService) {
+        this.fileVersionService = fileVersionService;
+    }
+
+    @GetMapping("/list/{*path}")
+    public ResponseEntity<List<FileVersion>> versions(@PathVariable("path") String path) {
+        return new ResponseEntity<>(fileVersionService.myVersions(path), HttpStatus.OK);
+    }
+
+    @GetMapping("/download/{id}")
+    public ResponseEntity<StreamingResponseBody> download(@PathVariable("id") long id) throws IOException {
+        return fileVersionService.downloadMyVersion(id);
+    }
+
+    @PostMapping("/restore/{id}")
+    public ResponseEntity<String> restore(@PathVariable("id") long id) throws IOException {
+        String errorMsg = fileVersionService.restoreMyVersion(id);
+        if (errorMsg == null) {
+            return new ResponseEntity<>("Successfully restored version.", HttpStatus.OK);
+        } else {
+            return new ResponseEntity<>(errorMsg, HttpStatus.NOT_FOUND);
+        }
+    }
+}
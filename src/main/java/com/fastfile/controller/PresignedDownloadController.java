@@ -0,0 +1,30 @@
+package com.fastfile.controller;
+
+import com.fastfile.service.PresignedDownloadService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+
+// Public, the signature in the URL is the authorization. URLs come from /api/v1/files/presign/{*path}.
+@RestController
+@RequestMapping("/dl")
+public class PresignedDownloadController {
+
+    private final PresignedDownloadService presignedDownloadService;
+
+    public PresignedDownloadController(PresignedDownloadService presignedDownloadService) {
+        this.presignedDownloadService = presignedDownloadService;
+    }
+
+    @GetMapping("/{userId}/{*path}")
+    public ResponseEntity<StreamingResponseBody> download(@PathVariable("userId") Long userId,
+                                                          @PathVariable("path") String path,
+                                                          @RequestParam("expires") long expires,
+                                                          @RequestParam("tier") String tier,
+                                                          @RequestParam("v") String version,
+                                                          @RequestParam("sig") String signature) throws IOException {
+        return presignedDownloadService.download(userId, path, expires, tier, version, signature);
+    }
+}
@@ -0,0 +1,19 @@
+package com.fastfile.controller;
+
+import com.fastfile.transfer.TransferRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+@RestControllerAdvice
+public class TransferExceptionHandler {
+
+    @ExceptionHandler(TransferRejectedException.class)
+    public ResponseEntity<String> transferRejected(TransferRejectedException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(e.getMessage());
+    }
+}
@@ -0,0 +1,7 @@
+package com.fastfile.dto;
+
+import java.util.List;
+
+// skipped are entries outside the target, links, and existing files when versioning is off. error is null on success.
+public record ArchiveImportDTO(int files, int directories, long bytes, List<String> skipped, String error) {
+}
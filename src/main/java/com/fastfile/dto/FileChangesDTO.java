@@ -0,0 +1,8 @@
+package com.fastfile.dto;
+
+import com.fastfile.model.FileChange;
+
+import java.util.List;
+
+// cursor is where to continue from. resyncRequired means the given cursor was compacted away, re-list and start over from cursor.
+public record FileChangesDTO(List<FileChange> changes, long cursor, boolean hasMore, boolean resyncRequired) {}
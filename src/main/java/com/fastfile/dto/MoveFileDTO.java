@@ -0,0 +1,6 @@
+package com.fastfile.dto;
+
+import lombok.NonNull;
+
+public record MoveFileDTO(@NonNull String source, @NonNull String target) {
+}
@@ -0,0 +1,4 @@
+package com.fastfile.dto;
+
+// url is relative unless files.presign.base-url is set, expiresAt in epoch seconds.
+public record PresignedUrlDTO(String url, long expiresAt) {}
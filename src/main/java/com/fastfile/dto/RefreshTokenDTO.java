@@ -0,0 +1,3 @@
+package com.fastfile.dto;
+
+public record RefreshTokenDTO(String refreshToken) {}
@@ -0,0 +1,6 @@
+package com.fastfile.dto;
+
+import lombok.NonNull;
+
+public record RenameFileDTO(@NonNull String path, @NonNull String newName) {
+}
@@ -0,0 +1,4 @@
+package com.fastfile.dto;
+
+// Access token (JWT) plus the refresh token that replaces it once it expires. Lifetimes in seconds.
+public record TokenDTO(String accessToken, long expiresIn, String refreshToken, long refreshExpiresIn) {}
@@ -0,0 +1,9 @@
+package com.fastfile.dto;
+
+// One file of a batch upload, path is relative to the user root. error is null on success.
+public record UploadResultDTO(String name, String path, boolean success, String error, long size) {
+
+    public static UploadResultDTO failed(String name, String error) {
+        return new UploadResultDTO(name, null, false, error, 0);
+    }
+}
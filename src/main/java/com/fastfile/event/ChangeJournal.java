@@ -0,0 +1,86 @@
+package com.fastfile.event;
+
+import com.fastfile.config.ReadOnlyTransactional;
+import com.fastfile.dto.FileChangesDTO;
+import com.fastfile.model.FileChange;
+import com.fastfile.model.User;
+import com.fastfile.repository.FileChangeRepository;
+import com.fastfile.repository.UserRepository;
+import com.fastfile.service.AuthService;
+import jakarta.transaction.Transactional;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+// Per-user append-only journal of FileChangeEvents, so sync clients fetch what changed since their cursor
+// instead of re-listing the tree. Entries older than the retention are compacted away, the user's floor remembers
+// up to where, and a cursor below the floor gets resyncRequired. Cursors are per-user seqs handed out under a lock on
+// the user's row, so an entry never becomes visible behind a cursor a client already moved past.
+@Service
+public class ChangeJournal {
+
+    private final FileChangeRepository fileChangeRepository;
+    private final UserRepository userRepository;
+    private final AuthService authService;
+
+    @Value("${files.changes.retention-ms:2592000000}")
+    private long retentionMs;
+    @Value("${files.changes.max-batch:1000}")
+    private int maxBatch;
+
+    public ChangeJournal(FileChangeRepository fileChangeRepository, UserRepository userRepository, AuthService authService) {
+        this.fileChangeRepository = fileChangeRepository;
+        this.userRepository = userRepository;
+        this.authService = authService;
+    }
+
+    // Synchronous, so the entry commits or rolls back together with the mutation's transaction.
+    @EventListener
+    public void onFileChange(FileChangeEvent event) {
+        append(event);
+    }
+
+    // Joins the caller's transaction, mutations of the same user wait here for each other until commit.
+    @Transactional
+    public FileChange append(FileChangeEvent event) {
+        Long seq = userRepository.nextChangeSeq(event.userId());
+        if (seq == null) return null; // user already deleted
+        return fileChangeRepository.save(new FileChange(event, seq));
+    }
+
+    // Without a cursor only the current one is returned, the client lists the tree once and continues from it.
+    @ReadOnlyTransactional
+    public FileChangesDTO changes(long userId, Long cursor, int limit) {
+        long floor = userRepository.findById(userId).map(User::getChangeFloor).orElse(0L);
+        if (cursor == null || cursor < floor) {
+            Long latest = userRepository.findChangeSeq(userId);
+            long head = latest == null ? floor : Math.max(latest, floor);
+            return new FileChangesDTO(List.of(), head, false, cursor != null);
+        }
+        int size = Math.clamp(limit, 1, maxBatch);
+        List<FileChange> changes = fileChangeRepository.findByUserIdAndSeqGreaterThanOrderBySeqAsc(userId, cursor, Limit.of(size + 1));
+        boolean hasMore = changes.size() > size;
+        if (hasMore) changes = changes.subList(0, size);
+        long next = changes.isEmpty() ? cursor : changes.getLast().getSeq();
+        return new FileChangesDTO(changes, next, hasMore, false);
+    }
+
+    @ReadOnlyTransactional
+    public FileChangesDTO myChanges(Long cursor, int limit) {
+        return changes(authService.getMyUserId(), cursor, limit);
+    }
+
+    @Scheduled(fixedDelayString = "${files.changes.compaction-interval-ms:3600000}", initialDelayString = "${files.changes.compaction-interval-ms:3600000}")
+    @Transactional
+    public int compact() {
+        long cutoff = System.currentTimeMillis() - retentionMs;
+        for (Object[] floor : fileChangeRepository.findCompactionFloors(cutoff)) {
+            userRepository.raiseChangeFloor((Long) floor[0], (Long) floor[1]);
+        }
+        return fileChangeRepository.deleteAllCreatedBefore(cutoff);
+    }
+}
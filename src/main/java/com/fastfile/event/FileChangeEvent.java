@@ -0,0 +1,14 @@
+package com.fastfile.event;
+
+// A change in a user's tree. path is relative to the user root ("docs/a.txt"), "" for the root itself.
+// RESCANNED means the tree changed outside the API and clients should re-list.
+public record FileChangeEvent(long userId, Type type, String path, boolean directory, long timestamp) {
+
+    public enum Type {
+        CREATED, MODIFIED, DELETED, RESCANNED
+    }
+
+    public static FileChangeEvent of(long userId, Type type, String path, boolean directory) {
+        return new FileChangeEvent(userId, type, path, directory, System.currentTimeMillis());
+    }
+}
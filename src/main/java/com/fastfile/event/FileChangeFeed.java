@@ -0,0 +1,159 @@
+package com.fastfile.event;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Pushes FileChangeEvents to subscribed clients over server-sent events, instead of them polling listings.
+// Every subscriber has its own bounded buffer. A slow one that overflows loses its buffer and gets a "resync" event,
+// telling it to re-list once, so one stuck client can't hold memory or slow down the others.
+@Service
+public class FileChangeFeed {
+
+    private final class Subscriber {
+        final long userId;
+        final String directory;
+        final boolean recursive;
+        final SseEmitter emitter;
+        final BlockingQueue<FileChangeEvent> queue = new ArrayBlockingQueue<>(bufferSize);
+        final AtomicBoolean overflowed = new AtomicBoolean();
+        final AtomicBoolean draining = new AtomicBoolean();
+
+        Subscriber(long userId, String directory, boolean recursive, SseEmitter emitter) {
+            this.userId = userId;
+            this.directory = directory;
+            this.recursive = recursive;
+            this.emitter = emitter;
+        }
+
+        boolean matches(FileChangeEvent event) {
+            if (event.type() == FileChangeEvent.Type.RESCANNED || directory.isEmpty() && recursive) return true;
+            String path = event.path();
+            if (path.equals(directory)) return true;
+            if (recursive) return path.startsWith(directory + "/");
+            int slash = path.lastIndexOf('/');
+            return (slash < 0 ? "" : path.substring(0, slash)).equals(directory);
+        }
+    }
+
+    private final Map<Long, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final ExecutorService senders;
+    private final ScheduledExecutorService heartbeats;
+    private final Counter resyncs;
+
+    @Value("${files.feed.buffer-size:256}")
+    private int bufferSize;
+    @Value("${files.feed.max-subscribers-per-user:8}")
+    private int maxSubscribersPerUser;
+    @Value("${files.feed.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    public FileChangeFeed(MeterRegistry registry, @Value("${files.feed.sender-threads:4}") int senderThreads,
+                          @Value("${files.feed.heartbeat-ms:25000}") long heartbeatMs) {
+        this.senders = Executors.newFixedThreadPool(senderThreads, Thread.ofPlatform().name("feed-sender-", 0).daemon().factory());
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("feed-heartbeat").daemon().factory());
+        this.heartbeats.scheduleWithFixedDelay(this::heartbeat, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+        this.resyncs = Counter.builder("fastfile.feed.resyncs").register(registry);
+        Gauge.builder("fastfile.feed.subscribers", subscribers, s -> s.values().stream().mapToInt(Set::size).sum())
+                .register(registry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        heartbeats.shutdownNow();
+        senders.shutdownNow();
+        subscribers.values().forEach(set -> set.forEach(subscriber -> subscriber.emitter.complete()));
+    }
+
+    public SseEmitter subscribe(long userId, String directory, boolean recursive) {
+        String normalized = directory == null ? "" : directory.replaceAll("^/+|/+$", "");
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Subscriber subscriber = new Subscriber(userId, normalized, recursive, emitter);
+        Set<Subscriber> mine = subscribers.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet());
+        // Oldest connections are usually the ones a client forgot to close.
+        while (mine.size() >= maxSubscribersPerUser) {
+            Subscriber oldest = mine.iterator().next();
+            remove(oldest);
+            oldest.emitter.complete();
+        }
+        mine.add(subscriber);
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(() -> remove(subscriber));
+        emitter.onError(e -> remove(subscriber));
+        return emitter;
+    }
+
+    // After commit, so clients never see a change that was rolled back.
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFileChange(FileChangeEvent event) {
+        Set<Subscriber> mine = subscribers.get(event.userId());
+        if (mine == null) return;
+        for (Subscriber subscriber : mine) {
+            if (!subscriber.matches(event)) continue;
+            if (!subscriber.queue.offer(event)) {
+                subscriber.queue.clear();
+                subscriber.overflowed.set(true);
+                resyncs.increment();
+            }
+            schedule(subscriber);
+        }
+    }
+
+    private void schedule(Subscriber subscriber) {
+        if (!subscriber.draining.compareAndSet(false, true)) return;
+        try {
+            senders.execute(() -> drain(subscriber));
+        } catch (RejectedExecutionException e) {
+            subscriber.draining.set(false);
+        }
+    }
+
+    // One drain per subscriber at a time keeps its events in order.
+    private void drain(Subscriber subscriber) {
+        try {
+            do {
+                if (subscriber.overflowed.getAndSet(false)) {
+                    subscriber.emitter.send(SseEmitter.event().name("resync").data(""));
+                }
+                FileChangeEvent event;
+                while ((event = subscriber.queue.poll()) != null) {
+                    subscriber.emitter.send(SseEmitter.event().name("change").data(event));
+                }
+                subscriber.draining.set(false);
+            } while ((!subscriber.queue.isEmpty() || subscriber.overflowed.get()) && subscriber.draining.compareAndSet(false, true));
+        } catch (IOException | IllegalStateException e) {
+            remove(subscriber);
+            subscriber.emitter.completeWithError(e);
+        }
+    }
+
+    private void heartbeat() {
+        for (Set<Subscriber> mine : subscribers.values()) {
+            for (Subscriber subscriber : mine) {
+                try {
+                    subscriber.emitter.send(SseEmitter.event().comment("keep-alive"));
+                } catch (IOException | IllegalStateException e) {
+                    remove(subscriber);
+                }
+            }
+        }
+    }
+
+    private void remove(Subscriber subscriber) {
+        subscribers.computeIfPresent(subscriber.userId, (id, mine) -> {
+            mine.remove(subscriber);
+            return mine.isEmpty() ? null : mine;
+        });
+    }
+}
@@ -0,0 +1,109 @@
+package com.fastfile.metrics;
+
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.*;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.concurrent.TimeUnit;
+
+// Domain metrics (transfers, walks, storage recount, archives, link hits), exported through the Prometheus registry.
+// Every meter is tagged with the endpoint pattern and the user tier of the current request.
+@Component
+public class FileMetrics {
+
+    private final MeterRegistry registry;
+
+    public FileMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    // Has to be called on the request thread; streaming bodies run later on an async thread without request context.
+    public Tags requestTags() {
+        String endpoint = "none";
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+            Object pattern = attributes.getRequest().getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            if (pattern != null) endpoint = pattern.toString();
+        }
+        String tier = "unknown";
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null && auth.getDetails() instanceof Claims claims && claims.get("userType") != null) {
+            tier = String.valueOf(claims.get("userType"));
+        }
+        return Tags.of("endpoint", endpoint, "tier", tier);
+    }
+
+    public void recordTransfer(Tags tags, String direction, long bytes, long nanos) {
+        Tags transferTags = tags.and("direction", direction);
+        DistributionSummary.builder("fastfile.transfer.bytes")
+                .baseUnit("bytes")
+                .tags(transferTags)
+                .register(registry)
+                .record(bytes);
+        Timer.builder("fastfile.transfer.duration")
+                .tags(transferTags)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        if (nanos > 0) {
+            DistributionSummary.builder("fastfile.transfer.throughput")
+                    .baseUnit("bytes/s")
+                    .tags(transferTags)
+                    .register(registry)
+                    .record(bytes * 1_000_000_000d / nanos);
+        }
+    }
+
+    public void recordWalk(String operation, long entries, long startNanos) {
+        Tags tags = requestTags().and("operation", operation);
+        Timer.builder("fastfile.walk.duration")
+                .tags(tags)
+                .register(registry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("fastfile.walk.entries")
+                .tags(tags)
+                .register(registry)
+                .record(entries);
+    }
+
+    public void recordStorageRecount(long startNanos) {
+        Timer.builder("fastfile.storage.recount")
+                .tags(requestTags())
+                .register(registry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordArchiveBuild(int files, long bytes, long startNanos) {
+        Tags tags = requestTags();
+        Timer.builder("fastfile.archive.build")
+                .tags(tags)
+                .register(registry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("fastfile.archive.bytes")
+                .baseUnit("bytes")
+                .tags(tags)
+                .register(registry)
+                .record(bytes);
+        DistributionSummary.builder("fastfile.archive.entries")
+                .tags(tags)
+                .register(registry)
+                .record(files);
+    }
+
+    public void linkDownload(boolean found) {
+        Counter.builder("fastfile.link.downloads")
+                .tags(requestTags().and("result", found ? "found" : "not_found"))
+                .register(registry)
+                .increment();
+    }
+
+    public void linkCacheLookup(boolean hit) {
+        Counter.builder("fastfile.link.cache")
+                .tag("result", hit ? "hit" : "miss")
+                .register(registry)
+                .increment();
+    }
+}
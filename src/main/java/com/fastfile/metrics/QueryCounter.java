@@ -0,0 +1,44 @@
+package com.fastfile.metrics;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.boot.hibernate.autoconfigure.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+// Counts SQL statements Hibernate prepares on the current thread, between start() and stop().
+// Not registered in prod, the per-statement hook is only there to catch N+1 regressions.
+@Component
+@Profile("!prod")
+public class QueryCounter implements StatementInspector, HibernatePropertiesCustomizer {
+
+    private final ThreadLocal<long[]> count = new ThreadLocal<>();
+
+    @Override
+    public void customize(Map<String, Object> hibernateProperties) {
+        hibernateProperties.put(AvailableSettings.STATEMENT_INSPECTOR, this);
+    }
+
+    @Override
+    public String inspect(String sql) {
+        long[] current = count.get();
+        if (current != null) current[0]++;
+        return sql;
+    }
+
+    public void start() {
+        count.set(new long[1]);
+    }
+
+    // -1 when counting wasn't started on this thread.
+    public long current() {
+        long[] current = count.get();
+        return current == null ? -1 : current[0];
+    }
+
+    public void stop() {
+        count.remove();
+    }
+}
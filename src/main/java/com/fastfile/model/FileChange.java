@@ -0,0 +1,50 @@
+package com.fastfile.model;
+
+import com.fastfile.event.FileChangeEvent;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import lombok.*;
+
+// One entry of a user's change journal. seq is the sync cursor: numbered per user in commit order, unlike id, which
+// concurrent transactions can commit out of order.
+@Data
+@Entity
+@Getter
+@Setter
+@Table(name = "file_change", uniqueConstraints = @UniqueConstraint(name = "uk_file_change_user_id_seq", columnNames = {"user_id", "seq"}))
+@NoArgsConstructor
+public class FileChange {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @JsonIgnore
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(nullable = false)
+    private Long seq;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private FileChangeEvent.Type type;
+
+    @Column(nullable = false, length = 4096)
+    private String path;
+
+    @Column(nullable = false)
+    private boolean directory;
+
+    @Column(name = "created_at", nullable = false)
+    private Long createdAt;
+
+    public FileChange(FileChangeEvent event, long seq) {
+        this.userId = event.userId();
+        this.seq = seq;
+        this.type = event.type();
+        this.path = event.path();
+        this.directory = event.directory();
+        this.createdAt = event.timestamp();
+    }
+}
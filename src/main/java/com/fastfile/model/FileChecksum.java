@@ -0,0 +1,40 @@
+package com.fastfile.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import lombok.*;
+
+// Hashes of a user's file taken while it was written, path is relative to the user root ("docs/a.txt").
+// size and lastModified tell whether the file was changed since (out-of-band writes, restores).
+@Data
+@Entity
+@Getter
+@Setter
+@Table(name = "file_checksum", uniqueConstraints = @UniqueConstraint(name = "uk_file_checksum_owner_id_path", columnNames = {"owner_id", "path"}))
+@NoArgsConstructor
+public class FileChecksum {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @JsonIgnore
+    @Column(name = "owner_id", nullable = false)
+    private Long ownerId;
+
+    @Column(nullable = false, length = 1024)
+    private String path;
+
+    // Lowercase hex.
+    @Column(nullable = false, length = 64)
+    private String sha256;
+
+    @Column(nullable = false, length = 8)
+    private String crc32c;
+
+    @Column(nullable = false)
+    private Long size;
+
+    @Column(name = "last_modified", nullable = false)
+    private Long lastModified;
+}
@@ -1,3 +1,7 @@
 package com.fastfile.model;
 
-public record FileMetadata(String name, long size, long lastModified, String type, String path, boolean hasFiles) {}
\ No newline at end of file
+// For directories size is the recursive size of everything inside, childCount the number of direct entries
+// and fileCount the recursive number of files. sha256 and crc32c (hex) are null for directories and for files
+// without a current checksum.
+public record FileMetadata(String name, long size, long lastModified, String type, String path, boolean hasFiles,
+                           int childCount, long fileCount, String sha256, String crc32c) {}
\ No newline at end of file
@@ -0,0 +1,40 @@
+package com.fastfile.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import lombok.*;
+
+// Earlier content of a user's file, path is relative to the user root ("docs/a.txt").
+@Data
+@Entity
+@Getter
+@Setter
+@Table(name = "file_version", indexes = @Index(name = "idx_file_version_owner_id_path", columnList = "owner_id, path"))
+@NoArgsConstructor
+public class FileVersion {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @JsonIgnore
+    @Column(name = "owner_id", nullable = false)
+    private Long ownerId;
+
+    @Column(nullable = false, length = 1024)
+    private String path;
+
+    @JsonIgnore
+    @Column(name = "blob_path", nullable = false, length = 1024)
+    private String blobPath;
+
+    @Column(nullable = false)
+    private Long size;
+
+    @Column(name = "last_modified", nullable = false)
+    private Long lastModified;
+
+    // When this content was replaced or deleted.
+    @Column(name = "created_at", nullable = false)
+    private Long createdAt;
+}
@@ -0,0 +1,40 @@
+package com.fastfile.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.util.UUID;
+
+// One refresh token, only its SHA-256 is stored. Every refresh replaces the token with a new one of the same family
+// and marks it used; a used token coming back means it leaked, and the whole family is revoked.
+@Data
+@Entity
+@Getter
+@Setter
+@Table(name = "refresh_token", indexes = {
+        @Index(name = "idx_refresh_token_user_id", columnList = "user_id"),
+        @Index(name = "idx_refresh_token_family", columnList = "family")})
+@NoArgsConstructor
+public class RefreshToken {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(nullable = false, columnDefinition = "UUID")
+    private UUID family;
+
+    // Lowercase hex.
+    @Column(name = "token_hash", nullable = false, unique = true, length = 64)
+    private String tokenHash;
+
+    @Column(name = "expires_at", nullable = false)
+    private Long expiresAt;
+
+    // Set once the token was exchanged for a new one.
+    @Column(name = "used_at")
+    private Long usedAt;
+}
@@ -37,4 +37,9 @@ public class User {
 
     private String userType = "free";
     private Long usedStorage = 0L;
+    // Change journal entries up to this seq were compacted away.
+    private Long changeFloor = 0L;
+    // Random per-user key for encryption at rest, wrapped by the master key. Created with the first encrypted write.
+    @Column(name = "data_key", length = 128)
+    private String dataKey;
 }
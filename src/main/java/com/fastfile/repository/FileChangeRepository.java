@@ -0,0 +1,27 @@
+package com.fastfile.repository;
+
+import com.fastfile.model.FileChange;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface FileChangeRepository extends JpaRepository<FileChange, Long> {
+
+    List<FileChange> findByUserIdAndSeqGreaterThanOrderBySeqAsc(Long userId, Long seq, Limit limit);
+
+    // [userId, highest seq] of every user with entries older than cutoff, the new floors after compaction.
+    @Query("select c.userId, max(c.seq) from FileChange c where c.createdAt < :cutoff group by c.userId")
+    List<Object[]> findCompactionFloors(@Param("cutoff") Long cutoff);
+
+    @Modifying
+    @Query("delete from FileChange c where c.createdAt < :cutoff")
+    int deleteAllCreatedBefore(@Param("cutoff") Long cutoff);
+
+    @Modifying
+    @Query("delete from FileChange c where c.userId = :userId")
+    int deleteAllByUserId(@Param("userId") Long userId);
+}
@@ -0,0 +1,33 @@
+package com.fastfile.repository;
+
+import com.fastfile.model.FileChecksum;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface FileChecksumRepository extends JpaRepository<FileChecksum, Long> {
+
+    Optional<FileChecksum> findByOwnerIdAndPath(Long ownerId, String path);
+
+    List<FileChecksum> findAllByOwnerIdAndPathIn(Long ownerId, Collection<String> paths);
+
+    // Follows a move of path itself and, for directories, everything below it.
+    @Modifying
+    @Query("update FileChecksum c set c.path = case when c.path = :oldPath then :newPath " +
+            "else concat(:newPath, substring(c.path, length(:oldPath) + 1)) end " +
+            "where c.ownerId = :ownerId and (c.path = :oldPath or substring(c.path, 1, length(:oldPath) + 1) = concat(:oldPath, '/'))")
+    int replacePath(@Param("ownerId") Long ownerId, @Param("oldPath") String oldPath, @Param("newPath") String newPath);
+
+    @Modifying
+    @Query("delete from FileChecksum c where c.ownerId = :ownerId and (c.path = :path or substring(c.path, 1, length(:path) + 1) = concat(:path, '/'))")
+    int deleteByOwnerIdAndPath(@Param("ownerId") Long ownerId, @Param("path") String path);
+
+    @Modifying
+    @Query("delete from FileChecksum c where c.ownerId = :ownerId")
+    int deleteAllByOwnerId(@Param("ownerId") Long ownerId);
+}
@@ -2,8 +2,13 @@ package com.fastfile.repository;
 
 import com.fastfile.model.FileLink;
 import lombok.NonNull;
+import jakarta.transaction.Transactional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
@@ -16,4 +21,37 @@ public interface FileLinkRepository extends JpaRepository<FileLink, UUID> {
     boolean existsByPath(String path);
 
     Set<FileLink> findAllByPath(String string);
+
+    List<FileLink> findAllByPathIn(Collection<String> paths);
+
+    // Set-based rewrite of every link under oldPrefix. LIKE (with "_" and "%" escaped) so the prefix index is used.
+    @Transactional
+    @Modifying
+    @Query("update FileLink l set l.path = concat(:newPrefix, substring(l.path, length(:oldPrefix) + 1)) " +
+            "where l.path like :pattern escape '!'")
+    int replacePathPrefix(@Param("oldPrefix") String oldPrefix, @Param("newPrefix") String newPrefix, @Param("pattern") String pattern);
+
+    default int replacePathPrefix(String oldPrefix, String newPrefix) {
+        return replacePathPrefix(oldPrefix, newPrefix, likePrefix(oldPrefix));
+    }
+
+    // Links to path itself and everything below it, shares have to go first (FileLinkShareRepository.deleteAllOfLinksUnder).
+    @Transactional
+    @Modifying
+    @Query("delete from FileLink l where l.path = :path or l.path like :pattern escape '!'")
+    int deleteAllUnder(@Param("path") String path, @Param("pattern") String pattern);
+
+    default int deleteAllUnder(String path) {
+        return deleteAllUnder(path, likePrefix(path + "/"));
+    }
+
+    // LIKE pattern matching everything starting with prefix, "!" is the escape character.
+    static String likePrefix(String prefix) {
+        return prefix.replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%";
+    }
+
+    @Transactional
+    @Modifying
+    @Query("update FileLink l set l.path = :newPath where l.path = :oldPath")
+    int replacePath(@Param("oldPath") String oldPath, @Param("newPath") String newPath);
 }
@@ -1,8 +1,13 @@
 package com.fastfile.repository;
 
 import com.fastfile.model.FileLinkShare;
+import jakarta.transaction.Transactional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
@@ -12,4 +17,20 @@ public interface FileLinkShareRepository extends JpaRepository<FileLinkShare, Lo
     List<FileLinkShare> findAllBySharedUserEmail(String email);
 
     void deleteAllByFileLinkUuid(UUID fileLinkUuid);
+
+    // Single statement, derived deleteBy loads and removes every share one by one.
+    @Modifying
+    @Query("delete from FileLinkShare s where s.fileLinkUuid in :uuids")
+    int deleteAllByFileLinkUuidIn(@Param("uuids") Collection<UUID> uuids);
+
+    // Shares of the links FileLinkRepository.deleteAllUnder removes.
+    @Transactional
+    @Modifying
+    @Query("delete from FileLinkShare s where s.fileLinkUuid in " +
+            "(select l.uuid from FileLink l where l.path = :path or l.path like :pattern escape '!')")
+    int deleteAllOfLinksUnder(@Param("path") String path, @Param("pattern") String pattern);
+
+    default int deleteAllOfLinksUnder(String path) {
+        return deleteAllOfLinksUnder(path, FileLinkRepository.likePrefix(path + "/"));
+    }
 }
@@ -0,0 +1,38 @@
+package com.fastfile.repository;
+
+import com.fastfile.model.FileVersion;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface FileVersionRepository extends JpaRepository<FileVersion, Long> {
+
+    List<FileVersion> findAllByOwnerIdAndPathOrderByIdDesc(Long ownerId, String path);
+
+    Optional<FileVersion> findByIdAndOwnerId(Long id, Long ownerId);
+
+    @Query("select coalesce(sum(v.size), 0) from FileVersion v where v.ownerId = :ownerId")
+    long sumSizeByOwnerId(@Param("ownerId") Long ownerId);
+
+    List<FileVersion> findAllByCreatedAtBefore(Long cutoff, Limit limit);
+
+    // Versions with at least keep newer versions of the same file.
+    @Query("select v from FileVersion v where (select count(n) from FileVersion n where n.ownerId = v.ownerId and n.path = v.path and n.id > v.id) >= :keep")
+    List<FileVersion> findAllBeyondNewest(@Param("keep") long keep, Limit limit);
+
+    // Follows a move of path itself and, for directories, everything below it.
+    @Modifying
+    @Query("update FileVersion v set v.path = case when v.path = :oldPath then :newPath " +
+            "else concat(:newPath, substring(v.path, length(:oldPath) + 1)) end " +
+            "where v.ownerId = :ownerId and (v.path = :oldPath or substring(v.path, 1, length(:oldPath) + 1) = concat(:oldPath, '/'))")
+    int replacePath(@Param("ownerId") Long ownerId, @Param("oldPath") String oldPath, @Param("newPath") String newPath);
+
+    @Modifying
+    @Query("delete from FileVersion v where v.ownerId = :ownerId")
+    int deleteAllByOwnerId(@Param("ownerId") Long ownerId);
+}
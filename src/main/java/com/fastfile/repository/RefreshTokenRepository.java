@@ -0,0 +1,32 @@
+package com.fastfile.repository;
+
+import com.fastfile.model.RefreshToken;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Optional;
+import java.util.UUID;
+
+public interface RefreshTokenRepository extends JpaRepository<RefreshToken, Long> {
+
+    Optional<RefreshToken> findByTokenHash(String tokenHash);
+
+    // Single statement claim, of two concurrent refreshes with the same token only one gets 1.
+    @Modifying
+    @Query("update RefreshToken t set t.usedAt = :now where t.tokenHash = :tokenHash and t.usedAt is null and t.expiresAt > :now")
+    int markUsed(@Param("tokenHash") String tokenHash, @Param("now") Long now);
+
+    @Modifying
+    @Query("delete from RefreshToken t where t.family = :family")
+    int deleteAllByFamily(@Param("family") UUID family);
+
+    @Modifying
+    @Query("delete from RefreshToken t where t.userId = :userId")
+    int deleteAllByUserId(@Param("userId") Long userId);
+
+    @Modifying
+    @Query("delete from RefreshToken t where t.expiresAt < :cutoff")
+    int deleteAllExpiredBefore(@Param("cutoff") Long cutoff);
+}
@@ -1,7 +1,11 @@
 package com.fastfile.repository;
 
 import com.fastfile.model.User;
+import jakarta.transaction.Transactional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.Optional;
 
@@ -9,4 +13,42 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByUsername(String username);
 
     Optional<User> findByEmail(String email);
+
+    // Clears the persistence context, so users read afterwards see the new floor.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update User u set u.changeFloor = :floor where u.id = :id and (u.changeFloor is null or u.changeFloor < :floor)")
+    int raiseChangeFloor(@Param("id") Long id, @Param("floor") Long floor);
+
+    // Next change journal seq. The row stays locked until commit, so a user's entries get their seqs in commit order.
+    // change_seq isn't mapped on User, saving a stale User can't set it back.
+    @Query(value = "update _user set change_seq = change_seq + 1 where id = :id returning change_seq", nativeQuery = true)
+    Long nextChangeSeq(@Param("id") Long id);
+
+    @Query(value = "select change_seq from _user where id = :id", nativeQuery = true)
+    Long findChangeSeq(@Param("id") Long id);
+
+    @Modifying
+    @Query("update User u set u.usedStorage = u.usedStorage + :delta where u.id = :id")
+    int addUsedStorage(@Param("id") Long id, @Param("delta") long delta);
+
+    // Recount from a background thread, doesn't load the User or overwrite its other columns.
+    @Transactional
+    @Modifying
+    @Query("update User u set u.usedStorage = :usedStorage where u.id = :id")
+    int setUsedStorage(@Param("id") Long id, @Param("usedStorage") long usedStorage);
+
+    // Scalar query, reads the column even while a stale User is in the persistence context.
+    @Query("select u.dataKey from User u where u.id = :id")
+    String findDataKey(@Param("id") Long id);
+
+    @Transactional
+    @Modifying
+    @Query("update User u set u.dataKey = :dataKey where u.id = :id and u.dataKey is null")
+    int setDataKeyIfAbsent(@Param("id") Long id, @Param("dataKey") String dataKey);
+
+    // Compare-and-set, a rehash on login doesn't overwrite a password changed in the meantime.
+    @Transactional
+    @Modifying
+    @Query("update User u set u.password = :newPassword where u.id = :id and u.password = :oldPassword")
+    int updatePassword(@Param("id") Long id, @Param("oldPassword") String oldPassword, @Param("newPassword") String newPassword);
 }
@@ -0,0 +1,202 @@
+package com.fastfile.service;
+
+import com.fastfile.dto.ArchiveImportDTO;
+import com.fastfile.event.FileChangeEvent;
+import com.fastfile.metrics.FileMetrics;
+import com.fastfile.model.User;
+import com.fastfile.storage.ChecksumInputStream;
+import com.fastfile.storage.ChecksumStore;
+import com.fastfile.storage.DirectoryStats;
+import com.fastfile.storage.FileEncryption;
+import com.fastfile.storage.VersionStore;
+import com.fastfile.transfer.BandwidthLimiter;
+import com.fastfile.transfer.TransferAdmission;
+import com.fastfile.transfer.TransferType;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// Extracts a ZIP or TAR (optionally gzip/bzip2 compressed) request body into a user directory while it streams in,
+// one request and one storage recount for a whole folder instead of one upload per file.
+@Service
+public class ArchiveImportService {
+
+    private final UserService userService;
+    private final FileService fileService;
+    private final DirectoryStats directoryStats;
+    private final VersionStore versionStore;
+    private final ChecksumStore checksumStore;
+    private final FileEncryption encryption;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final TransferAdmission transferAdmission;
+    private final FileMetrics fileMetrics;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Value("${files.archive.max-entries:100000}")
+    private int maxEntries;
+
+    public ArchiveImportService(UserService userService, FileService fileService, DirectoryStats directoryStats, VersionStore versionStore, ChecksumStore checksumStore, FileEncryption encryption, BandwidthLimiter bandwidthLimiter, TransferAdmission transferAdmission, FileMetrics fileMetrics, ApplicationEventPublisher eventPublisher) {
+        this.userService = userService;
+        this.fileService = fileService;
+        this.directoryStats = directoryStats;
+        this.versionStore = versionStore;
+        this.checksumStore = checksumStore;
+        this.encryption = encryption;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.transferAdmission = transferAdmission;
+        this.fileMetrics = fileMetrics;
+        this.eventPublisher = eventPublisher;
+    }
+
+    // Entries extracted before an error stay in place, the result says how far it got.
+    public ArchiveImportDTO importMyArchive(String directory, InputStream body) throws IOException {
+        User me = userService.getMe();
+        Path userRoot = userService.getMyUserPath().toAbsolutePath().normalize();
+        // {*path} variables start with "/".
+        Path target = userService.getMyUserPath(directory == null ? "" : directory.replaceFirst("^/+", "")).toAbsolutePath().normalize();
+        long remaining = userService.getMyUserStorageLimit() - userService.getMyUsedStorage();
+
+        int files = 0;
+        int directories = 0;
+        long bytes = 0;
+        List<String> skipped = new ArrayList<>();
+        String error = null;
+        long start = System.nanoTime();
+        try (var permit = transferAdmission.admit(TransferType.UPLOAD, me.getId());
+             ArchiveInputStream<?> archive = open(bandwidthLimiter.forUpload(me).wrap(body))) {
+            createDirectories(target, userRoot, me);
+            ArchiveEntry entry;
+            int entries = 0;
+            while ((entry = archive.getNextEntry()) != null) {
+                if (++entries > maxEntries) {
+                    error = "Archive has more than " + maxEntries + " entries.";
+                    break;
+                }
+                Path path = resolve(target, entry.getName());
+                if (path == null || !isRegularOrDirectory(entry) || !archive.canReadEntryData(entry)) {
+                    skipped.add(entry.getName());
+                    continue;
+                }
+                if (entry.isDirectory()) {
+                    if (createDirectories(path, userRoot, me)) directories++;
+                    continue;
+                }
+                createDirectories(path.getParent(), userRoot, me);
+                long oldSize = -1;
+                if (Files.exists(path)) {
+                    if (!versionStore.isEnabled() || !Files.isRegularFile(path)) {
+                        skipped.add(entry.getName());
+                        continue;
+                    }
+                    oldSize = directoryStats.sizeOf(path);
+                }
+                long written = write(archive, path, remaining, me, oldSize >= 0);
+                if (written < 0) {
+                    error = "Storage limit exceeded.";
+                    break;
+                }
+                remaining -= written;
+                bytes += written;
+                files++;
+                if (oldSize < 0) {
+                    directoryStats.fileAdded(path, written);
+                } else {
+                    directoryStats.fileResized(path, written - oldSize);
+                }
+                publish(me, userRoot, path, oldSize < 0 ? FileChangeEvent.Type.CREATED : FileChangeEvent.Type.MODIFIED, false);
+            }
+        } catch (ArchiveException e) {
+            error = "Not a ZIP or TAR archive.";
+        } finally {
+            fileMetrics.recordTransfer(fileMetrics.requestTags(), "archive-upload", bytes, System.nanoTime() - start);
+            fileMetrics.recordWalk("archive-import", files + directories, start);
+        }
+
+        fileService.updateMyUserStorage();
+        return new ArchiveImportDTO(files, directories, bytes, skipped, error);
+    }
+
+    private static ArchiveInputStream<?> open(InputStream in) throws IOException, ArchiveException {
+        InputStream buffered = new BufferedInputStream(in);
+        try {
+            buffered = new BufferedInputStream(new CompressorStreamFactory().createCompressorInputStream(buffered));
+        } catch (CompressorException e) {
+            // Not compressed, or a ZIP which compresses per entry.
+        }
+        return new ArchiveStreamFactory().createArchiveInputStream(buffered);
+    }
+
+    // null when the entry name would land outside target (absolute, "..", NUL).
+    private static Path resolve(Path target, String name) {
+        if (name == null || name.isEmpty() || name.contains("\u0000")) return null;
+        String relative = name.replace('\\', '/').replaceFirst("^\\./", "");
+        if (relative.startsWith("/") || relative.matches("^[A-Za-z]:.*")) return null;
+        Path resolved = target.resolve(relative).normalize();
+        return resolved.startsWith(target) ? resolved : null;
+    }
+
+    // Links and devices could point outside the user root, only plain files and directories are extracted.
+    private static boolean isRegularOrDirectory(ArchiveEntry entry) {
+        if (entry instanceof TarArchiveEntry tar) return tar.isFile() || tar.isDirectory();
+        if (entry instanceof ZipArchiveEntry zip) return !zip.isUnixSymlink();
+        return true;
+    }
+
+    // Returns the plaintext bytes written, -1 when the entry didn't fit into the remaining quota (nothing is left behind then).
+    private long write(InputStream entryData, Path path, long remaining, User me, boolean replace) throws IOException {
+        Path temp = path.resolveSibling("." + path.getFileName() + "." + UUID.randomUUID() + ".part");
+        try {
+            long written = 0;
+            // Not closed, that would close the archive.
+            ChecksumInputStream hashed = new ChecksumInputStream(entryData);
+            try (OutputStream out = encryption.create(path, temp)) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                // Entry sizes in headers can lie, the quota is checked on what actually arrives.
+                while ((read = hashed.read(buffer)) != -1) {
+                    written += read;
+                    if (written > remaining) return -1;
+                    out.write(buffer, 0, read);
+                }
+            }
+            if (replace) versionStore.preserve(me.getId(), path);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            checksumStore.record(path, hashed);
+            return written;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // True when the directory didn't exist before.
+    private boolean createDirectories(Path dir, Path userRoot, User me) throws IOException {
+        if (Files.isDirectory(dir)) return false;
+        Path firstMissing = dir;
+        while (!Files.exists(firstMissing.getParent())) firstMissing = firstMissing.getParent();
+        Files.createDirectories(dir);
+        directoryStats.directoryCreated(dir);
+        publish(me, userRoot, firstMissing, FileChangeEvent.Type.CREATED, true);
+        return true;
+    }
+
+    private void publish(User me, Path userRoot, Path path, FileChangeEvent.Type type, boolean directory) {
+        eventPublisher.publishEvent(FileChangeEvent.of(me.getId(), type, userRoot.relativize(path).toString(), directory));
+    }
+}
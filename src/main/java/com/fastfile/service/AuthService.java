@@ -1,12 +1,13 @@
 package com.fastfile.service;
 
+import com.fastfile.config.ReplicaRoutingDataSource;
 import com.fastfile.model.User;
 import com.fastfile.repository.UserRepository;
 import com.fastfile.auth.JwtService;
+import com.fastfile.auth.PasswordHasher;
 import io.jsonwebtoken.Claims;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import java.util.Optional;
@@ -16,29 +17,37 @@ public class AuthService {
 
     private final UserRepository userRepository;
     private final JwtService jwtService;
-    private final BCryptPasswordEncoder passwordEncoder;
+    private final PasswordHasher passwordHasher;
 
-    public AuthService(UserRepository userRepository, JwtService jwtService, BCryptPasswordEncoder passwordEncoder) {
+    public AuthService(UserRepository userRepository, JwtService jwtService, PasswordHasher passwordHasher) {
         this.userRepository = userRepository;
         this.jwtService = jwtService;
-        this.passwordEncoder = passwordEncoder;
+        this.passwordHasher = passwordHasher;
     }
 
     public String authenticate(String username, String password) throws RuntimeException {
-        // Find the user by username
-        Optional<User> userOpt = userRepository.findByUsername(username);
+        // Generate token if valid
+        return jwtService.generateToken(verifyCredentials(username, password));
+    }
+
+    public User verifyCredentials(String username, String password) throws RuntimeException {
+        // Find the user by username, on the primary: nobody is signed in to read their own writes yet
+        Optional<User> userOpt = ReplicaRoutingDataSource.onPrimary(() -> userRepository.findByUsername(username));
         if (userOpt.isEmpty()) {
             throw new RuntimeException("User not found:" + username);
         }
 
         // Check if the password matches
         User user = userOpt.get();
-        if (!passwordEncoder.matches(password, user.getPassword())) {
+        PasswordHasher.Verification verification = passwordHasher.verify(password, user.getPassword());
+        if (!verification.matches()) {
             throw new RuntimeException("Invalid password");
         }
-
-        // Generate token if valid
-        return jwtService.generateToken(user);
+        // Older algorithm or cost factor, replaced unless the password was changed meanwhile.
+        if (verification.upgradedHash() != null) {
+            userRepository.updatePassword(user.getId(), user.getPassword(), verification.upgradedHash());
+        }
+        return user;
     }
 
     public Long getMyUserId() {
@@ -46,4 +55,11 @@ public class AuthService {
         Claims claims = (Claims) auth.getDetails();
         return Long.parseLong(String.valueOf(claims.get("userId")));
     }
+
+    // Tier as of the token, a type change shows up with the next access token.
+    public String getMyUserType() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        Claims claims = (Claims) auth.getDetails();
+        return claims.get("userType", String.class);
+    }
 }
@@ -0,0 +1,232 @@
+package com.fastfile.service;
+
+import com.fastfile.event.FileChangeEvent;
+import com.fastfile.metrics.FileMetrics;
+import com.fastfile.model.User;
+import com.fastfile.storage.ChecksumStore;
+import com.fastfile.storage.DirectoryStats;
+import com.fastfile.storage.FileEncryption;
+import com.fastfile.storage.VersionStore;
+import com.fastfile.transfer.BandwidthLimiter;
+import com.fastfile.transfer.TransferAdmission;
+import com.fastfile.transfer.TransferType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32C;
+
+// rsync-style updates of existing files. The client reads the block signatures of the current file, finds the
+// blocks it still has with the rolling (Adler-32) checksum and the strong (SHA-256) hash, and sends only new data:
+//   'C' <long firstBlock> <int blockCount>   copy blocks of the current file
+//   'L' <int length> <bytes>                 literal data
+//   'E' <32 bytes SHA-256 of the new file>   end
+// The new file is assembled next to the old one and renamed over it, readers see either version, never a mix.
+@Service
+public class DeltaSyncService {
+
+    public static final String VERSION_CONFLICT = "File changed since its signatures were read.";
+
+    public record BlockSignature(int index, long weak, String strong) {}
+
+    // version has to be passed back with the delta, so it isn't applied on top of a different file.
+    public record FileSignatures(String version, long size, int blockSize, List<BlockSignature> blocks) {}
+
+    private static final int MIN_BLOCK_SIZE = 512;
+    private static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_LITERAL = 16 * 1024 * 1024;
+
+    private final UserService userService;
+    private final FileService fileService;
+    private final DirectoryStats directoryStats;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final TransferAdmission transferAdmission;
+    private final FileMetrics fileMetrics;
+    private final ApplicationEventPublisher eventPublisher;
+    private final VersionStore versionStore;
+    private final ChecksumStore checksumStore;
+    private final FileEncryption encryption;
+
+    @Value("${files.delta.block-size:65536}")
+    private int defaultBlockSize;
+    @Value("${files.delta.max-blocks:65536}")
+    private int maxBlocks;
+
+    public DeltaSyncService(UserService userService, FileService fileService, DirectoryStats directoryStats, BandwidthLimiter bandwidthLimiter, TransferAdmission transferAdmission, FileMetrics fileMetrics, ApplicationEventPublisher eventPublisher, VersionStore versionStore, ChecksumStore checksumStore, FileEncryption encryption) {
+        this.userService = userService;
+        this.fileService = fileService;
+        this.directoryStats = directoryStats;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.transferAdmission = transferAdmission;
+        this.fileMetrics = fileMetrics;
+        this.eventPublisher = eventPublisher;
+        this.versionStore = versionStore;
+        this.checksumStore = checksumStore;
+        this.encryption = encryption;
+    }
+
+    public FileSignatures mySignatures(String filePath, Integer blockSize) throws IOException {
+        Path path = userService.getMyUserPath(filePath).normalize();
+        if (!Files.isRegularFile(path)) return null;
+        String version = version(path);
+        long size = encryption.plaintextSize(path);
+        // Large files get larger blocks, the signature list stays bounded.
+        int chosen = (int) Math.clamp(Math.max(blockSize != null ? blockSize : defaultBlockSize, Math.ceilDiv(size, maxBlocks)), MIN_BLOCK_SIZE, MAX_BLOCK_SIZE);
+
+        List<BlockSignature> blocks = new ArrayList<>((int) Math.ceilDiv(size, chosen));
+        MessageDigest sha256 = sha256();
+        Adler32 adler32 = new Adler32();
+        HexFormat hex = HexFormat.of();
+        byte[] block = new byte[chosen];
+        long start = System.nanoTime();
+        try (InputStream in = encryption.open(path, 0, -1)) {
+            int read;
+            while ((read = in.readNBytes(block, 0, chosen)) > 0) {
+                adler32.reset();
+                adler32.update(block, 0, read);
+                sha256.update(block, 0, read);
+                blocks.add(new BlockSignature(blocks.size(), adler32.getValue(), hex.formatHex(sha256.digest())));
+            }
+        } finally {
+            fileMetrics.recordWalk("signatures", blocks.size(), start);
+        }
+        return new FileSignatures(version, size, chosen, blocks);
+    }
+
+    // Returns an error message, null when the new version is in place.
+    public String applyMyDelta(String filePath, String version, int blockSize, InputStream delta) throws IOException {
+        Path path = userService.getMyUserPath(filePath).normalize();
+        if (!Files.isRegularFile(path)) return "File doesn't exist.";
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) return "Invalid block size.";
+        if (version == null || !version.equals(version(path))) return VERSION_CONFLICT;
+
+        User me = userService.getMe();
+        // Blocks are numbered in the content, which differs from what is stored with encryption.
+        long oldSize = encryption.plaintextSize(path);
+        // With versioning the old content stays and keeps counting, the new file has to fit on its own.
+        long maxSize = (versionStore.isEnabled() ? 0 : oldSize) + Math.max(0, userService.getMyUserStorageLimit() - userService.getMyUsedStorage());
+        Path temp = path.resolveSibling("." + path.getFileName() + "." + UUID.randomUUID() + ".part");
+        try (var permit = transferAdmission.admit(TransferType.UPLOAD, me.getId())) {
+            long start = System.nanoTime();
+            long[] literalBytes = {0};
+            // The new file's SHA-256 is checked against the client's anyway, CRC32C comes along for the checksum store.
+            MessageDigest sha256 = sha256();
+            CRC32C crc32c = new CRC32C();
+            String error;
+            try (OutputStream out = encryption.create(path, temp); FileEncryption.Ranges base = encryption.ranges(path)) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(bandwidthLimiter.forUpload(me).wrap(delta)));
+                error = assemble(in, base, oldSize, blockSize, out, maxSize, literalBytes, sha256, crc32c);
+            } catch (EOFException e) {
+                error = "Delta ended unexpectedly.";
+            }
+            fileMetrics.recordTransfer(fileMetrics.requestTags(), "delta-upload", literalBytes[0], System.nanoTime() - start);
+            if (error != null) return error;
+            // Someone replaced the file while we assembled, their version wins.
+            if (!version.equals(version(path))) return VERSION_CONFLICT;
+            if (versionStore.isEnabled()) versionStore.preserve(me.getId(), path);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            checksumStore.record(path, HexFormat.of().formatHex(sha256.digest()), String.format("%08x", crc32c.getValue()));
+            directoryStats.fileResized(path, directoryStats.sizeOf(path) - oldSize);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        String relative = userService.getMyUserPath().toAbsolutePath().normalize().relativize(path.toAbsolutePath()).toString();
+        eventPublisher.publishEvent(FileChangeEvent.of(me.getId(), FileChangeEvent.Type.MODIFIED, relative, false));
+        fileService.updateMyUserStorage();
+        return null;
+    }
+
+    private String assemble(DataInputStream in, FileEncryption.Ranges base, long baseSize, int blockSize, OutputStream out, long maxSize, long[] literalBytes, MessageDigest sha256, CRC32C crc32c) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+        long baseBlocks = Math.ceilDiv(baseSize, blockSize);
+        long written = 0;
+        while (true) {
+            int op = in.read();
+            switch (op) {
+                case 'C' -> {
+                    long first = in.readLong();
+                    int count = in.readInt();
+                    if (first < 0 || count <= 0 || first + count > baseBlocks) return "Block reference out of range.";
+                    long offset = first * blockSize;
+                    long length = Math.min((long) count * blockSize, baseSize - offset);
+                    if (written + length > maxSize) return "Storage limit exceeded.";
+                    written += length;
+                    // Encrypted files decrypt only the segments of this run.
+                    try (InputStream blocks = base.range(offset, length)) {
+                        while (length > 0) {
+                            int read = blocks.readNBytes(buffer.array(), 0, (int) Math.min(buffer.capacity(), length));
+                            if (read <= 0) return VERSION_CONFLICT;
+                            length -= read;
+                            write(buffer.clear().limit(read), out, sha256, crc32c);
+                        }
+                    }
+                }
+                case 'L' -> {
+                    int length = in.readInt();
+                    if (length < 0 || length > MAX_LITERAL) return "Invalid literal length.";
+                    if (written + length > maxSize) return "Storage limit exceeded.";
+                    written += length;
+                    literalBytes[0] += length;
+                    while (length > 0) {
+                        int chunk = Math.min(buffer.capacity(), length);
+                        in.readFully(buffer.array(), 0, chunk);
+                        length -= chunk;
+                        write(buffer.clear().limit(chunk), out, sha256, crc32c);
+                    }
+                }
+                case 'E' -> {
+                    byte[] expected = in.readNBytes(32);
+                    // Digest of a clone, the caller still needs it.
+                    return MessageDigest.isEqual(expected, clone(sha256).digest()) ? null : "Checksum of the new file doesn't match.";
+                }
+                default -> {
+                    return "Malformed delta.";
+                }
+            }
+        }
+    }
+
+    private static void write(ByteBuffer buffer, OutputStream out, MessageDigest sha256, CRC32C crc32c) throws IOException {
+        sha256.update(buffer.array(), buffer.position(), buffer.remaining());
+        crc32c.update(buffer.array(), buffer.position(), buffer.remaining());
+        out.write(buffer.array(), buffer.position(), buffer.remaining());
+    }
+
+    private static String version(Path path) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        return attrs.size() + "-" + attrs.lastModifiedTime().toMillis();
+    }
+
+    private static MessageDigest clone(MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.fastfile.service;
+
+import com.fastfile.config.ReplicaRoutingDataSource;
+import com.fastfile.metrics.FileMetrics;
+import com.fastfile.model.FileLink;
+import com.fastfile.model.FileLinkShare;
+import com.fastfile.repository.FileLinkRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+// UUID -> link cache for the link download and lookup endpoints.
+// Only one thread loads a missing UUID, the others wait for its result (no stampede on the DB).
+@Service
+public class FileLinkCache {
+
+    public record CachedFileLink(UUID uuid, String path, Long ownerId, boolean isPublic, List<FileLinkShare> shares) {
+
+        static CachedFileLink of(FileLink fileLink) {
+            List<FileLinkShare> shares = fileLink.getFileLinkShares() == null
+                    ? null
+                    : fileLink.getFileLinkShares().stream().map(CachedFileLink::copyOf).toList();
+            Long ownerId = fileLink.getOwner() != null ? fileLink.getOwner().getId() : fileLink.getOwnerId();
+            return new CachedFileLink(fileLink.getUuid(), fileLink.getPath(), ownerId, fileLink.getIsPublic(), shares);
+        }
+
+        // Detached copy, safe to hand out to controllers and serialize.
+        public FileLink toFileLink() {
+            FileLink fileLink = new FileLink();
+            fileLink.setUuid(uuid);
+            fileLink.setPath(path);
+            fileLink.setOwnerId(ownerId);
+            fileLink.setIsPublic(isPublic);
+            if (shares != null) {
+                fileLink.setFileLinkShares(new ArrayList<>(shares.stream().map(CachedFileLink::copyOf).toList()));
+            }
+            return fileLink;
+        }
+
+        private static FileLinkShare copyOf(FileLinkShare share) {
+            FileLinkShare copy = new FileLinkShare(share.getFileLinkUuid(), share.getSharedUserEmail());
+            copy.setId(share.getId());
+            return copy;
+        }
+    }
+
+    private record Entry(CompletableFuture<CachedFileLink> value, long expiresAt) {
+        boolean isExpired(long now) {
+            return value.isDone() && now >= expiresAt;
+        }
+    }
+
+    private final FileLinkRepository fileLinkRepository;
+    private final FileMetrics fileMetrics;
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+    @Value("${files.link-cache.ttl-ms:60000}")
+    private long ttlMs;
+    @Value("${files.link-cache.max-entries:10000}")
+    private int maxEntries;
+
+    public FileLinkCache(FileLinkRepository fileLinkRepository, FileMetrics fileMetrics) {
+        this.fileLinkRepository = fileLinkRepository;
+        this.fileMetrics = fileMetrics;
+    }
+
+    public Optional<CachedFileLink> get(UUID uuid) {
+        long now = System.currentTimeMillis();
+        while (true) {
+            Entry entry = entries.get(uuid);
+            if (entry != null && !entry.isExpired(now)) {
+                fileMetrics.linkCacheLookup(true);
+                return join(entry);
+            }
+            Entry loading = new Entry(new CompletableFuture<>(), now + ttlMs);
+            boolean won = entry == null
+                    ? entries.putIfAbsent(uuid, loading) == null
+                    : entries.replace(uuid, entry, loading);
+            if (won) {
+                fileMetrics.linkCacheLookup(false);
+                load(uuid, loading);
+                evictIfFull(now);
+                return join(loading);
+            }
+        }
+    }
+
+    private Optional<CachedFileLink> join(Entry entry) {
+        try {
+            return Optional.ofNullable(entry.value().join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+
+    private void load(UUID uuid, Entry loading) {
+        try {
+            // Cached for everyone for the whole TTL, a lagging replica's row mustn't be.
+            CachedFileLink cached = ReplicaRoutingDataSource.onPrimary(() -> fileLinkRepository.findById(uuid)).map(CachedFileLink::of).orElse(null);
+            loading.value().complete(cached);
+            // Misses aren't cached, a link may be created under that UUID any time.
+            if (cached == null) entries.remove(uuid, loading);
+        } catch (RuntimeException e) {
+            entries.remove(uuid, loading);
+            loading.value().completeExceptionally(e);
+        }
+    }
+
+    private void evictIfFull(long now) {
+        if (entries.size() <= maxEntries) return;
+        entries.values().removeIf(entry -> entry.isExpired(now));
+        Iterator<UUID> it = entries.keySet().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    public void invalidate(UUID uuid) {
+        entries.remove(uuid);
+        afterCommit(() -> entries.remove(uuid));
+    }
+
+    public void invalidate(Collection<UUID> uuids) {
+        uuids.forEach(this::invalidate);
+    }
+
+    // Drops every link pointing at path itself or anything below it (deleted directories).
+    public void invalidatePath(String path) {
+        Runnable eviction = () -> entries.values().removeIf(entry -> {
+            CachedFileLink link = entry.value().isCompletedExceptionally() ? null : entry.value().getNow(null);
+            return link != null && (link.path().equals(path) || link.path().startsWith(path + "/"));
+        });
+        eviction.run();
+        afterCommit(eviction);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    // Evict once more after commit, so a reader racing the transaction can't keep the old row cached.
+    private void afterCommit(Runnable eviction) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) return;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                eviction.run();
+            }
+        });
+    }
+}
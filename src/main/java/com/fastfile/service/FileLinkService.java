@@ -1,12 +1,19 @@
 package com.fastfile.service;
 
+import com.fastfile.config.ReadOnlyTransactional;
 import com.fastfile.dto.FileDTO;
+import com.fastfile.dto.FileForDownloadDTO;
+import com.fastfile.metrics.FileMetrics;
+import com.fastfile.model.FileChecksum;
 import com.fastfile.model.FileMetadata;
 import com.fastfile.model.FileLink;
 import com.fastfile.model.FileLinkShare;
 import com.fastfile.model.User;
 import com.fastfile.repository.FileLinkRepository;
 import com.fastfile.repository.FileLinkShareRepository;
+import com.fastfile.transfer.BandwidthLimiter;
+import com.fastfile.transfer.TransferAdmission;
+import com.fastfile.transfer.TransferType;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.transaction.Transactional;
 import org.springframework.dao.DataIntegrityViolationException;
@@ -25,16 +32,26 @@ import java.util.stream.Collectors;
 @Service
 public class FileLinkService {
     private final UserService userService;
+    private final AuthService authService;
     private final FileLinkRepository fileLinkRepository;
     private final FileSystemService fileSystemService;
     private final FileLinkShareRepository fileLinkShareRepository;
+    private final FileLinkCache fileLinkCache;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final TransferAdmission transferAdmission;
+    private final FileMetrics fileMetrics;
 
 
-    public FileLinkService(UserService userService, FileLinkRepository fileLinkRepository, FileSystemService fileSystemService, FileLinkShareRepository fileLinkShareRepository) {
+    public FileLinkService(UserService userService, AuthService authService, FileLinkRepository fileLinkRepository, FileSystemService fileSystemService, FileLinkShareRepository fileLinkShareRepository, FileLinkCache fileLinkCache, BandwidthLimiter bandwidthLimiter, TransferAdmission transferAdmission, FileMetrics fileMetrics) {
         this.userService = userService;
+        this.authService = authService;
         this.fileLinkRepository = fileLinkRepository;
         this.fileSystemService = fileSystemService;
         this.fileLinkShareRepository = fileLinkShareRepository;
+        this.fileLinkCache = fileLinkCache;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.transferAdmission = transferAdmission;
+        this.fileMetrics = fileMetrics;
     }
 
     private FileLink createFileLink(String filePath, Boolean isPublic) {
@@ -134,6 +151,7 @@ public class FileLinkService {
         fileLinkShareRepository.saveAll(sharesToAdd);
 
         fileLink.setFileLinkShares(_newShares);
+        fileLinkCache.invalidate(uuid);
 
         return fileLinkRepository.findById(uuid).orElseThrow();
     }
@@ -147,16 +165,30 @@ public class FileLinkService {
         }
         if (!linkToRemove.getIsPublic()) fileLinkShareRepository.deleteAllByFileLinkUuid(linkToRemove.getUuid());
         fileLinkRepository.delete(linkToRemove);
+        fileLinkCache.invalidate(uuid);
         return true;
     }
 
     public ResponseEntity<StreamingResponseBody> downloadFileFromLink(UUID uuid) throws IOException {
-        FileLink fileLink = fileLinkRepository.findById(uuid).orElseThrow();
-        Path filePath = Paths.get(fileLink.getPath());
-
-        var file = fileSystemService.prepareFileForDownload(filePath);
+        var cachedLink = fileLinkCache.get(uuid);
+        fileMetrics.linkDownload(cachedLink.isPresent());
+        var fileLink = cachedLink.orElseThrow();
+        Path filePath = Paths.get(fileLink.path());
+
+        // Id and tier from the token, no user lookup per download.
+        Long myId = authService.getMyUserId();
+
+        var permit = transferAdmission.admit(TransferType.DOWNLOAD, myId).bindToRequest();
+        FileForDownloadDTO file;
+        try {
+            file = fileSystemService.prepareFileForDownload(filePath, bandwidthLimiter.forLinkDownload(uuid, myId, authService.getMyUserType()), permit::close);
+        } catch (IOException | RuntimeException e) {
+            permit.close();
+            throw e;
+        }
 
         if (file == null) {
+            permit.close();
             return ResponseEntity.notFound().build();
         }
         return ResponseEntity.ok().headers(file.headers()).body(file.body());
@@ -167,34 +199,45 @@ public class FileLinkService {
         return new FileDTO(metadata, fileLink);
     }
 
+    // One checksum query per owner for all links instead of one per file.
+    List<FileDTO> linksToDTOs(List<FileLink> fileLinks) throws IOException {
+        Map<Path, FileChecksum> checksums = fileSystemService.checksums(fileLinks.stream().map(fileLink -> Paths.get(fileLink.getPath())).toList());
+        List<FileDTO> DTOList = new ArrayList<>();
+        for (FileLink fileLink : fileLinks) {
+            Path path = Paths.get(fileLink.getPath());
+            DTOList.add(new FileDTO(fileSystemService.getFileMetadata(path, checksums.get(path)), fileLink));
+        }
+        return DTOList;
+    }
+
+    @ReadOnlyTransactional
     public FileDTO lookupFile(UUID uuid) throws IOException {
-        FileLink fileLink = fileLinkRepository.findById(uuid).orElseThrow();
+        FileLink fileLink = fileLinkCache.get(uuid).orElseThrow().toFileLink();
         return linkToDTO(fileLink);
     }
 
+    @ReadOnlyTransactional
     public List<FileDTO> myLinks() throws IOException {
         List<FileLink> fileLinks = fileLinkRepository.findAllByOwnerId(userService.getMe().getId());
-        List<FileDTO> DTOList = new ArrayList<>();
-        for (FileLink fileLink : fileLinks) {
-            FileDTO fileDTO = linkToDTO(fileLink);
-            DTOList.add(fileDTO);
-        }
-        return DTOList;
+        return linksToDTOs(fileLinks);
     }
 
+    @ReadOnlyTransactional
     public List<FileDTO> linksSharedToMe() throws IOException {
         User me = userService.getMe();
         List<FileLinkShare> sharedLinks = fileLinkShareRepository.findAllBySharedUserEmail(me.getEmail());
-        List<FileDTO> fileDTOs = new ArrayList<>();
-        if (sharedLinks == null || sharedLinks.isEmpty()) return fileDTOs;
+        if (sharedLinks == null || sharedLinks.isEmpty()) return new ArrayList<>();
+        Map<UUID, FileLink> fileLinks = new HashMap<>();
+        fileLinkRepository.findAllById(sharedLinks.stream().map(FileLinkShare::getFileLinkUuid).toList())
+                .forEach(fileLink -> fileLinks.put(fileLink.getUuid(), fileLink));
+        List<FileLink> sharedFileLinks = new ArrayList<>();
         for (FileLinkShare sharedLink : sharedLinks) {
-            FileLink fileLink = fileLinkRepository.findById(sharedLink.getFileLinkUuid()).orElse(null);
+            FileLink fileLink = fileLinks.get(sharedLink.getFileLinkUuid());
             if (fileLink == null) {
                 throw new EntityNotFoundException("FileLink with id " + sharedLink.getFileLinkUuid() + " not found");
             }
-            FileDTO fileDTO = linkToDTO(fileLink);
-            fileDTOs.add(fileDTO);
+            sharedFileLinks.add(fileLink);
         }
-        return fileDTOs;
+        return linksToDTOs(sharedFileLinks);
     }
 }
@@ -1,32 +1,55 @@
 package com.fastfile.service;
 
-import com.fastfile.config.FilesConfig;
+import com.fastfile.config.ReadOnlyTransactional;
 import com.fastfile.dto.FileDTO;
+import com.fastfile.dto.FileForDownloadDTO;
 import com.fastfile.dto.FilePathsDTO;
+import com.fastfile.dto.UploadResultDTO;
+import com.fastfile.event.FileChangeEvent;
+import com.fastfile.event.FileChangeFeed;
+import com.fastfile.metrics.FileMetrics;
 import com.fastfile.model.FileLink;
-import com.fastfile.model.FileLinkShare;
 import com.fastfile.model.User;
 import com.fastfile.repository.FileLinkRepository;
 import com.fastfile.repository.FileLinkShareRepository;
 import com.fastfile.repository.UserRepository;
+import com.fastfile.storage.ChecksumInputStream;
+import com.fastfile.storage.ChecksumStore;
+import com.fastfile.storage.DirectoryStats;
+import com.fastfile.storage.StorageBackend;
+import com.fastfile.storage.StoragePlacement;
+import com.fastfile.storage.VersionStore;
+import com.fastfile.transfer.BandwidthLimiter;
+import com.fastfile.transfer.Throttle;
+import com.fastfile.transfer.TransferAdmission;
+import com.fastfile.transfer.TransferType;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PreDestroy;
+import jakarta.transaction.Transactional;
 import lombok.SneakyThrows;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalTime;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Objects;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -39,39 +62,88 @@ public class FileService {
     private final FileLinkRepository fileLinkRepository;
     private final FileSystemService fileSystemService;
     private final FileLinkShareRepository fileLinkShareRepository;
-
-
-    public FileService(UserService userService, UserRepository userRepository, FileLinkRepository fileLinkRepository, FileSystemService fileSystemService, FileLinkShareRepository fileLinkShareRepository) {
+    private final FileLinkCache fileLinkCache;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final TransferAdmission transferAdmission;
+    private final FileMetrics fileMetrics;
+    private final StoragePlacement storagePlacement;
+    private final StorageBackend storageBackend;
+    private final DirectoryStats directoryStats;
+    private final ApplicationEventPublisher eventPublisher;
+    private final FileChangeFeed fileChangeFeed;
+    private final VersionStore versionStore;
+    private final ChecksumStore checksumStore;
+
+    // Bytes of batch uploads in flight per user, so concurrent uploads can't overbook the quota between recounts.
+    private final Map<Long, Long> reservedStorage = new ConcurrentHashMap<>();
+    private final ExecutorService batchUploadPool;
+
+    @Value("${files.copy.hardlink:false}")
+    private boolean hardlinkCopies;
+
+    public FileService(UserService userService, UserRepository userRepository, FileLinkRepository fileLinkRepository, FileSystemService fileSystemService, FileLinkShareRepository fileLinkShareRepository, FileLinkCache fileLinkCache, BandwidthLimiter bandwidthLimiter, TransferAdmission transferAdmission, FileMetrics fileMetrics, StoragePlacement storagePlacement, StorageBackend storageBackend, DirectoryStats directoryStats, ApplicationEventPublisher eventPublisher, FileChangeFeed fileChangeFeed, VersionStore versionStore, ChecksumStore checksumStore, @Value("${files.upload.batch-threads:8}") int batchUploadThreads) {
         this.userService = userService;
         this.userRepository = userRepository;
         this.fileLinkRepository = fileLinkRepository;
         this.fileSystemService = fileSystemService;
         this.fileLinkShareRepository = fileLinkShareRepository;
+        this.fileLinkCache = fileLinkCache;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.transferAdmission = transferAdmission;
+        this.fileMetrics = fileMetrics;
+        this.storagePlacement = storagePlacement;
+        this.storageBackend = storageBackend;
+        this.directoryStats = directoryStats;
+        this.eventPublisher = eventPublisher;
+        this.fileChangeFeed = fileChangeFeed;
+        this.versionStore = versionStore;
+        this.checksumStore = checksumStore;
+        this.batchUploadPool = Executors.newFixedThreadPool(batchUploadThreads, Thread.ofPlatform().name("batch-upload-", 0).daemon().factory());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        batchUploadPool.shutdownNow();
+    }
+
+    private void publishChange(FileChangeEvent.Type type, Path path, boolean directory) {
+        Path userRoot = userService.getMyUserPath().toAbsolutePath().normalize();
+        String relative = userRoot.relativize(path.toAbsolutePath().normalize()).toString().replace('\\', '/');
+        eventPublisher.publishEvent(FileChangeEvent.of(userService.getMe().getId(), type, relative, directory));
     }
 
     long bytesInside(Path path) throws IOException {
         if (path.toFile().isFile()) {
             return path.toFile().length();
         }
+        long start = System.nanoTime();
+        long[] entries = {0};
         try (Stream<Path> stream = Files.walk(path)) {
-            return stream.filter(p -> p.toFile().isFile()).mapToLong(p -> p.toFile().length()).sum();
+            return stream.peek(p -> entries[0]++).filter(p -> p.toFile().isFile()).mapToLong(p -> p.toFile().length()).sum();
+        } finally {
+            fileMetrics.recordWalk("bytesInside", entries[0], start);
         }
     }
 
     boolean isMyStorageLimitExceeded(long newFileSize) {
-        long currentUsage = userService.getMyUsedStorage();
+        long currentUsage = userService.getMyUsedStorage() + reservedStorage.getOrDefault(userService.getMe().getId(), 0L);
         long myStorageLimit = userService.getMyUserStorageLimit();
         return (currentUsage + newFileSize) > myStorageLimit;
     }
 
     public void updateUserStorage(long userId) throws IOException {
-        long myCurrentUsage = bytesInside(userService.getMyUserPath());
+        long start = System.nanoTime();
+        // Incremental aggregate, walks the tree only the first time a user root is seen.
+        DirectoryStats.Stats stats = directoryStats.stats(storagePlacement.userRoot(userId));
+        long myCurrentUsage = stats != null ? stats.size() : bytesInside(storagePlacement.userRoot(userId));
+        myCurrentUsage += versionStore.storedBytes(userId);
         User user = userRepository.findById(userId).orElse(null);
         if (user == null) {
             throw new RuntimeException("User not found");
         }
         user.setUsedStorage(myCurrentUsage);
         userRepository.save(user);
+        fileMetrics.recordStorageRecount(start);
     }
 
     public void updateMyUserStorage() throws IOException {
@@ -81,15 +153,27 @@ public class FileService {
     // Endpoint services
 
     public boolean uploadFile(MultipartFile file, String filePath) throws IOException {
+        return uploadFile(file, filePath, null);
+    }
+
+    public boolean uploadFile(MultipartFile file, String filePath, String sha256) throws IOException {
+        return upload(file, filePath, sha256) == null;
+    }
+
+    // Returns an error message, null when uploaded. sha256 (hex or base64) is what the client computed,
+    // a mismatching upload isn't kept.
+    public String upload(MultipartFile file, String filePath, String sha256) throws IOException {
 
         if (file == null || file.isEmpty()) {
-            System.out.println("File doesn't exist.");
-            return false;
+            return "File doesn't exist.";
+        }
+
+        if (!ChecksumInputStream.isValidSha256(sha256)) {
+            return "Invalid SHA-256.";
         }
 
         if (isMyStorageLimitExceeded(file.getSize())) {
-            System.out.println("Storage limit exceeded.");
-            return false;
+            return "Storage limit exceeded.";
         }
 
         if (filePath == null) {
@@ -99,39 +183,213 @@ public class FileService {
         Path path = userService.getMyUserPath(filePath).normalize();
         Path pathWithFile = userService.getMyUserPath(filePath).resolve(Objects.requireNonNull(file.getOriginalFilename()));
 
-        // Check if path exists
-        if (!Files.exists(path)) {
-            Files.createDirectories(path);
+        User me = userService.getMe();
+        try (var permit = transferAdmission.admit(TransferType.UPLOAD, me.getId())) {
+            createDirectories(path);
+            long oldSize = -1;
+            if (Files.exists(pathWithFile)) {
+                if (!versionStore.isEnabled() || !Files.isRegularFile(pathWithFile)) {
+                    return "File already exists.";
+                }
+                oldSize = directoryStats.sizeOf(pathWithFile);
+            }
+            // Upload over an existing file keeps the old content as a version, taken once the new one is complete
+            // and right before put() swaps it in, a failed upload leaves no version behind.
+            StorageBackend.BeforeReplace preserve = oldSize < 0 ? () -> {
+            } : () -> versionStore.preserve(me.getId(), pathWithFile);
+            // Multipart body is already spooled by the servlet container, so this shapes the write into storage.
+            long start = System.nanoTime();
+            ChecksumInputStream hashed = new ChecksumInputStream(bandwidthLimiter.forUpload(me).wrap(file.getInputStream()), sha256);
+            long bytes;
+            try {
+                bytes = storageBackend.put(pathWithFile.toString(), hashed, file.getSize(), preserve);
+            } catch (ChecksumInputStream.ChecksumMismatchException e) {
+                return "Checksum doesn't match.";
+            }
+            fileMetrics.recordTransfer(fileMetrics.requestTags(), "upload", bytes, System.nanoTime() - start);
+            checksumStore.record(pathWithFile, hashed);
+            // bytes is what went into storage, the directory aggregates count the uploaded (plaintext) size.
+            if (oldSize < 0) {
+                directoryStats.fileAdded(pathWithFile, file.getSize());
+                publishChange(FileChangeEvent.Type.CREATED, pathWithFile, false);
+            } else {
+                directoryStats.fileResized(pathWithFile, file.getSize() - oldSize);
+                publishChange(FileChangeEvent.Type.MODIFIED, pathWithFile, false);
+            }
         }
-        if (Files.exists(pathWithFile)) {
-            System.out.println("File already exists: " + pathWithFile);
-            return false;
+
+        updateMyUserStorage();
+        return null;
+    }
+
+    public List<UploadResultDTO> uploadFiles(List<MultipartFile> files, List<String> directories) throws IOException {
+        return uploadFiles(files, directories, null);
+    }
+
+    // Many files in one request: one admission slot, one quota reservation for the whole batch, writes in parallel
+    // on a bounded pool, one usage recount at the end. directories[i] is the target directory of files[i],
+    // sha256s[i] the optional client checksum of files[i].
+    public List<UploadResultDTO> uploadFiles(List<MultipartFile> files, List<String> directories, List<String> sha256s) throws IOException {
+        User me = userService.getMe();
+        List<UploadResultDTO> results = new ArrayList<>(Collections.nCopies(files.size(), null));
+        Map<Integer, Path> targets = new LinkedHashMap<>();
+        Set<Path> seen = new HashSet<>();
+        long total = 0;
+        for (int i = 0; i < files.size(); i++) {
+            MultipartFile file = files.get(i);
+            String directory = directories != null && i < directories.size() && directories.get(i) != null ? directories.get(i).replaceFirst("^/+", "") : "";
+            String name = file.getOriginalFilename();
+            if (file.isEmpty() || name == null || name.isBlank()) {
+                results.set(i, UploadResultDTO.failed(name, "File doesn't exist."));
+                continue;
+            }
+            if (!ChecksumInputStream.isValidSha256(sha256Of(sha256s, i))) {
+                results.set(i, UploadResultDTO.failed(name, "Invalid SHA-256."));
+                continue;
+            }
+            Path target;
+            try {
+                target = userService.getMyUserPath(directory).resolve(name).normalize();
+            } catch (IllegalArgumentException e) {
+                results.set(i, UploadResultDTO.failed(name, e.getMessage()));
+                continue;
+            }
+            if (!target.toAbsolutePath().startsWith(userService.getMyUserPath().toAbsolutePath().normalize()) || !seen.add(target)) {
+                results.set(i, UploadResultDTO.failed(name, "Invalid or duplicate path."));
+                continue;
+            }
+            if (Files.exists(target) && (!versionStore.isEnabled() || !Files.isRegularFile(target))) {
+                results.set(i, UploadResultDTO.failed(name, "File already exists."));
+                continue;
+            }
+            targets.put(i, target);
+            total += file.getSize();
         }
-        Files.copy(file.getInputStream(), pathWithFile);
 
+        if (!targets.isEmpty() && !reserveStorage(me, total)) {
+            targets.keySet().forEach(i -> results.set(i, UploadResultDTO.failed(files.get(i).getOriginalFilename(), "Storage limit exceeded.")));
+            return results;
+        }
+        try (var permit = transferAdmission.admit(TransferType.UPLOAD, me.getId())) {
+            Throttle throttle = bandwidthLimiter.forUpload(me);
+            Tags tags = fileMetrics.requestTags();
+            Map<Integer, Future<Long>> writes = new LinkedHashMap<>();
+            Map<Integer, ChecksumInputStream> hashes = new HashMap<>();
+            Map<Integer, Long> oldSizes = new HashMap<>();
+            for (var entry : targets.entrySet()) {
+                Path target = entry.getValue();
+                MultipartFile file = files.get(entry.getKey());
+                boolean replace = Files.exists(target);
+                if (replace) oldSizes.put(entry.getKey(), directoryStats.sizeOf(target));
+                createDirectories(target.getParent());
+                ChecksumInputStream hashed = new ChecksumInputStream(throttle.wrap(file.getInputStream()), sha256Of(sha256s, entry.getKey()));
+                hashes.put(entry.getKey(), hashed);
+                writes.put(entry.getKey(), batchUploadPool.submit(() -> {
+                    long start = System.nanoTime();
+                    long bytes = storageBackend.put(target.toString(), hashed, file.getSize(), () -> {
+                        if (replace) versionStore.preserve(me.getId(), target);
+                    });
+                    fileMetrics.recordTransfer(tags, "upload", bytes, System.nanoTime() - start);
+                    return bytes;
+                }));
+            }
+            // Bookkeeping stays on this thread, it needs the request's security context.
+            for (var write : writes.entrySet()) {
+                int i = write.getKey();
+                Path target = targets.get(i);
+                String name = files.get(i).getOriginalFilename();
+                try {
+                    long bytes = write.getValue().get();
+                    checksumStore.record(target, hashes.get(i));
+                    Long oldSize = oldSizes.get(i);
+                    if (oldSize == null) {
+                        directoryStats.fileAdded(target, files.get(i).getSize());
+                        publishChange(FileChangeEvent.Type.CREATED, target, false);
+                    } else {
+                        directoryStats.fileResized(target, files.get(i).getSize() - oldSize);
+                        publishChange(FileChangeEvent.Type.MODIFIED, target, false);
+                    }
+                    results.set(i, new UploadResultDTO(name, userService.getMyUserPath().toAbsolutePath().normalize().relativize(target.toAbsolutePath()).toString(), true, null, bytes));
+                } catch (ExecutionException e) {
+                    results.set(i, UploadResultDTO.failed(name, e.getCause() instanceof ChecksumInputStream.ChecksumMismatchException ? "Checksum doesn't match." : "Couldn't write file."));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+        } finally {
+            if (!targets.isEmpty()) releaseStorage(me, total);
+        }
         updateMyUserStorage();
-        return true;
+        return results;
     }
 
+    private static String sha256Of(List<String> sha256s, int i) {
+        return sha256s != null && i < sha256s.size() ? sha256s.get(i) : null;
+    }
+
+    private boolean reserveStorage(User me, long bytes) {
+        long limit = userService.getMyUserStorageLimit();
+        long used = userService.getMyUsedStorage();
+        boolean[] reserved = {false};
+        reservedStorage.compute(me.getId(), (id, current) -> {
+            long inFlight = current == null ? 0 : current;
+            if (used + inFlight + bytes > limit) return current;
+            reserved[0] = true;
+            return inFlight + bytes;
+        });
+        return reserved[0];
+    }
+
+    private void releaseStorage(User me, long bytes) {
+        reservedStorage.computeIfPresent(me.getId(), (id, current) -> current - bytes <= 0 ? null : current - bytes);
+    }
+
+    @ReadOnlyTransactional
     public List<FileDTO> filesInMyDirectory(String directory, int maxDepth) throws IOException {
         Path path = userService.getMyUserPath(directory);
         return fileSystemService.filesInDirectory(path, maxDepth);
     }
 
+    @ReadOnlyTransactional
     public List<FileDTO> filesInMyDirectory(String directory) throws IOException {
         return filesInMyDirectory(directory, 1);
     }
 
+    public SseEmitter subscribeToMyChanges(String directory, boolean recursive) {
+        // {*path} variables start with "/".
+        String dir = directory == null ? "" : directory.replaceFirst("^/+", "");
+        Path userRoot = userService.getMyUserPath().toAbsolutePath().normalize();
+        Path path = userService.getMyUserPath(dir).toAbsolutePath().normalize();
+        String relative = userRoot.relativize(path).toString().replace('\\', '/');
+        return fileChangeFeed.subscribe(userService.getMe().getId(), relative, recursive);
+    }
+
     public String createMyPersonalDirectory(String path) throws IOException {
         Path pathForDir = userService.getMyUserPath(path);
-        return fileSystemService.createDirectory(pathForDir);
+        String errorMsg = fileSystemService.createDirectory(pathForDir);
+        if (errorMsg == null) {
+            directoryStats.directoryCreated(pathForDir);
+            publishChange(FileChangeEvent.Type.CREATED, pathForDir, true);
+        }
+        return errorMsg;
     }
 
     public ResponseEntity<StreamingResponseBody> downloadFile(String filePath) throws IOException {
         Path fullFilePath = userService.getMyUserPath(filePath);
-
-        var file = fileSystemService.prepareFileForDownload(fullFilePath);
+        User me = userService.getMe();
+
+        // Slot is held until the body has been streamed.
+        var permit = transferAdmission.admit(TransferType.DOWNLOAD, me.getId()).bindToRequest();
+        FileForDownloadDTO file;
+        try {
+            file = fileSystemService.prepareFileForDownload(fullFilePath, bandwidthLimiter.forDownload(me), permit::close);
+        } catch (IOException | RuntimeException e) {
+            permit.close();
+            throw e;
+        }
         if (file == null) {
+            permit.close();
             return ResponseEntity.notFound().build();
         }
 
@@ -142,7 +400,21 @@ public class FileService {
         if (filePaths.filePaths().isEmpty()) {
             return ResponseEntity.badRequest().build();
         }
-        Path tempPath = Paths.get(FilesConfig.FILES_ROOT + LocalTime.now().toString().replaceAll("[:.]", "-")).toAbsolutePath();
+        User me = userService.getMe();
+        var permit = transferAdmission.admit(TransferType.ARCHIVE, me.getId()).bindToRequest();
+        try {
+            return zipForDownload(filePaths, me, permit);
+        } catch (IOException | RuntimeException e) {
+            permit.close();
+            throw e;
+        }
+    }
+
+    private ResponseEntity<StreamingResponseBody> zipForDownload(FilePathsDTO filePaths, User me, TransferAdmission.Permit permit) throws IOException {
+        long start = System.nanoTime();
+        long zippedBytes = 0;
+        // Temp archive on the user's own volume, next to the files it reads.
+        Path tempPath = Paths.get(storagePlacement.volumeFor(me.getId()).root() + LocalTime.now().toString().replaceAll("[:.]", "-")).toAbsolutePath();
         String zipFileName = "/download.zip";
         Files.createDirectory(tempPath);
 
@@ -151,23 +423,25 @@ public class FileService {
 
         for (String filePath : filePaths.filePaths()) {
             Path finalFilePath = userService.getMyUserPath(filePath);
-            File fileToZip = new File(finalFilePath.toString());
-            FileInputStream fis = new FileInputStream(fileToZip);
-            ZipEntry zipEntry = new ZipEntry(fileToZip.getName());
+            InputStream fis = storageBackend.get(finalFilePath.toString());
+            ZipEntry zipEntry = new ZipEntry(finalFilePath.getFileName().toString());
             zipOut.putNextEntry(zipEntry);
 
             byte[] bytes = new byte[1024];
             int length;
             while ((length = fis.read(bytes)) >= 0) {
                 zipOut.write(bytes, 0, length);
+                zippedBytes += length;
             }
             fis.close();
             zipOut.closeEntry();
         }
         zipOut.close();
+        fileMetrics.recordArchiveBuild(filePaths.filePaths().size(), zippedBytes, start);
 
         @SuppressWarnings("ResultOfMethodCallIgnored")
-        var zippedFile = fileSystemService.prepareFileForDownload(Paths.get(tempPath + zipFileName), () -> {
+        var zippedFile = fileSystemService.prepareFileForDownload(Paths.get(tempPath + zipFileName), bandwidthLimiter.forDownload(me), () -> {
+            permit.close();
             // delete temp folder after streaming
             try (Stream<Path> stream = Files.walk(tempPath)) {
                 stream.sorted(Comparator.reverseOrder())
@@ -191,40 +465,143 @@ public class FileService {
         return ResponseEntity.ok().headers(zippedFile.headers()).body(zippedFile.body());
     }
 
+    @Transactional
     public boolean delete(String filePath, boolean recursive) throws IOException {
         if (recursive) return this.deleteRecursively(filePath);
         Path path = userService.getMyUserPath(filePath).normalize();
         Set<FileLink> fileLinks = fileLinkRepository.findAllByPath(path.toString());
 
-        // Remove every link from database
+        // Remove every link from database, shares and links in one statement each.
         if (!fileLinks.isEmpty()) {
-            for (FileLink fileLink : fileLinks) {
-                Set<FileLinkShare> privateShares = fileLinkShareRepository.findAllByFileLinkUuid(fileLink.getUuid());
-                if (!privateShares.isEmpty()) {
-                    fileLinkShareRepository.deleteAll(privateShares);
-                }
-                fileLinkRepository.delete(fileLink);
-            }
+            List<UUID> uuids = fileLinks.stream().map(FileLink::getUuid).toList();
+            fileLinkShareRepository.deleteAllByFileLinkUuidIn(uuids);
+            fileLinkRepository.deleteAllInBatch(fileLinks);
+            fileLinkCache.invalidate(uuids);
         }
 
+        boolean isDirectory = Files.isDirectory(path);
+        long size = isDirectory ? 0 : directoryStats.sizeOf(path);
+        if (!isDirectory && versionStore.isEnabled()) versionStore.preserve(userService.getMe().getId(), path);
         Files.delete(path);
+        checksumStore.deleted(path);
+        if (isDirectory) {
+            directoryStats.directoryRemoved(path);
+        } else {
+            directoryStats.fileRemoved(path, size);
+        }
+        publishChange(FileChangeEvent.Type.DELETED, path, isDirectory);
         updateMyUserStorage();
         return true;
     }
 
+    @Transactional
     public boolean delete(String filePath) throws IOException {
         return this.delete(filePath, false);
     }
 
+    // Returns an error message, null when moved. Same user root means same volume, so this is a rename.
+    @Transactional
+    public String move(String sourcePath, String targetPath) throws IOException {
+        Path source = userService.getMyUserPath(sourcePath).normalize();
+        Path target = userService.getMyUserPath(targetPath).normalize();
+        String errorMsg = checkMoveOrCopy(source, target);
+        if (errorMsg != null) return errorMsg;
+
+        boolean isDirectory = Files.isDirectory(source);
+        long size = isDirectory ? 0 : directoryStats.sizeOf(source);
+        createParentDirectories(target);
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+
+        // Links are keyed by path, one statement for the path itself and one for everything below it.
+        fileLinkRepository.replacePath(source.toString(), target.toString());
+        if (isDirectory) fileLinkRepository.replacePathPrefix(source + "/", target + "/");
+        fileLinkCache.invalidatePath(source.toString());
+        versionStore.pathMoved(userService.getMe().getId(), source, target);
+        checksumStore.pathMoved(source, target);
+
+        if (isDirectory) {
+            directoryStats.directoryMoved(source, target);
+        } else {
+            directoryStats.fileRemoved(source, size);
+            directoryStats.fileAdded(target, size);
+        }
+        publishChange(FileChangeEvent.Type.DELETED, source, isDirectory);
+        publishChange(FileChangeEvent.Type.CREATED, target, isDirectory);
+        return null;
+    }
+
+    public String rename(String path, String newName) throws IOException {
+        if (newName == null || newName.isBlank() || newName.contains("/") || newName.equals(".") || newName.equals("..")) {
+            return "Invalid name.";
+        }
+        Path parent = Paths.get(path).getParent();
+        return move(path, parent == null ? newName : parent.resolve(newName).toString());
+    }
+
+    // Returns an error message, null when copied. The copy is built under a temp name and renamed into place,
+    // so nobody sees a half copied tree. Links aren't copied, they belong to the original.
+    public String copy(String sourcePath, String targetPath) throws IOException {
+        Path source = userService.getMyUserPath(sourcePath).normalize();
+        Path target = userService.getMyUserPath(targetPath).normalize();
+        String errorMsg = checkMoveOrCopy(source, target);
+        if (errorMsg != null) return errorMsg;
+
+        boolean isDirectory = Files.isDirectory(source);
+        DirectoryStats.Stats stats = isDirectory ? directoryStats.stats(source) : null;
+        long size = stats != null ? stats.size() : bytesInside(source);
+        if (isMyStorageLimitExceeded(size)) return "Storage limit exceeded.";
+
+        createParentDirectories(target);
+        Path temp = target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + ".part");
+        try {
+            fileSystemService.copyRecursively(source, temp, hardlinkCopies);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            if (Files.exists(temp)) fileSystemService.deleteRecursively(temp);
+        }
+
+        if (isDirectory) {
+            directoryStats.directoryCopied(source, target);
+        } else {
+            directoryStats.fileAdded(target, directoryStats.sizeOf(target));
+        }
+        publishChange(FileChangeEvent.Type.CREATED, target, isDirectory);
+        updateMyUserStorage();
+        return null;
+    }
+
+    private String checkMoveOrCopy(Path source, Path target) {
+        if (source.toAbsolutePath().equals(userService.getMyUserPath().toAbsolutePath().normalize())) return "Can't move or copy the root directory.";
+        if (!Files.exists(source)) return "Source doesn't exist.";
+        if (Files.exists(target)) return "Target already exists.";
+        if (target.toAbsolutePath().startsWith(source.toAbsolutePath())) return "Can't move or copy a directory into itself.";
+        return null;
+    }
+
+    private void createParentDirectories(Path target) throws IOException {
+        createDirectories(target.getParent());
+    }
+
+    // Cached directory sizes learn about every directory made on the way.
+    private void createDirectories(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            Files.createDirectories(dir);
+            directoryStats.directoryCreated(dir);
+        }
+    }
+
     public List<FileDTO> searchFiles(String fileName, String directory) throws IOException {
         if (fileName == null || fileName.isEmpty()) {
             throw new IllegalArgumentException("File name is empty");
         }
+        long start = System.nanoTime();
+        long[] entries = {0};
         Stream<Path> walkStream = Files.walk(userService.getMyUserPath(directory == null ? "" : directory));
         // Skip(1), because it starts the list with itself (directory)
-        Stream<Path> filteredWalkStream = walkStream.skip(1).filter(f -> f.getFileName().toString().contains(fileName));
+        Stream<Path> filteredWalkStream = walkStream.skip(1).peek(f -> entries[0]++).filter(f -> f.getFileName().toString().contains(fileName));
         List<FileDTO> fileDTOs = fileSystemService.getFilesDTO(filteredWalkStream);
         walkStream.close();
+        fileMetrics.recordWalk("search", entries[0], start);
         return fileDTOs;
     }
 
@@ -239,7 +616,21 @@ public class FileService {
         if (finalPath.toAbsolutePath().equals(baseDir)) {
             return false;
         }
+        boolean isDirectory = Files.isDirectory(finalPath);
+        long size = isDirectory ? 0 : directoryStats.sizeOf(finalPath);
         fileSystemService.deleteRecursively(finalPath);
+        checksumStore.deleted(finalPath);
+        if (isDirectory) {
+            directoryStats.directoryRemoved(finalPath);
+        } else {
+            directoryStats.fileRemoved(finalPath, size);
+        }
+        // Links to the path and anything below it go too, one statement for the shares and one for the links.
+        String linkPath = finalPath.normalize().toString();
+        fileLinkShareRepository.deleteAllOfLinksUnder(linkPath);
+        fileLinkRepository.deleteAllUnder(linkPath);
+        fileLinkCache.invalidatePath(linkPath);
+        publishChange(FileChangeEvent.Type.DELETED, finalPath, isDirectory);
         updateMyUserStorage();
         return true;
     }
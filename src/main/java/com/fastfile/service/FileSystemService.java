@@ -2,8 +2,18 @@ package com.fastfile.service;
 
 import com.fastfile.dto.FileDTO;
 import com.fastfile.dto.FileForDownloadDTO;
+import com.fastfile.metrics.FileMetrics;
+import com.fastfile.model.FileChecksum;
+import com.fastfile.model.FileLink;
 import com.fastfile.model.FileMetadata;
 import com.fastfile.repository.FileLinkRepository;
+import com.fastfile.storage.ChecksumStore;
+import com.fastfile.storage.DirectoryStats;
+import com.fastfile.storage.FileEncryption;
+import com.fastfile.storage.StorageBackend;
+import com.fastfile.storage.StoragePlacement;
+import com.fastfile.transfer.Throttle;
+import io.micrometer.core.instrument.Tags;
 import lombok.SneakyThrows;
 import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Service;
@@ -14,49 +24,89 @@ import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Objects;
+import java.util.*;
 import java.util.stream.Stream;
 
 @Service
 public class FileSystemService {
-        private final FileLinkRepository fileLinkRepository;
+    // Keeps IN lists well below the Postgres bind parameter limit on huge directories.
+    private static final int PATH_QUERY_CHUNK = 1000;
 
-    public FileSystemService(FileLinkRepository fileLinkRepository) {
+    private final FileLinkRepository fileLinkRepository;
+    private final FileMetrics fileMetrics;
+    private final StoragePlacement storagePlacement;
+    private final StorageBackend storageBackend;
+    private final DirectoryStats directoryStats;
+    private final ChecksumStore checksumStore;
+    private final FileEncryption encryption;
+
+    public FileSystemService(FileLinkRepository fileLinkRepository, FileMetrics fileMetrics, StoragePlacement storagePlacement, StorageBackend storageBackend, DirectoryStats directoryStats, ChecksumStore checksumStore, FileEncryption encryption) {
         this.fileLinkRepository = fileLinkRepository;
+        this.fileMetrics = fileMetrics;
+        this.storagePlacement = storagePlacement;
+        this.storageBackend = storageBackend;
+        this.directoryStats = directoryStats;
+        this.checksumStore = checksumStore;
+        this.encryption = encryption;
     }
 
-    public boolean isEmpty(Path path) {
-        return Objects.requireNonNull(path.toFile().listFiles()).length == 0;
+    // Stops at the first entry instead of loading the whole child list.
+    public boolean isEmpty(Path path) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+            return !entries.iterator().hasNext();
+        }
     }
 
     FileMetadata getFileMetadata(Path path) throws IOException {
+        return getFileMetadata(path, checksumStore.checksum(path));
+    }
+
+    FileMetadata getFileMetadata(Path path, FileChecksum checksum) throws IOException {
         var attrs = Files.readAttributes(path, BasicFileAttributes.class);
         boolean isDirectory = attrs.isDirectory();
         boolean hasFiles = false;
+        // Content size for files, directory sizes add up what is stored.
+        long size = isDirectory ? attrs.size() : encryption.plaintextSize(path, attrs);
+        int childCount = 0;
+        long fileCount = 0;
         if (isDirectory) {
-            hasFiles = !isEmpty(path);
+            DirectoryStats.Stats stats = directoryStats.stats(path);
+            if (stats != null) {
+                size = stats.size();
+                childCount = stats.children();
+                fileCount = stats.files();
+                hasFiles = childCount > 0;
+            } else {
+                hasFiles = !isEmpty(path);
+            }
         }
 
-        Path subPath = path.getNameCount() > 1
-                ? path.subpath(1, path.getNameCount())
-                : path;
+        // Relative to the volume root ("42/docs/a.txt"), volume roots can be any depth.
+        String subPath = storagePlacement.volumeOf(path) != null
+                ? storagePlacement.relativize(path)
+                : path.getNameCount() > 1 ? path.subpath(1, path.getNameCount()).toString() : path.toString();
 
         return new FileMetadata(
                 path.getFileName().toString(),
-                Files.size(path),
+                size,
                 attrs.lastModifiedTime().toMillis(),
                 isDirectory ? "directory" : "file",
-                subPath.toString(),
-                hasFiles
+                subPath,
+                hasFiles,
+                childCount,
+                fileCount,
+                checksum != null ? checksum.getSha256() : null,
+                checksum != null ? checksum.getCrc32c() : null
         );
     }
 
+    Map<Path, FileChecksum> checksums(Collection<Path> paths) throws IOException {
+        return checksumStore.checksums(paths);
+    }
+
     int isDirectoryCompare(FileDTO a, FileDTO b) {
         boolean aIsDir = Objects.equals(a.metadata().type(), "directory");
         boolean bIsDir = Objects.equals(b.metadata().type(), "directory");
@@ -69,11 +119,25 @@ public class FileSystemService {
     }
 
     List<FileDTO> getFilesDTO(Stream<Path> pathStream) {
-        return pathStream.map(_path -> {
+        List<Path> paths = pathStream.toList();
+        if (paths.isEmpty()) return List.of();
+        // One query per chunk for the links of the whole listing instead of one per file.
+        List<String> pathStrings = paths.stream().map(Path::toString).toList();
+        Map<String, FileLink> fileLinks = new HashMap<>();
+        for (int i = 0; i < pathStrings.size(); i += PATH_QUERY_CHUNK) {
+            List<String> chunk = pathStrings.subList(i, Math.min(i + PATH_QUERY_CHUNK, pathStrings.size()));
+            fileLinkRepository.findAllByPathIn(chunk).forEach(link -> fileLinks.put(link.getPath(), link));
+        }
+        Map<Path, FileChecksum> checksums;
+        try {
+            checksums = checksumStore.checksums(paths);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return paths.stream().map(_path -> {
             try {
-                var metadata = getFileMetadata(_path);
-                var fileLink = fileLinkRepository.findByPath(_path.toString());
-                return new FileDTO(metadata, fileLink);
+                var metadata = getFileMetadata(_path, checksums.get(_path));
+                return new FileDTO(metadata, fileLinks.get(_path.toString()));
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -91,9 +155,11 @@ public class FileSystemService {
     }
 
     public List<FileDTO> filesInDirectory(Path directory, int maxDepth) throws IOException {
+        long start = System.nanoTime();
         Stream<Path> walkStream = Files.walk(directory, maxDepth).skip(1);
         List<FileDTO> files = getFilesDTO(walkStream);
         walkStream.close();
+        fileMetrics.recordWalk("list", files.size(), start);
         List<FileDTO> sortedFiles = new ArrayList<>(files);
         sortedFiles.sort(this::isDirectoryCompare);
         return sortedFiles;
@@ -112,33 +178,98 @@ public class FileSystemService {
 
     @SneakyThrows
     public void deleteRecursively(Path path) {
+        long start = System.nanoTime();
+        long[] entries = {0};
         try (Stream<Path> walkStream = Files.walk(path)) {
             walkStream.sorted(Comparator.reverseOrder()).forEach(p -> {
                 try {
                     Files.delete(p);
+                    entries[0]++;
                 } catch (IOException e) {
                     // Log or handle the exception if needed
                     throw new UncheckedIOException(e);
                 }
             });
         }
+        fileMetrics.recordWalk("delete", entries[0], start);
     }
 
-    FileForDownloadDTO prepareFileForDownload(Path path, Runnable afterStreamCallback) throws IOException {
-        if (!Files.exists(path)) {
+    // Files go through FileChannel.transferTo, which the kernel can do without copying through user space.
+    // With hardlink the copy shares the inodes, safe because we only ever replace files by rename, never write into them.
+    public void copyRecursively(Path source, Path target, boolean hardlink) throws IOException {
+        long start = System.nanoTime();
+        long[] entries = {0};
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    Files.createDirectory(target.resolve(source.relativize(dir)));
+                    entries[0]++;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isRegularFile()) copyFile(file, target.resolve(source.relativize(file)), hardlink);
+                    entries[0]++;
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            fileMetrics.recordWalk("copy", entries[0], start);
+        }
+    }
+
+    private void copyFile(Path source, Path target, boolean hardlink) throws IOException {
+        if (hardlink) {
+            try {
+                Files.createLink(target, source);
+                return;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                // Different file system or no link support, copy instead.
+            }
+        }
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            // The bytes are copied as they are, an encrypted copy needs the marker too.
+            encryption.copyMarker(source, target);
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    FileForDownloadDTO prepareFileForDownload(Path path, Throttle throttle, Runnable afterStreamCallback) throws IOException {
+        return prepareFileForDownload(path, throttle, afterStreamCallback, -1);
+    }
+
+    // maxAgeSeconds >= 0 makes the response cacheable for that long (presigned URLs) and skips the stored checksum,
+    // which would be the only database query of the download.
+    FileForDownloadDTO prepareFileForDownload(Path path, Throttle throttle, Runnable afterStreamCallback, long maxAgeSeconds) throws IOException {
+        String key = path.toString();
+        if (storageBackend.stat(key) == null) {
             return null;
         }
+        final Throttle _throttle = throttle == null ? Throttle.NONE : throttle;
+        final Tags metricTags = fileMetrics.requestTags();
 
         // Creating input stream from file
         StreamingResponseBody stream = out -> {
-            try (InputStream inputStream = Files.newInputStream(path)) {
+            long start = System.nanoTime();
+            long bytesSent = 0;
+            try (InputStream inputStream = storageBackend.get(key)) {
                 byte[] buffer = new byte[8192];
                 int bytesRead;
                 while ((bytesRead = inputStream.read(buffer)) != -1) {
+                    _throttle.acquire(bytesRead);
                     out.write(buffer, 0, bytesRead);
+                    bytesSent += bytesRead;
                 }
                 out.flush();
             } finally {
+                fileMetrics.recordTransfer(metricTags, "download", bytesSent, System.nanoTime() - start);
                 if (afterStreamCallback != null) {
                     afterStreamCallback.run(); // runs after streaming completes
                 }
@@ -158,6 +289,17 @@ public class FileSystemService {
         headers.set(HttpHeaders.CONTENT_DISPOSITION,
                 "attachment; filename=\"" + path.getFileName().toString().replace("\"", "_") + "\"; filename*=UTF-8''" + URLEncoder.encode(path.getFileName().toString(), StandardCharsets.UTF_8)
         );
+        if (maxAgeSeconds >= 0) {
+            headers.add(HttpHeaders.CACHE_CONTROL, "public, max-age=" + maxAgeSeconds);
+            return new FileForDownloadDTO(stream, headers);
+        }
+        // RFC 9530 Repr-Digest describes the whole file, Digest is the older RFC 3230 form some clients still read.
+        FileChecksum checksum = checksumStore.checksum(path);
+        if (checksum != null) {
+            String sha256 = Base64.getEncoder().encodeToString(HexFormat.of().parseHex(checksum.getSha256()));
+            headers.add("Repr-Digest", "sha-256=:" + sha256 + ":");
+            headers.add("Digest", "SHA-256=" + sha256);
+        }
         headers.add(HttpHeaders.PRAGMA, "no-cache");
         headers.add(HttpHeaders.CACHE_CONTROL, "no-cache, no-store, must-revalidate");
         headers.add(HttpHeaders.EXPIRES, "0");
@@ -165,7 +307,15 @@ public class FileSystemService {
         return new FileForDownloadDTO(stream, headers);
     }
 
+    FileForDownloadDTO prepareFileForDownload(Path path, Runnable afterStreamCallback) throws IOException {
+        return prepareFileForDownload(path, null, afterStreamCallback);
+    }
+
+    FileForDownloadDTO prepareFileForDownload(Path path, Throttle throttle) throws IOException {
+        return prepareFileForDownload(path, throttle, null);
+    }
+
     FileForDownloadDTO prepareFileForDownload(Path path) throws IOException {
-        return prepareFileForDownload(path, null);
+        return prepareFileForDownload(path, null, null);
     }
 }
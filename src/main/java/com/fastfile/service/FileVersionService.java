@@ -0,0 +1,100 @@
+package com.fastfile.service;
+
+import com.fastfile.dto.FileForDownloadDTO;
+import com.fastfile.event.FileChangeEvent;
+import com.fastfile.model.FileVersion;
+import com.fastfile.model.User;
+import com.fastfile.storage.DirectoryStats;
+import com.fastfile.storage.VersionStore;
+import com.fastfile.transfer.BandwidthLimiter;
+import com.fastfile.transfer.TransferAdmission;
+import com.fastfile.transfer.TransferType;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+@Service
+public class FileVersionService {
+
+    private final UserService userService;
+    private final FileService fileService;
+    private final FileSystemService fileSystemService;
+    private final VersionStore versionStore;
+    private final DirectoryStats directoryStats;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final TransferAdmission transferAdmission;
+    private final ApplicationEventPublisher eventPublisher;
+
+    public FileVersionService(UserService userService, FileService fileService, FileSystemService fileSystemService, VersionStore versionStore, DirectoryStats directoryStats, BandwidthLimiter bandwidthLimiter, TransferAdmission transferAdmission, ApplicationEventPublisher eventPublisher) {
+        this.userService = userService;
+        this.fileService = fileService;
+        this.fileSystemService = fileSystemService;
+        this.versionStore = versionStore;
+        this.directoryStats = directoryStats;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.transferAdmission = transferAdmission;
+        this.eventPublisher = eventPublisher;
+    }
+
+    // Newest first, also for files that were deleted since.
+    public List<FileVersion> myVersions(String filePath) {
+        User me = userService.getMe();
+        return versionStore.versions(me.getId(), versionStore.relativePath(me.getId(), userService.getMyUserPath(filePath)));
+    }
+
+    public ResponseEntity<StreamingResponseBody> downloadMyVersion(long versionId) throws IOException {
+        User me = userService.getMe();
+        FileVersion version = versionStore.version(me.getId(), versionId);
+        if (version == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        var permit = transferAdmission.admit(TransferType.DOWNLOAD, me.getId()).bindToRequest();
+        FileForDownloadDTO file;
+        try {
+            file = fileSystemService.prepareFileForDownload(Paths.get(version.getBlobPath()), bandwidthLimiter.forDownload(me), permit::close);
+        } catch (IOException | RuntimeException e) {
+            permit.close();
+            throw e;
+        }
+        if (file == null) {
+            permit.close();
+            return ResponseEntity.notFound().build();
+        }
+        HttpHeaders headers = file.headers();
+        String name = Paths.get(version.getPath()).getFileName().toString();
+        headers.setContentDisposition(ContentDisposition.attachment().filename(name, StandardCharsets.UTF_8).build());
+        return ResponseEntity.ok().headers(headers).body(file.body());
+    }
+
+    // Returns an error message, null when the version is back in place (the replaced content becomes a version itself).
+    public String restoreMyVersion(long versionId) throws IOException {
+        User me = userService.getMe();
+        FileVersion version = versionStore.version(me.getId(), versionId);
+        if (version == null) return "Version doesn't exist.";
+        Path target = userService.getMyUserPath(version.getPath());
+
+        // version.getSize() is the stored blob, the directory aggregates count plaintext.
+        long oldSize = Files.isRegularFile(target) ? directoryStats.sizeOf(target) : 0;
+        boolean replaced = versionStore.restore(version, target);
+        if (replaced) {
+            directoryStats.fileResized(target, directoryStats.sizeOf(target) - oldSize);
+        } else {
+            directoryStats.fileAdded(target, directoryStats.sizeOf(target));
+        }
+        FileChangeEvent.Type type = replaced ? FileChangeEvent.Type.MODIFIED : FileChangeEvent.Type.CREATED;
+        eventPublisher.publishEvent(FileChangeEvent.of(me.getId(), type, version.getPath(), false));
+        fileService.updateMyUserStorage();
+        return null;
+    }
+}
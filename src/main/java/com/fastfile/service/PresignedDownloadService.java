@@ -0,0 +1,160 @@
+package com.fastfile.service;
+
+import com.fastfile.config.GlobalVariables;
+import com.fastfile.dto.FileForDownloadDTO;
+import com.fastfile.dto.PresignedUrlDTO;
+import com.fastfile.model.User;
+import com.fastfile.storage.StoragePlacement;
+import com.fastfile.storage.StorageBackend;
+import com.fastfile.transfer.BandwidthLimiter;
+import com.fastfile.transfer.TransferAdmission;
+import com.fastfile.transfer.TransferType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+// Expiring download URLs, /dl/{userId}/{*path}?expires=&tier=&v=&sig=, signed with HMAC-SHA256 over user, tier,
+// expiry, file version (size and mtime) and path. Serving one needs neither the JWT nor the database, so a CDN or
+// reverse proxy can cache it by URL; a URL stops working once its file changes, a cache never mixes two contents.
+// Expiries are rounded up to granularity-seconds, presigning the same file again soon after gives the same URL.
+@Service
+public class PresignedDownloadService {
+
+    private final UserService userService;
+    private final FileSystemService fileSystemService;
+    private final StorageBackend storageBackend;
+    private final StoragePlacement storagePlacement;
+    private final TransferAdmission transferAdmission;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final ThreadLocal<Mac> macs;
+
+    @Value("${files.presign.default-ttl-seconds:300}")
+    private long defaultTtlSeconds;
+    @Value("${files.presign.max-ttl-seconds:86400}")
+    private long maxTtlSeconds;
+    @Value("${files.presign.granularity-seconds:60}")
+    private long granularitySeconds;
+    @Value("${files.presign.base-url:}")
+    private String baseUrl;
+
+    public PresignedDownloadService(UserService userService, FileSystemService fileSystemService, StorageBackend storageBackend,
+                                    StoragePlacement storagePlacement, TransferAdmission transferAdmission,
+                                    BandwidthLimiter bandwidthLimiter, GlobalVariables env) {
+        this.userService = userService;
+        this.fileSystemService = fileSystemService;
+        this.storageBackend = storageBackend;
+        this.storagePlacement = storagePlacement;
+        this.transferAdmission = transferAdmission;
+        this.bandwidthLimiter = bandwidthLimiter;
+        // Own key derived from the JWT secret, a URL signature can never pass as a token signature or the other way round.
+        SecretKeySpec key = new SecretKeySpec(hmac(new SecretKeySpec(env.secretKey().getBytes(StandardCharsets.UTF_8), "HmacSHA256"),
+                "fastfile-presigned-download"), "HmacSHA256");
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    // null when there is no such file.
+    public PresignedUrlDTO presign(String filePath, Long ttlSeconds) throws IOException {
+        Path fullFilePath = userService.getMyUserPath(filePath);
+        StorageBackend.ObjectInfo info = storageBackend.stat(fullFilePath.toString());
+        if (info == null) {
+            return null;
+        }
+        User me = userService.getMe();
+        String path = relative(filePath);
+
+        long ttl = Math.clamp(ttlSeconds == null ? defaultTtlSeconds : ttlSeconds, 1, maxTtlSeconds);
+        long granularity = Math.max(1, granularitySeconds);
+        long expires = Math.ceilDiv(System.currentTimeMillis() / 1000 + ttl, granularity) * granularity;
+        String tier = String.valueOf(me.getUserType());
+        String version = version(info);
+
+        String url = UriComponentsBuilder.fromUriString(baseUrl + "/dl/" + me.getId() + "/")
+                .path(path)
+                .queryParam("expires", expires)
+                .queryParam("tier", tier)
+                .queryParam("v", version)
+                .queryParam("sig", sign(me.getId(), tier, expires, version, path))
+                .build()
+                .encode()
+                .toUriString();
+        return new PresignedUrlDTO(url, expires);
+    }
+
+    // 403 on a bad signature or an expired URL, both found without any lookup. 404 once the file is gone or changed.
+    public ResponseEntity<StreamingResponseBody> download(Long userId, String filePath, long expires, String tier, String version, String signature) throws IOException {
+        String path = relative(filePath);
+        long now = System.currentTimeMillis() / 1000;
+        if (expires <= now || version == null || signature == null || !verify(userId, tier, expires, version, path, signature)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Path fullFilePath = storagePlacement.userPath(userId, path);
+        StorageBackend.ObjectInfo info = storageBackend.stat(fullFilePath.toString());
+        if (info == null || !version.equals(version(info))) {
+            return ResponseEntity.notFound().build();
+        }
+
+        var permit = transferAdmission.admit(TransferType.DOWNLOAD, userId).bindToRequest();
+        FileForDownloadDTO file;
+        try {
+            file = fileSystemService.prepareFileForDownload(fullFilePath, bandwidthLimiter.forDownload(userId, tier), permit::close, expires - now);
+        } catch (IOException | RuntimeException e) {
+            permit.close();
+            throw e;
+        }
+        if (file == null) {
+            permit.close();
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok().headers(file.headers()).body(file.body());
+    }
+
+    private static String relative(String filePath) {
+        if (filePath == null) return "";
+        return filePath.startsWith("/") ? filePath.substring(1) : filePath;
+    }
+
+    private static String version(StorageBackend.ObjectInfo info) {
+        return Long.toString(info.size(), 36) + "-" + Long.toString(info.lastModified(), 36);
+    }
+
+    private String sign(Long userId, String tier, long expires, String version, String path) {
+        Mac mac = macs.get();
+        byte[] signature = mac.doFinal((userId + "\n" + tier + "\n" + expires + "\n" + version + "\n" + path).getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+    }
+
+    private boolean verify(Long userId, String tier, long expires, String version, String path, String signature) {
+        String expected = sign(userId, tier, expires, version, path);
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII), signature.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] hmac(SecretKeySpec key, String message) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            return mac.doFinal(message.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
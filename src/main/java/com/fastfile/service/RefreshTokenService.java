@@ -0,0 +1,113 @@
+package com.fastfile.service;
+
+import com.fastfile.auth.JwtService;
+import com.fastfile.dto.TokenDTO;
+import com.fastfile.model.RefreshToken;
+import com.fastfile.model.User;
+import com.fastfile.repository.RefreshTokenRepository;
+import com.fastfile.repository.UserRepository;
+import jakarta.transaction.Transactional;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.UUID;
+
+// Short-lived access tokens renewed with rotating refresh tokens, so a client only runs the password hash once per
+// session. Refresh tokens are 256 random bits, a SHA-256 of them is enough to look them up and no slow hash is needed.
+@Service
+public class RefreshTokenService {
+
+    private final RefreshTokenRepository refreshTokenRepository;
+    private final UserRepository userRepository;
+    private final JwtService jwtService;
+    private final SecureRandom random = new SecureRandom();
+
+    @Value("${auth.token.refresh-ttl-ms:2592000000}")
+    private long refreshTtlMs;
+
+    public RefreshTokenService(RefreshTokenRepository refreshTokenRepository, UserRepository userRepository, JwtService jwtService) {
+        this.refreshTokenRepository = refreshTokenRepository;
+        this.userRepository = userRepository;
+        this.jwtService = jwtService;
+    }
+
+    // New family, after a password login.
+    @Transactional
+    public TokenDTO issue(User user) {
+        return issue(user, UUID.randomUUID());
+    }
+
+    // Exchanges a refresh token for a new pair. Each one works once, a used one coming back revokes its whole family.
+    @Transactional(dontRollbackOn = RuntimeException.class)
+    public TokenDTO refresh(String token) throws RuntimeException {
+        String tokenHash = hash(token);
+        if (refreshTokenRepository.markUsed(tokenHash, System.currentTimeMillis()) == 1) {
+            RefreshToken used = refreshTokenRepository.findByTokenHash(tokenHash).orElseThrow();
+            Optional<User> user = userRepository.findById(used.getUserId());
+            if (user.isEmpty()) {
+                throw new RuntimeException("User not found");
+            }
+            return issue(user.get(), used.getFamily());
+        }
+
+        Optional<RefreshToken> known = refreshTokenRepository.findByTokenHash(tokenHash);
+        if (known.isPresent() && known.get().getUsedAt() != null) {
+            refreshTokenRepository.deleteAllByFamily(known.get().getFamily());
+            throw new RuntimeException("Refresh token reused");
+        }
+        throw new RuntimeException("Invalid refresh token");
+    }
+
+    @Transactional
+    public boolean logout(String token) {
+        Optional<RefreshToken> known = refreshTokenRepository.findByTokenHash(hash(token));
+        if (known.isEmpty()) {
+            return false;
+        }
+        refreshTokenRepository.deleteAllByFamily(known.get().getFamily());
+        return true;
+    }
+
+    @Transactional
+    public int deleteAll(Long userId) {
+        return refreshTokenRepository.deleteAllByUserId(userId);
+    }
+
+    @Scheduled(fixedDelayString = "${auth.token.prune-interval-ms:3600000}", initialDelayString = "${auth.token.prune-interval-ms:3600000}")
+    @Transactional
+    public int prune() {
+        return refreshTokenRepository.deleteAllExpiredBefore(System.currentTimeMillis());
+    }
+
+    private TokenDTO issue(User user, UUID family) {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+
+        RefreshToken refreshToken = new RefreshToken();
+        refreshToken.setUserId(user.getId());
+        refreshToken.setFamily(family);
+        refreshToken.setTokenHash(hash(token));
+        refreshToken.setExpiresAt(System.currentTimeMillis() + refreshTtlMs);
+        refreshTokenRepository.save(refreshToken);
+
+        return new TokenDTO(jwtService.generateAccessToken(user), jwtService.accessTtlMs() / 1000, token, refreshTtlMs / 1000);
+    }
+
+    private static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -1,12 +1,12 @@
 package com.fastfile.service;
 
-import com.fastfile.config.FilesConfig;
+import com.fastfile.auth.PasswordHasher;
 import com.fastfile.dto.UserDTO;
 import com.fastfile.model.User;
 import com.fastfile.repository.UserRepository;
+import com.fastfile.storage.StoragePlacement;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.security.crypto.password.PasswordEncoder;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -18,13 +18,15 @@ import java.util.regex.Pattern;
 @Service
 public class UserService {
     private final UserRepository userRepository;
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordHasher passwordHasher;
     private final AuthService authService;
+    private final StoragePlacement storagePlacement;
 
-    public UserService(UserRepository userRepository, PasswordEncoder passwordEncoder, AuthService authService) {
+    public UserService(UserRepository userRepository, PasswordHasher passwordHasher, AuthService authService, StoragePlacement storagePlacement) {
         this.userRepository = userRepository;
-        this.passwordEncoder = passwordEncoder;
+        this.passwordHasher = passwordHasher;
         this.authService = authService;
+        this.storagePlacement = storagePlacement;
     }
 
     @Value("${storage.limits.free}")
@@ -33,9 +35,9 @@ public class UserService {
     public long premiumLimit;
 
     public UserDTO register(User user) throws IOException {
-        user.setPassword(passwordEncoder.encode(user.getPassword()));
+        user.setPassword(passwordHasher.encode(user.getPassword()));
         user = userRepository.save(user);
-        Files.createDirectories(Paths.get(FilesConfig.FILES_ROOT + "/" + user.getId()));
+        Files.createDirectories(storagePlacement.userRoot(user.getId()));
         return new UserDTO(user);
     }
 
@@ -102,7 +104,7 @@ public class UserService {
         }
 
         Long userId = authService.getMyUserId();
-        return Paths.get(FilesConfig.FILES_ROOT + userId + "/" + directory);
+        return storagePlacement.userPath(userId, directory);
     }
 
     public Path getMyUserPath() {
@@ -1,21 +1,28 @@
 package com.fastfile.service.deleteUser;
 
-import com.fastfile.config.FilesConfig;
 import com.fastfile.model.FileLink;
-import com.fastfile.model.FileLinkShare;
 import com.fastfile.model.User;
+import com.fastfile.repository.FileChangeRepository;
 import com.fastfile.repository.FileLinkRepository;
 import com.fastfile.repository.FileLinkShareRepository;
 import com.fastfile.repository.UserRepository;
+import com.fastfile.service.FileLinkCache;
 import com.fastfile.service.FileSystemService;
+import com.fastfile.service.RefreshTokenService;
 import com.fastfile.service.UserService;
+import com.fastfile.storage.ChecksumStore;
+import com.fastfile.storage.DirectoryStats;
+import com.fastfile.storage.FileEncryption;
+import com.fastfile.storage.StoragePlacement;
+import com.fastfile.storage.VersionStore;
+import jakarta.transaction.Transactional;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.List;
-import java.util.Set;
+import java.util.UUID;
 
 @Service
 public class DeleteUserService {
@@ -26,39 +33,65 @@ public class DeleteUserService {
     private final FileLinkRepository fileLinkRepository;
     private final FileSystemService fileSystemService;
     private final FileLinkShareRepository fileLinkShareRepository;
+    private final FileLinkCache fileLinkCache;
+    private final StoragePlacement storagePlacement;
+    private final DirectoryStats directoryStats;
+    private final FileChangeRepository fileChangeRepository;
+    private final VersionStore versionStore;
+    private final ChecksumStore checksumStore;
+    private final FileEncryption encryption;
+    private final RefreshTokenService refreshTokenService;
 
 
-    public DeleteUserService(UserService userService, UserRepository userRepository, FileLinkRepository fileLinkRepository, FileSystemService fileSystemService, FileLinkShareRepository fileLinkShareRepository) {
+    public DeleteUserService(UserService userService, UserRepository userRepository, FileLinkRepository fileLinkRepository, FileSystemService fileSystemService, FileLinkShareRepository fileLinkShareRepository, FileLinkCache fileLinkCache, StoragePlacement storagePlacement, DirectoryStats directoryStats, FileChangeRepository fileChangeRepository, VersionStore versionStore, ChecksumStore checksumStore, FileEncryption encryption, RefreshTokenService refreshTokenService) {
         this.userService = userService;
         this.userRepository = userRepository;
         this.fileLinkRepository = fileLinkRepository;
         this.fileSystemService = fileSystemService;
         this.fileLinkShareRepository = fileLinkShareRepository;
+        this.fileLinkCache = fileLinkCache;
+        this.storagePlacement = storagePlacement;
+        this.directoryStats = directoryStats;
+        this.fileChangeRepository = fileChangeRepository;
+        this.versionStore = versionStore;
+        this.checksumStore = checksumStore;
+        this.encryption = encryption;
+        this.refreshTokenService = refreshTokenService;
     }
 
+    @Transactional
     public boolean deleteUser(User user) {
-        Path userPath = Paths.get(FilesConfig.FILES_ROOT, user.getId().toString()).toAbsolutePath();
+        Path userPath = storagePlacement.userRoot(user.getId()).toAbsolutePath();
         boolean myPathExists = Files.exists(userPath);
         if (myPathExists) {
             fileSystemService.deleteRecursively(userPath);
+            directoryStats.invalidate(userPath);
             user.setUsedStorage(null);
             userRepository.save(user);
         }
 
         List<FileLink> myLinks = fileLinkRepository.findAllByOwnerId(user.getId());
         if (!myLinks.isEmpty()) {
-            for (FileLink myLink : myLinks) {
-                Set<FileLinkShare> linkShares = fileLinkShareRepository.findAllByFileLinkUuid(myLink.getUuid());
-                if (!linkShares.isEmpty()) {
-                    fileLinkShareRepository.deleteAll(linkShares);
-                }
-            }
-            fileLinkRepository.deleteAll(myLinks);
+            List<UUID> uuids = myLinks.stream().map(FileLink::getUuid).toList();
+            fileLinkShareRepository.deleteAllByFileLinkUuidIn(uuids);
+            fileLinkRepository.deleteAllInBatch(myLinks);
+            fileLinkCache.invalidate(uuids);
+        }
+        fileChangeRepository.deleteAllByUserId(user.getId());
+        checksumStore.deleteAll(user.getId());
+        refreshTokenService.deleteAll(user.getId());
+        try {
+            versionStore.deleteAll(user.getId());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
         userRepository.delete(user);
+        storagePlacement.forget(user.getId());
+        encryption.forget(user.getId());
         return true;
     }
 
+    @Transactional
     public boolean deleteMe() {
         return deleteUser(userService.getMe());
     }
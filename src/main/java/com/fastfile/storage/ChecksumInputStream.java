@@ -0,0 +1,114 @@
+package com.fastfile.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.zip.CRC32C;
+
+// Hashes what the storage backend reads while it writes, no second pass over the stored file.
+// With an expected SHA-256 the end of the stream fails on a mismatch, so the backend never moves the file in place.
+public class ChecksumInputStream extends FilterInputStream {
+
+    public static class ChecksumMismatchException extends IOException {
+        public ChecksumMismatchException() {
+            super("Checksum of the uploaded data doesn't match.");
+        }
+    }
+
+    private final MessageDigest sha256;
+    private final CRC32C crc32c = new CRC32C();
+    private final byte[] expectedSha256;
+    private byte[] digest;
+
+    // expectedSha256 is hex or base64 (the RFC 9530 "sha-256=:...:" form is accepted too), null to skip the check.
+    public ChecksumInputStream(InputStream in, String expectedSha256) {
+        super(in);
+        try {
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        this.expectedSha256 = expectedSha256 == null || expectedSha256.isBlank() ? null : parseSha256(expectedSha256);
+    }
+
+    public ChecksumInputStream(InputStream in) {
+        this(in, null);
+    }
+
+    // null when value is neither 32 bytes of hex nor of base64.
+    public static byte[] parseSha256(String value) {
+        String trimmed = value.trim();
+        if (trimmed.regionMatches(true, 0, "sha-256=", 0, 8)) trimmed = trimmed.substring(8).replace(":", "");
+        try {
+            byte[] bytes = trimmed.length() == 64 ? HexFormat.of().parseHex(trimmed) : Base64.getDecoder().decode(trimmed);
+            return bytes.length == 32 ? bytes : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public static boolean isValidSha256(String value) {
+        return value == null || value.isBlank() || parseSha256(value) != null;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b < 0) {
+            finish();
+        } else {
+            sha256.update((byte) b);
+            crc32c.update(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+        if (read < 0) {
+            finish();
+        } else {
+            sha256.update(buffer, offset, read);
+            crc32c.update(buffer, offset, read);
+        }
+        return read;
+    }
+
+    // Skipped bytes have to be hashed too.
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        byte[] buffer = new byte[8192];
+        while (skipped < n) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (read < 0) break;
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void finish() throws IOException {
+        if (digest == null) digest = sha256.digest();
+        if (expectedSha256 != null && !MessageDigest.isEqual(expectedSha256, digest)) throw new ChecksumMismatchException();
+    }
+
+    // Only valid once the stream was read to its end.
+    public String sha256() {
+        if (digest == null) throw new IllegalStateException("Stream wasn't read to the end");
+        return HexFormat.of().formatHex(digest);
+    }
+
+    public String crc32c() {
+        return String.format("%08x", crc32c.getValue());
+    }
+}
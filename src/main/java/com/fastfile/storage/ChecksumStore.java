@@ -0,0 +1,118 @@
+package com.fastfile.storage;
+
+import com.fastfile.model.FileChecksum;
+import com.fastfile.repository.FileChecksumRepository;
+import jakarta.transaction.Transactional;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+// SHA-256 and CRC32C of users' files, recorded when we write them. A row only counts while size and modification
+// time still match the file, anything else changed it behind our back and the file simply has no checksum.
+@Service
+public class ChecksumStore {
+
+    // Keeps IN lists well below the Postgres bind parameter limit on huge directories.
+    private static final int PATH_QUERY_CHUNK = 1000;
+
+    private final FileChecksumRepository fileChecksumRepository;
+    private final StoragePlacement placement;
+
+    public ChecksumStore(FileChecksumRepository fileChecksumRepository, StoragePlacement placement) {
+        this.fileChecksumRepository = fileChecksumRepository;
+        this.placement = placement;
+    }
+
+    // file has to be in place already, hashed is the stream it was written from.
+    @Transactional
+    public FileChecksum record(Path file, ChecksumInputStream hashed) throws IOException {
+        // Some backends stop reading at the announced size, the end of the stream finishes the digest.
+        hashed.transferTo(OutputStream.nullOutputStream());
+        return record(file, hashed.sha256(), hashed.crc32c());
+    }
+
+    @Transactional
+    public FileChecksum record(Path file, String sha256, String crc32c) throws IOException {
+        Owner owner = ownerOf(file);
+        if (owner == null) return null;
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        FileChecksum checksum = fileChecksumRepository.findByOwnerIdAndPath(owner.userId(), owner.path()).orElseGet(FileChecksum::new);
+        checksum.setOwnerId(owner.userId());
+        checksum.setPath(owner.path());
+        checksum.setSha256(sha256);
+        checksum.setCrc32c(crc32c);
+        checksum.setSize(attrs.size());
+        checksum.setLastModified(attrs.lastModifiedTime().toMillis());
+        return fileChecksumRepository.save(checksum);
+    }
+
+    // null when there is none or the file changed since.
+    public FileChecksum checksum(Path file) throws IOException {
+        Owner owner = ownerOf(file);
+        if (owner == null || !Files.isRegularFile(file)) return null;
+        FileChecksum checksum = fileChecksumRepository.findByOwnerIdAndPath(owner.userId(), owner.path()).orElse(null);
+        return checksum != null && isCurrent(checksum, file) ? checksum : null;
+    }
+
+    // One query per owner and chunk for a whole listing, keyed by the paths passed in.
+    public Map<Path, FileChecksum> checksums(Collection<Path> files) throws IOException {
+        Map<Long, Map<String, Path>> byOwner = new HashMap<>();
+        for (Path file : files) {
+            Owner owner = ownerOf(file);
+            if (owner != null) byOwner.computeIfAbsent(owner.userId(), id -> new HashMap<>()).put(owner.path(), file);
+        }
+        Map<Path, FileChecksum> found = new HashMap<>();
+        for (var entry : byOwner.entrySet()) {
+            List<String> paths = new ArrayList<>(entry.getValue().keySet());
+            for (int i = 0; i < paths.size(); i += PATH_QUERY_CHUNK) {
+                for (FileChecksum checksum : fileChecksumRepository.findAllByOwnerIdAndPathIn(entry.getKey(), paths.subList(i, Math.min(i + PATH_QUERY_CHUNK, paths.size())))) {
+                    Path file = entry.getValue().get(checksum.getPath());
+                    if (isCurrent(checksum, file)) found.put(file, checksum);
+                }
+            }
+        }
+        return found;
+    }
+
+    // Moves keep content and modification time, so the checksums stay valid.
+    @Transactional
+    public void pathMoved(Path source, Path target) {
+        Owner from = ownerOf(source);
+        Owner to = ownerOf(target);
+        if (from == null || to == null || from.userId() != to.userId()) return;
+        fileChecksumRepository.replacePath(from.userId(), from.path(), to.path());
+    }
+
+    // path itself and, for directories, everything below it.
+    @Transactional
+    public void deleted(Path path) {
+        Owner owner = ownerOf(path);
+        if (owner != null) fileChecksumRepository.deleteByOwnerIdAndPath(owner.userId(), owner.path());
+    }
+
+    @Transactional
+    public void deleteAll(long userId) {
+        fileChecksumRepository.deleteAllByOwnerId(userId);
+    }
+
+    private static boolean isCurrent(FileChecksum checksum, Path file) throws IOException {
+        if (!Files.isRegularFile(file)) return false;
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        return checksum.getSize() == attrs.size() && checksum.getLastModified() == attrs.lastModifiedTime().toMillis();
+    }
+
+    private record Owner(long userId, String path) {}
+
+    // null outside user roots (versions, temp archives).
+    private Owner ownerOf(Path file) {
+        Path abs = file.toAbsolutePath().normalize();
+        Path userRoot = placement.userRootOf(abs);
+        if (userRoot == null || userRoot.equals(abs)) return null;
+        return new Owner(Long.parseLong(userRoot.getFileName().toString()), userRoot.relativize(abs).toString().replace('\\', '/'));
+    }
+}
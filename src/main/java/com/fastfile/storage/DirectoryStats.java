@@ -0,0 +1,391 @@
+package com.fastfile.storage;
+
+import com.fastfile.metrics.FileMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Recursive size, file count and direct child count of every directory, per user root.
+// A root is walked once on first use, afterwards FileService mutations update the directory and its ancestors.
+// Changes made behind our back (rsync, cleanup scripts) need invalidate(), the next read walks the root again.
+// Cached roots share a budget of max-nodes directories, the least recently used ones are dropped (walked again when
+// next used), so memory follows the active users rather than every user since the start.
+// Sizes are plaintext, like the listings report, also for encrypted files. Callers pass sizes from sizeOf().
+@Service
+public class DirectoryStats {
+
+    public record Stats(long size, long files, int children) {
+    }
+
+    private static final class Node {
+        long size;
+        long files;
+        int children;
+    }
+
+    // nodes, loaded, loading and racing are guarded by the tree, weight by trees.
+    private static final class Tree {
+        final Object loadLock = new Object();
+        Map<Path, Node> nodes = new HashMap<>();
+        boolean loaded;
+        boolean loading;
+        int racing;
+        int weight;
+    }
+
+    private static final int LOAD_ATTEMPTS = 3;
+
+    private final StoragePlacement placement;
+    private final FileMetrics fileMetrics;
+    private final FileEncryption encryption;
+    // Access ordered, guarded by itself.
+    private final LinkedHashMap<Path, Tree> trees = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedNodes;
+    // Paths changed through FileService, so VolumeWatcher can tell our own writes from out-of-band ones.
+    // touchedBelow holds their ancestors within the user root, a lookup is O(depth) either way.
+    private final Map<Path, Long> touched = new ConcurrentHashMap<>();
+    private final Map<Path, Long> touchedBelow = new ConcurrentHashMap<>();
+    private volatile boolean trackTouches;
+
+    @Value("${files.stats.max-nodes:1000000}")
+    private long maxNodes;
+
+    public DirectoryStats(StoragePlacement placement, FileMetrics fileMetrics, FileEncryption encryption) {
+        this.placement = placement;
+        this.fileMetrics = fileMetrics;
+        this.encryption = encryption;
+    }
+
+    // The size a file counts with, for fileAdded/fileRemoved/fileResized.
+    public long sizeOf(Path file) throws IOException {
+        return encryption.plaintextSize(file);
+    }
+
+    // null for paths outside user roots or directories that don't exist.
+    public Stats stats(Path dir) throws IOException {
+        Path abs = normalize(dir);
+        Path root = placement.userRootOf(abs);
+        if (root == null) return null;
+        Tree tree;
+        synchronized (trees) {
+            tree = trees.computeIfAbsent(root, r -> new Tree());
+        }
+        Map<Path, Node> nodes;
+        synchronized (tree.loadLock) {
+            synchronized (tree) {
+                nodes = tree.loaded ? tree.nodes : null;
+            }
+            if (nodes == null) nodes = load(tree, root);
+        }
+        synchronized (tree) {
+            Node node = (tree.loaded ? tree.nodes : nodes).get(abs);
+            return node == null ? null : new Stats(node.size, node.files, node.children);
+        }
+    }
+
+    public void fileAdded(Path file, long size) {
+        update(file, size, 1, 1);
+    }
+
+    public void fileRemoved(Path file, long size) {
+        update(file, -size, -1, -1);
+    }
+
+    public void fileResized(Path file, long sizeDelta) {
+        update(file, sizeDelta, 0, 0);
+    }
+
+    public void directoryCreated(Path dir) {
+        Path abs = normalize(dir);
+        touch(abs);
+        withLoadedTree(abs, (tree, root) -> ensureDirectory(tree, abs, root));
+    }
+
+    public void directoryRemoved(Path dir) {
+        Path abs = normalize(dir);
+        touch(abs);
+        withLoadedTree(abs, (tree, root) -> {
+            if (abs.equals(root)) {
+                remove(root);
+                return;
+            }
+            Node removed = tree.nodes.get(abs);
+            if (removed == null) return;
+            Node parent = tree.nodes.get(abs.getParent());
+            if (parent != null) parent.children--;
+            addToAncestors(tree, abs.getParent(), root, -removed.size, -removed.files);
+            tree.nodes.keySet().removeIf(path -> path.startsWith(abs));
+        });
+    }
+
+    // Re-keys the moved subtree instead of walking it again, a move within a user root costs O(directories below it).
+    public void directoryMoved(Path source, Path target) {
+        graft(source, target, true);
+    }
+
+    public void directoryCopied(Path source, Path target) {
+        graft(source, target, false);
+    }
+
+    private void graft(Path source, Path target, boolean move) {
+        Path from = normalize(source);
+        Path to = normalize(target);
+        touch(from);
+        touch(to);
+        withLoadedTree(from, (tree, root) -> {
+            Node top = tree.nodes.get(from);
+            if (top == null || from.equals(root) || !to.startsWith(root)) {
+                remove(root);
+                return;
+            }
+            Map<Path, Node> subtree = new HashMap<>();
+            tree.nodes.forEach((path, node) -> {
+                if (path.startsWith(from)) subtree.put(path, node);
+            });
+            if (move) {
+                tree.nodes.get(from.getParent()).children--;
+                addToAncestors(tree, from.getParent(), root, -top.size, -top.files);
+                tree.nodes.keySet().removeAll(subtree.keySet());
+            }
+            Node parent = ensureDirectory(tree, to.getParent(), root);
+            subtree.forEach((path, node) -> {
+                Node copy = move ? node : new Node();
+                if (!move) {
+                    copy.size = node.size;
+                    copy.files = node.files;
+                    copy.children = node.children;
+                }
+                tree.nodes.put(to.resolve(from.relativize(path)), copy);
+            });
+            parent.children++;
+            addToAncestors(tree, to.getParent(), root, top.size, top.files);
+        });
+    }
+
+    // Forget a user root (or the root holding path), it's walked again on next read.
+    public void invalidate(Path path) {
+        Path root = placement.userRootOf(normalize(path));
+        if (root != null) remove(root);
+    }
+
+    public void clear() {
+        synchronized (trees) {
+            trees.clear();
+            cachedNodes = 0;
+        }
+    }
+
+    private void remove(Path root) {
+        synchronized (trees) {
+            Tree tree = trees.remove(root);
+            if (tree != null) cachedNodes -= tree.weight;
+        }
+    }
+
+    // Charges the tree's current size against max-nodes and drops least recently used roots above it.
+    private void reweigh(Path root, Tree tree, int weight) {
+        synchronized (trees) {
+            if (trees.get(root) != tree) return;
+            cachedNodes += weight - tree.weight;
+            tree.weight = weight;
+            var eldest = trees.entrySet().iterator();
+            while (cachedNodes > maxNodes && eldest.hasNext()) {
+                var entry = eldest.next();
+                if (entry.getValue() == tree) continue;
+                cachedNodes -= entry.getValue().weight;
+                eldest.remove();
+            }
+        }
+    }
+
+    public void trackTouches(boolean enabled) {
+        trackTouches = enabled;
+        if (!enabled) {
+            touched.clear();
+            touchedBelow.clear();
+        }
+    }
+
+    // True when FileService changed path since then, or an ancestor (children of a removed directory)
+    // or a descendant (directories createDirectories made on the way).
+    public boolean touchedSince(Path path, long sinceMillis) {
+        Path abs = normalize(path);
+        for (Path p = abs; p != null; p = p.getParent()) {
+            Long at = touched.get(p);
+            if (at != null && at >= sinceMillis) return true;
+        }
+        Long below = touchedBelow.get(abs);
+        return below != null && below >= sinceMillis;
+    }
+
+    public void forgetTouchesBefore(long millis) {
+        touched.values().removeIf(at -> at < millis);
+        touchedBelow.values().removeIf(at -> at < millis);
+    }
+
+    private void touch(Path abs) {
+        if (!trackTouches) return;
+        long now = System.currentTimeMillis();
+        touched.put(abs, now);
+        Path root = placement.userRootOf(abs);
+        if (root == null) return;
+        for (Path dir = abs.getParent(); dir != null && dir.startsWith(root); dir = dir.getParent()) {
+            touchedBelow.put(dir, now);
+        }
+    }
+
+    private void update(Path file, long sizeDelta, long filesDelta, int childrenDelta) {
+        Path abs = normalize(file);
+        touch(abs);
+        withLoadedTree(abs, (tree, root) -> {
+            if (abs.equals(root)) return;
+            Node parent = ensureDirectory(tree, abs.getParent(), root);
+            if (parent == null) return;
+            parent.children += childrenDelta;
+            addToAncestors(tree, abs.getParent(), root, sizeDelta, filesDelta);
+        });
+    }
+
+    private interface TreeUpdate {
+        void apply(Tree tree, Path root);
+    }
+
+    // Unloaded trees are skipped, the first walk will see the change anyway. One being walked is walked again.
+    private void withLoadedTree(Path abs, TreeUpdate update) {
+        Path root = placement.userRootOf(abs);
+        if (root == null) return;
+        Tree tree;
+        synchronized (trees) {
+            tree = trees.get(root);
+        }
+        if (tree == null) return;
+        int weight;
+        synchronized (tree) {
+            if (tree.loading) tree.racing++;
+            if (!tree.loaded) return;
+            update.apply(tree, root);
+            weight = tree.nodes.size();
+        }
+        reweigh(root, tree, weight);
+    }
+
+    private static void addToAncestors(Tree tree, Path from, Path root, long sizeDelta, long filesDelta) {
+        for (Path dir = from; dir != null && dir.startsWith(root); dir = dir.getParent()) {
+            Node node = tree.nodes.get(dir);
+            if (node != null) {
+                node.size += sizeDelta;
+                node.files += filesDelta;
+            }
+        }
+    }
+
+    // Creates missing directory nodes up to the root, createDirectories can add several levels at once.
+    private static Node ensureDirectory(Tree tree, Path dir, Path root) {
+        if (dir == null || !dir.startsWith(root)) return null;
+        Node node = tree.nodes.get(dir);
+        if (node != null) return node;
+        node = new Node();
+        if (!dir.equals(root)) {
+            Node parent = ensureDirectory(tree, dir.getParent(), root);
+            if (parent != null) parent.children++;
+        }
+        tree.nodes.put(dir, node);
+        return node;
+    }
+
+    // Called with the tree's load lock. Walks into a fresh map while updates only count as racing; a walk that a
+    // change raced may or may not have seen it, so it's thrown away and the root walked again. If changes keep
+    // coming the last walk is returned uncached, the next read tries again.
+    private Map<Path, Node> load(Tree tree, Path root) throws IOException {
+        Map<Path, Node> nodes = new HashMap<>();
+        for (int attempt = 0; attempt < LOAD_ATTEMPTS; attempt++) {
+            synchronized (tree) {
+                tree.loading = true;
+                tree.racing = 0;
+            }
+            try {
+                nodes = walk(root);
+            } finally {
+                synchronized (tree) {
+                    tree.loading = false;
+                    if (tree.racing == 0) {
+                        tree.nodes = nodes;
+                        tree.loaded = true;
+                    }
+                }
+            }
+            if (tree.loaded) {
+                reweigh(root, tree, nodes.size());
+                break;
+            }
+        }
+        return nodes;
+    }
+
+    private Map<Path, Node> walk(Path root) throws IOException {
+        Map<Path, Node> nodes = new HashMap<>();
+        if (!Files.isDirectory(root)) return nodes;
+        long start = System.nanoTime();
+        long[] entries = {0};
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                Path abs = normalize(dir);
+                nodes.put(abs, new Node());
+                if (!abs.equals(root)) nodes.get(abs.getParent()).children++;
+                entries[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Node parent = nodes.get(normalize(file).getParent());
+                parent.children++;
+                if (attrs.isRegularFile()) {
+                    // Reading the encryption marker can find the file gone, counted as a plain one then.
+                    long size;
+                    try {
+                        size = encryption.plaintextSize(file, attrs);
+                    } catch (NoSuchFileException e) {
+                        size = attrs.size();
+                    }
+                    parent.size += size;
+                    parent.files++;
+                }
+                entries[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+
+            // Vanished while walking, nothing to count.
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                Path abs = normalize(dir);
+                if (!abs.equals(root)) {
+                    Node node = nodes.get(abs);
+                    Node parent = nodes.get(abs.getParent());
+                    parent.size += node.size;
+                    parent.files += node.files;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        fileMetrics.recordWalk("stats", entries[0], start);
+        return nodes;
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+}
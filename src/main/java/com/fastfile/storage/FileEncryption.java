@@ -0,0 +1,280 @@
+package com.fastfile.storage;
+
+import com.fastfile.config.ReplicaRoutingDataSource;
+import com.fastfile.repository.UserRepository;
+import jakarta.annotation.PostConstruct;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Encryption at rest for users' files (see SegmentedAesGcm for the format). Every user has a random data key,
+// stored wrapped (AES key wrap, RFC 3394) by the master key from config in _user.data_key.
+// Encrypted files carry the user.fastfile.encrypted xattr (their segment size), set on the temp file before anything
+// is written and kept by renames and hardlinks. Content never decides it, a plain upload that happens to start with
+// the header magic stays plain. Files written before encryption was turned on stay readable, and so do encrypted ones
+// after it's turned off as long as the master key is configured.
+@Service
+public class FileEncryption {
+
+    private final UserRepository userRepository;
+    private final StoragePlacement placement;
+    private final SecretKey masterKey;
+    private final boolean enabled;
+    private final int segmentSize;
+    private final Map<Long, SecretKey> dataKeys = new ConcurrentHashMap<>();
+    // Marker lookups by path, valid while size and mtime still match, so listings don't read an xattr per file.
+    private final Map<Path, Marker> markers = Collections.synchronizedMap(new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Marker> eldest) {
+            return size() > MARKER_CACHE_SIZE;
+        }
+    });
+
+    static final String MARKER = "fastfile.encrypted";
+    private static final int MARKER_CACHE_SIZE = 65536;
+
+    // segmentSize 0 for plain files.
+    private record Marker(long size, long modified, int segmentSize) {
+    }
+
+    public FileEncryption(UserRepository userRepository, StoragePlacement placement,
+                          @Value("${files.encryption.enabled:false}") boolean enabled,
+                          @Value("${files.encryption.master-key:}") String masterKey,
+                          @Value("${files.encryption.segment-size:65536}") int segmentSize) {
+        this.userRepository = userRepository;
+        this.placement = placement;
+        this.masterKey = masterKey == null || masterKey.isBlank() ? null : new SecretKeySpec(Base64.getDecoder().decode(masterKey.trim()), "AES");
+        if (this.masterKey != null && this.masterKey.getEncoded().length != 32) throw new IllegalStateException("files.encryption.master-key has to be 32 bytes, base64");
+        if (enabled && this.masterKey == null) throw new IllegalStateException("files.encryption.enabled needs files.encryption.master-key");
+        if (segmentSize < SegmentedAesGcm.MIN_SEGMENT_SIZE || segmentSize > SegmentedAesGcm.MAX_SEGMENT_SIZE) throw new IllegalStateException("Invalid files.encryption.segment-size " + segmentSize);
+        this.enabled = enabled;
+        this.segmentSize = segmentSize;
+    }
+
+    @PostConstruct
+    void checkVolumes() throws IOException {
+        if (!enabled) return;
+        for (StorageVolume volume : placement.volumes()) {
+            if (!Files.getFileStore(volume.rootPath()).supportsFileAttributeView(UserDefinedFileAttributeView.class)) {
+                throw new IllegalStateException("files.encryption.enabled needs user xattrs on volume " + volume.rootPath());
+            }
+        }
+    }
+
+    // True when new writes to file are encrypted.
+    public boolean encrypts(Path file) {
+        return enabled && ownerOf(file) != null;
+    }
+
+    // Creates temp (which must not exist) to be renamed to file later, marked when file is encrypted, and returns a
+    // stream that writes the content to it encrypted or as is.
+    public OutputStream create(Path file, Path temp) throws IOException {
+        OutputStream out = Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        if (!enabled) return out;
+        Long owner = ownerOf(file);
+        if (owner == null) return out;
+        try {
+            mark(temp, segmentSize);
+            return new SegmentedAesGcm.EncryptingOutputStream(out, dataKey(owner), segmentSize);
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    // Plaintext of [offset, offset + length) for encrypted and plain files alike, length -1 reads until the end.
+    public InputStream open(Path file, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if (segmentSize(file, Files.readAttributes(file, BasicFileAttributes.class)) > 0) {
+                return new SegmentedAesGcm.DecryptingInputStream(channel, ownerKey(file), offset, length);
+            }
+            channel.position(offset);
+            InputStream in = Channels.newInputStream(channel);
+            return length < 0 ? in : BoundedInputStream.builder().setInputStream(in).setMaxCount(length).get();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public interface Ranges extends Closeable {
+        // [offset, offset + length) of the plaintext, closing the stream leaves the file open.
+        InputStream range(long offset, long length) throws IOException;
+    }
+
+    // For reading many ranges of one file one after another without reopening it (and deriving its key) per range.
+    public Ranges ranges(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if (segmentSize(file, Files.readAttributes(file, BasicFileAttributes.class)) > 0) {
+                SegmentedAesGcm.Reader reader = new SegmentedAesGcm.Reader(channel, ownerKey(file));
+                return new Ranges() {
+                    @Override
+                    public InputStream range(long offset, long length) throws IOException {
+                        return reader.range(offset, length);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        reader.close();
+                    }
+                };
+            }
+            return new Ranges() {
+                @Override
+                public InputStream range(long offset, long length) throws IOException {
+                    InputStream in = Channels.newInputStream(channel.position(offset));
+                    return BoundedInputStream.builder().setInputStream(in).setMaxCount(length).setPropagateClose(false).get();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    channel.close();
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Size of the content, attrs are the file's (what it takes on disk). Doesn't open the file.
+    public long plaintextSize(Path file, BasicFileAttributes attrs) throws IOException {
+        int segmentSize = segmentSize(file, attrs);
+        return segmentSize > 0 ? SegmentedAesGcm.plaintextSize(attrs.size(), segmentSize) : attrs.size();
+    }
+
+    public long plaintextSize(Path file) throws IOException {
+        return plaintextSize(file, Files.readAttributes(file, BasicFileAttributes.class));
+    }
+
+    // For copies made by other means than rename, hardlink or COPY_ATTRIBUTES.
+    public void copyMarker(Path source, Path target) throws IOException {
+        int segmentSize = segmentSize(source, Files.readAttributes(source, BasicFileAttributes.class));
+        if (segmentSize > 0) mark(target, segmentSize);
+    }
+
+    public void forget(long userId) {
+        dataKeys.remove(userId);
+    }
+
+    // 0 for plain files.
+    private int segmentSize(Path file, BasicFileAttributes attrs) throws IOException {
+        if (masterKey == null || !attrs.isRegularFile()) return 0;
+        Path key = file.toAbsolutePath().normalize();
+        long modified = attrs.lastModifiedTime().toMillis();
+        Marker marker = markers.get(key);
+        if (marker == null || marker.size() != attrs.size() || marker.modified() != modified) {
+            marker = new Marker(attrs.size(), modified, readMarker(file));
+            markers.put(key, marker);
+        }
+        return marker.segmentSize();
+    }
+
+    private static int readMarker(Path file) throws IOException {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (view == null) return 0;
+        try {
+            if (!view.list().contains(MARKER)) return 0;
+            ByteBuffer value = ByteBuffer.allocate(4);
+            view.read(MARKER, value);
+            if (value.position() < 4) throw new IOException("Invalid encryption marker on " + file);
+            return value.getInt(0);
+        } catch (UnsupportedOperationException e) {
+            return 0;
+        }
+    }
+
+    private static void mark(Path file, int segmentSize) throws IOException {
+        Files.getFileAttributeView(file, UserDefinedFileAttributeView.class).write(MARKER, ByteBuffer.allocate(4).putInt(0, segmentSize));
+    }
+
+    private SecretKey ownerKey(Path file) throws IOException {
+        Long owner = ownerOf(file);
+        if (owner == null) throw new IOException("No owner for encrypted file " + file);
+        return dataKey(owner);
+    }
+
+    private SecretKey dataKey(long userId) {
+        return dataKeys.computeIfAbsent(userId, this::loadOrCreateDataKey);
+    }
+
+    private SecretKey loadOrCreateDataKey(long userId) {
+        // On the primary, a key set a moment ago may not have reached the replica.
+        String dataKey = ReplicaRoutingDataSource.onPrimary(() -> userRepository.findDataKey(userId));
+        if (dataKey == null) {
+            // Only the first of concurrent writers (other nodes included) sets it, everyone uses what's stored.
+            if (userRepository.setDataKeyIfAbsent(userId, Base64.getEncoder().encodeToString(wrap(newDataKey()))) == 0 && !userRepository.existsById(userId)) {
+                throw new RuntimeException("User not found");
+            }
+            dataKey = ReplicaRoutingDataSource.onPrimary(() -> userRepository.findDataKey(userId));
+        }
+        return unwrap(Base64.getDecoder().decode(dataKey));
+    }
+
+    private static SecretKey newDataKey() {
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(256);
+            return generator.generateKey();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private byte[] wrap(SecretKey dataKey) {
+        try {
+            Cipher cipher = Cipher.getInstance("AESWrap");
+            cipher.init(Cipher.WRAP_MODE, masterKey);
+            return cipher.wrap(dataKey);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private SecretKey unwrap(byte[] wrapped) {
+        try {
+            Cipher cipher = Cipher.getInstance("AESWrap");
+            cipher.init(Cipher.UNWRAP_MODE, masterKey);
+            return (SecretKey) cipher.unwrap(wrapped, "AES", Cipher.SECRET_KEY);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Data key can't be unwrapped, wrong files.encryption.master-key?", e);
+        }
+    }
+
+    // User id from "<volume>/<userId>/..." or, for versions, "<volume>/.versions/<userId>/...". null elsewhere (temp archives).
+    private Long ownerOf(Path file) {
+        Path abs = file.toAbsolutePath().normalize();
+        StorageVolume volume = placement.volumeOf(abs);
+        if (volume == null) return null;
+        Path relative = volume.rootPath().toAbsolutePath().normalize().relativize(abs);
+        int idIndex = relative.getNameCount() > 2 && relative.getName(0).toString().equals(StorageVolume.VERSIONS_DIR) ? 1 : 0;
+        if (relative.getNameCount() < idIndex + 2) return null;
+        String id = relative.getName(idIndex).toString();
+        return id.matches("-?\\d+") ? Long.parseLong(id) : null;
+    }
+}
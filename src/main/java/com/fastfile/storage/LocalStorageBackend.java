@@ -0,0 +1,136 @@
+package com.fastfile.storage;
+
+import org.apache.commons.io.FileUtils;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+// Keys are plain paths on the local volumes (see StoragePlacement). Users' files are encrypted at rest when
+// files.encryption is enabled, sizes in ObjectInfo are plaintext sizes either way.
+@Service
+public class LocalStorageBackend implements StorageBackend {
+
+    private final FileEncryption encryption;
+
+    public LocalStorageBackend(FileEncryption encryption) {
+        this.encryption = encryption;
+    }
+
+    // In-flight puts and multipart uploads, never visible as real files.
+    static boolean isTempName(String fileName) {
+        return fileName.startsWith(".") && (fileName.endsWith(".part") || fileName.endsWith(".parts"));
+    }
+
+    // Returns the bytes stored, with encryption a little more than read from in.
+    @Override
+    public long put(String key, InputStream in, long size, BeforeReplace beforeReplace) throws IOException {
+        Path target = Paths.get(key);
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        // Temp file next to the target, so the final move is a rename on the same file system.
+        Path temp = target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + ".part");
+        try {
+            try (OutputStream out = encryption.create(target, temp)) {
+                in.transferTo(out);
+            }
+            long written = Files.size(temp);
+            beforeReplace.run();
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return written;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        // Encrypted files are read from the segment holding offset on, nothing before it is decrypted.
+        return encryption.open(Paths.get(key), offset, length);
+    }
+
+    @Override
+    public ObjectInfo stat(String key) throws IOException {
+        Path path = Paths.get(key);
+        if (!Files.isRegularFile(path)) return null;
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        return new ObjectInfo(key, encryption.plaintextSize(path, attrs), attrs.lastModifiedTime().toMillis());
+    }
+
+    @Override
+    public List<ObjectInfo> list(String prefix) throws IOException {
+        Path root = Paths.get(prefix);
+        if (!Files.isDirectory(root)) {
+            ObjectInfo single = stat(prefix);
+            return single == null ? List.of() : List.of(single);
+        }
+        try (Stream<Path> walk = Files.walk(root)) {
+            return walk.filter(Files::isRegularFile).map(path -> {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                    return new ObjectInfo(path.toString(), encryption.plaintextSize(path, attrs), attrs.lastModifiedTime().toMillis());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }).toList();
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        return Files.deleteIfExists(Paths.get(key));
+    }
+
+    @Override
+    public MultipartUpload startMultipart(String key) throws IOException {
+        Path target = Paths.get(key);
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        Path partsDir = Files.createDirectory(target.resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + ".parts"));
+        return new MultipartUpload() {
+            @Override
+            public void putPart(int partNumber, InputStream in, long size) throws IOException {
+                Files.copy(in, partsDir.resolve(String.format("%05d", partNumber)), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            @Override
+            public void complete() throws IOException {
+                Path assembled = partsDir.resolve("assembled");
+                if (encryption.encrypts(target)) {
+                    // Parts are plaintext, the whole file is encrypted as one stream.
+                    try (OutputStream out = encryption.create(target, assembled);
+                         Stream<Path> parts = Files.list(partsDir)) {
+                        for (Path part : parts.filter(p -> !p.equals(assembled)).sorted().toList()) {
+                            Files.copy(part, out);
+                        }
+                    }
+                } else {
+                    try (FileChannel out = FileChannel.open(assembled, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                         Stream<Path> parts = Files.list(partsDir)) {
+                        for (Path part : parts.filter(p -> !p.equals(assembled)).sorted().toList()) {
+                            try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+                                long position = 0;
+                                long size = in.size();
+                                while (position < size) {
+                                    position += in.transferTo(position, size - position, out);
+                                }
+                            }
+                        }
+                    }
+                }
+                Files.move(assembled, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                abort();
+            }
+
+            @Override
+            public void abort() throws IOException {
+                FileUtils.deleteDirectory(partsDir.toFile());
+            }
+        };
+    }
+}
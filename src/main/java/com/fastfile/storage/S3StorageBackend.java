@@ -0,0 +1,166 @@
+package com.fastfile.storage;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+// S3 compatible object storage (AWS, MinIO, ...). Large puts are split into parts uploaded in parallel,
+// reads use ranged GETs, so a resumed or partial download doesn't fetch the whole object.
+public class S3StorageBackend implements StorageBackend, AutoCloseable {
+
+    // S3 rejects parts below 5 MB, except the last one.
+    static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+
+    private final S3Client s3;
+    private final String bucket;
+    private final int partSize;
+    private final int concurrency;
+    private final ExecutorService uploadPool;
+
+    public S3StorageBackend(S3Client s3, String bucket, long partSize, int concurrency) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.partSize = (int) Math.max(MIN_PART_SIZE, Math.min(partSize, Integer.MAX_VALUE - 8));
+        this.concurrency = Math.max(1, concurrency);
+        this.uploadPool = Executors.newFixedThreadPool(this.concurrency, Thread.ofPlatform().name("s3-upload-", 0).daemon().factory());
+    }
+
+    // Objects up to one part are read fully before the PUT, so beforeReplace only runs on complete content.
+    @Override
+    public long put(String key, InputStream in, long size, BeforeReplace beforeReplace) throws IOException {
+        byte[] first = in.readNBytes(partSize);
+        if (first.length < partSize) {
+            beforeReplace.run();
+            s3.putObject(PutObjectRequest.builder().bucket(bucket).key(key).build(), RequestBody.fromBytes(first));
+            return first.length;
+        }
+
+        MultipartUpload upload = startMultipart(key);
+        // At most concurrency parts in flight plus the one being read, the stream is read while earlier parts upload.
+        Semaphore buffers = new Semaphore(concurrency);
+        List<Future<?>> parts = new ArrayList<>();
+        long total = 0;
+        try {
+            byte[] buffer = first;
+            for (int partNumber = 1; buffer.length > 0; partNumber++) {
+                buffers.acquire();
+                total += buffer.length;
+                byte[] part = buffer;
+                int number = partNumber;
+                parts.add(uploadPool.submit(() -> {
+                    try {
+                        upload.putPart(number, new ByteArrayInputStream(part), part.length);
+                        return null;
+                    } finally {
+                        buffers.release();
+                    }
+                }));
+                if (part.length < partSize) break;
+                buffer = in.readNBytes(partSize);
+            }
+            for (Future<?> part : parts) {
+                part.get();
+            }
+            beforeReplace.run();
+            upload.complete();
+            return total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            upload.abort();
+            throw new IOException("Upload of " + key + " interrupted", e);
+        } catch (ExecutionException e) {
+            upload.abort();
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException("Upload of " + key + " failed", e.getCause());
+        } catch (IOException | RuntimeException e) {
+            upload.abort();
+            throw e;
+        }
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) {
+        GetObjectRequest.Builder request = GetObjectRequest.builder().bucket(bucket).key(key);
+        if (offset > 0 || length >= 0) {
+            if (length == 0) return InputStream.nullInputStream();
+            request.range("bytes=" + offset + "-" + (length < 0 ? "" : Long.toString(offset + length - 1)));
+        }
+        return s3.getObject(request.build());
+    }
+
+    @Override
+    public ObjectInfo stat(String key) {
+        try {
+            HeadObjectResponse head = s3.headObject(HeadObjectRequest.builder().bucket(bucket).key(key).build());
+            return new ObjectInfo(key, head.contentLength(), head.lastModified().toEpochMilli());
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) return null;
+            throw e;
+        }
+    }
+
+    @Override
+    public List<ObjectInfo> list(String prefix) {
+        ListObjectsV2Request request = ListObjectsV2Request.builder().bucket(bucket).prefix(prefix).build();
+        return s3.listObjectsV2Paginator(request).contents().stream()
+                .map(object -> new ObjectInfo(object.key(), object.size(), object.lastModified().toEpochMilli()))
+                .toList();
+    }
+
+    @Override
+    public boolean delete(String key) {
+        if (stat(key) == null) return false;
+        s3.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(key).build());
+        return true;
+    }
+
+    @Override
+    public MultipartUpload startMultipart(String key) {
+        String uploadId = s3.createMultipartUpload(CreateMultipartUploadRequest.builder().bucket(bucket).key(key).build()).uploadId();
+        Map<Integer, CompletedPart> completed = new ConcurrentSkipListMap<>();
+        return new MultipartUpload() {
+            @Override
+            public void putPart(int partNumber, InputStream in, long size) {
+                UploadPartResponse response = s3.uploadPart(UploadPartRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .contentLength(size)
+                        .build(), RequestBody.fromInputStream(in, size));
+                completed.put(partNumber, CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build());
+            }
+
+            @Override
+            public void complete() {
+                s3.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .multipartUpload(CompletedMultipartUpload.builder().parts(completed.values()).build())
+                        .build());
+            }
+
+            @Override
+            public void abort() {
+                s3.abortMultipartUpload(AbortMultipartUploadRequest.builder().bucket(bucket).key(key).uploadId(uploadId).build());
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        uploadPool.shutdownNow();
+        s3.close();
+    }
+}
@@ -0,0 +1,38 @@
+package com.fastfile.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.net.URI;
+
+// Only with files.storage.backend=s3, it then takes over from LocalStorageBackend as the StorageBackend the file
+// services write to and read from.
+@Configuration
+@ConditionalOnProperty(name = "files.storage.backend", havingValue = "s3")
+public class S3StorageConfig {
+
+    @Bean
+    @Primary
+    S3StorageBackend s3StorageBackend(@Value("${files.s3.endpoint:}") String endpoint,
+                                      @Value("${files.s3.region:us-east-1}") String region,
+                                      @Value("${files.s3.bucket}") String bucket,
+                                      @Value("${files.s3.access-key}") String accessKey,
+                                      @Value("${files.s3.secret-key}") String secretKey,
+                                      @Value("${files.s3.part-size:8388608}") long partSize,
+                                      @Value("${files.s3.upload-concurrency:4}") int concurrency) {
+        var builder = S3Client.builder()
+                .region(Region.of(region))
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey)))
+                // MinIO and most self hosted stores don't do virtual host style buckets.
+                .forcePathStyle(true);
+        if (!endpoint.isBlank()) builder.endpointOverride(URI.create(endpoint));
+        return new S3StorageBackend(builder.build(), bucket, partSize, concurrency);
+    }
+}
@@ -0,0 +1,277 @@
+package com.fastfile.storage;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+// Streaming AES-GCM in fixed-size segments, so any byte range can be read by decrypting only the segments it touches.
+//   header  "FFE1" <byte version> <int segmentSize> <16 bytes salt> <7 bytes nonce prefix>
+//   segment AES-GCM(segment plaintext) with its 16 byte tag, every segment but the last holds exactly segmentSize bytes
+// Each file gets its own key, HKDF-SHA256(data key, salt), so nonces only have to be unique within a file:
+// nonce = prefix || segment index || last-segment flag. The flag makes truncation at a segment boundary detectable,
+// the index makes reordering detectable. An empty file still has one (empty, last) segment.
+// The JDK's AES/GCM runs on the AES-NI/PMULL and CLMUL intrinsics where the CPU has them.
+public final class SegmentedAesGcm {
+
+    static final byte[] MAGIC = {'F', 'F', 'E', '1'};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4 + 1 + 4 + 16 + 7;
+    static final int TAG_SIZE = 16;
+    static final int MIN_SEGMENT_SIZE = 4096;
+    static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final byte[] KEY_INFO = "fastfile segment key".getBytes(StandardCharsets.US_ASCII);
+
+    private SegmentedAesGcm() {
+    }
+
+    public static boolean isEncrypted(byte[] head) {
+        return head.length >= MAGIC.length && Arrays.equals(head, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    // Plaintext size of an encrypted file of storedSize bytes.
+    public static long plaintextSize(long storedSize, int segmentSize) {
+        long body = storedSize - HEADER_SIZE;
+        long segments = Math.max(1, Math.ceilDiv(body, segmentSize + TAG_SIZE));
+        return Math.max(0, body - segments * TAG_SIZE);
+    }
+
+    public static long storedSize(long plaintextSize, int segmentSize) {
+        long segments = plaintextSize / segmentSize + 1;
+        if (plaintextSize > 0 && plaintextSize % segmentSize == 0) segments--;
+        return HEADER_SIZE + plaintextSize + segments * TAG_SIZE;
+    }
+
+    // Buffers one segment, a full one is only sealed once it's known whether more data follows.
+    public static class EncryptingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final Cipher cipher;
+        private final SecretKey key;
+        private final byte[] noncePrefix;
+        private final byte[] segment;
+        private final byte[] sealed;
+        private int buffered;
+        private int index;
+        private boolean closed;
+
+        public EncryptingOutputStream(OutputStream out, SecretKey dataKey, int segmentSize) throws IOException {
+            if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+            this.out = out;
+            byte[] salt = new byte[16];
+            this.noncePrefix = new byte[7];
+            RANDOM.nextBytes(salt);
+            RANDOM.nextBytes(noncePrefix);
+            this.key = fileKey(dataKey, salt);
+            this.cipher = cipher();
+            this.segment = new byte[segmentSize];
+            this.sealed = new byte[segmentSize + TAG_SIZE];
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).put(MAGIC).put((byte) VERSION).putInt(segmentSize).put(salt).put(noncePrefix);
+            out.write(header.array());
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (buffered == segment.length) seal(false);
+                int chunk = Math.min(length, segment.length - buffered);
+                System.arraycopy(buffer, offset, segment, buffered, chunk);
+                buffered += chunk;
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                seal(true);
+                out.flush();
+            } finally {
+                out.close();
+            }
+        }
+
+        private void seal(boolean last) throws IOException {
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, nonce(noncePrefix, index++, last)));
+                int length = cipher.doFinal(segment, 0, buffered, sealed, 0);
+                out.write(sealed, 0, length);
+                buffered = 0;
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    // An open encrypted file, header parsed and file key derived once, for reading any number of ranges one after
+    // another (not concurrently, ranges share the buffers). Closing it closes the channel.
+    public static class Reader implements Closeable {
+        private final FileChannel channel;
+        private final Cipher cipher;
+        private final SecretKey key;
+        private final byte[] noncePrefix;
+        private final int segmentSize;
+        private final long storedSize;
+        private final long segments;
+        private final ByteBuffer sealed;
+        private final byte[] plain;
+
+        // channel is positioned anywhere, it's only read with absolute positions.
+        public Reader(FileChannel channel, SecretKey dataKey) throws IOException {
+            this.channel = channel;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!isEncrypted(magic) || header.get() != VERSION) throw new IOException("Not an encrypted file");
+            this.segmentSize = header.getInt();
+            if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) throw new IOException("Invalid segment size " + segmentSize);
+            byte[] salt = new byte[16];
+            header.get(salt);
+            this.noncePrefix = new byte[7];
+            header.get(noncePrefix);
+            this.key = fileKey(dataKey, salt);
+            this.cipher = cipher();
+            this.storedSize = channel.size();
+            this.segments = Math.max(1, Math.ceilDiv(storedSize - HEADER_SIZE, segmentSize + TAG_SIZE));
+            this.sealed = ByteBuffer.allocate(segmentSize + TAG_SIZE);
+            this.plain = new byte[segmentSize];
+        }
+
+        public long size() {
+            return plaintextSize(storedSize, segmentSize);
+        }
+
+        // [offset, offset + length) of the plaintext, length -1 reads until the end. Closing the stream leaves this open.
+        public InputStream range(long offset, long length) throws IOException {
+            return new DecryptingInputStream(this, offset, length, false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        // Decrypts segment into plain, returns its plaintext length.
+        private int open(long segment) throws IOException {
+            if (segment >= segments) throw new IOException("Encrypted file is truncated");
+            sealed.clear();
+            if (segment == segments - 1) sealed.limit((int) (storedSize - HEADER_SIZE - segment * (segmentSize + TAG_SIZE)));
+            readFully(channel, sealed, HEADER_SIZE + segment * (segmentSize + TAG_SIZE));
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE * 8, nonce(noncePrefix, segment, segment == segments - 1)));
+                return cipher.doFinal(sealed.array(), 0, sealed.position(), plain, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Encrypted segment " + segment + " failed authentication", e);
+            }
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) throw new EOFException("Encrypted file is truncated");
+                position += read;
+            }
+        }
+    }
+
+    // Reads [offset, offset + length) of the plaintext, starting at the segment holding offset.
+    public static class DecryptingInputStream extends InputStream {
+        private final Reader reader;
+        private final boolean ownsReader;
+        private long index;
+        private int position;
+        private int limit;
+        private long remaining;
+
+        // channel is positioned anywhere, it's only read with absolute positions and closed with this stream.
+        public DecryptingInputStream(FileChannel channel, SecretKey dataKey, long offset, long length) throws IOException {
+            this(new Reader(channel, dataKey), offset, length, true);
+        }
+
+        private DecryptingInputStream(Reader reader, long offset, long length, boolean ownsReader) throws IOException {
+            this.reader = reader;
+            this.ownsReader = ownsReader;
+            long size = reader.size();
+            long start = Math.min(offset, size);
+            this.remaining = length < 0 ? size - start : Math.min(length, size - start);
+            this.index = start / reader.segmentSize;
+            if (remaining > 0) {
+                limit = reader.open(index);
+                position = (int) (start % reader.segmentSize);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) return -1;
+            if (length == 0) return 0;
+            if (position == limit) {
+                limit = reader.open(++index);
+                position = 0;
+            }
+            int chunk = (int) Math.min(Math.min(length, limit - position), remaining);
+            System.arraycopy(reader.plain, position, buffer, offset, chunk);
+            position += chunk;
+            remaining -= chunk;
+            return chunk;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (ownsReader) reader.close();
+        }
+    }
+
+    private static byte[] nonce(byte[] prefix, long index, boolean last) {
+        if (index > 0xffffffffL) throw new IllegalStateException("Too many segments");
+        return ByteBuffer.allocate(12).put(prefix).putInt((int) index).put((byte) (last ? 1 : 0)).array();
+    }
+
+    // HKDF-SHA256 (RFC 5869) with a single output block.
+    static SecretKey fileKey(SecretKey dataKey, byte[] salt) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(salt, "HmacSHA256"));
+            byte[] prk = mac.doFinal(dataKey.getEncoded());
+            mac.init(new SecretKeySpec(prk, "HmacSHA256"));
+            mac.update(KEY_INFO);
+            mac.update((byte) 1);
+            return new SecretKeySpec(mac.doFinal(), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Cipher cipher() {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
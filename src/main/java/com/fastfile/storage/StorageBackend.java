@@ -0,0 +1,53 @@
+package com.fastfile.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+// Byte storage under the file services. Keys are slash separated paths as FileLink stores them, e.g. "files/42/a.txt".
+// Directories aren't objects, they exist implicitly through the keys below them.
+public interface StorageBackend {
+
+    record ObjectInfo(String key, long size, long lastModified) {
+    }
+
+    // Parts may be uploaded concurrently and in any order, complete() assembles them by part number.
+    interface MultipartUpload {
+        void putPart(int partNumber, InputStream in, long size) throws IOException;
+
+        void complete() throws IOException;
+
+        void abort() throws IOException;
+    }
+
+    // Runs once the new content is complete, right before it replaces the old object.
+    interface BeforeReplace {
+        void run() throws IOException;
+    }
+
+    // Creates or replaces the object, readers never see a partial one. size is -1 when unknown.
+    default long put(String key, InputStream in, long size) throws IOException {
+        return put(key, in, size, () -> {
+        });
+    }
+
+    // beforeReplace doesn't run when reading in or writing fails.
+    long put(String key, InputStream in, long size, BeforeReplace beforeReplace) throws IOException;
+
+    // length -1 reads until the end.
+    InputStream get(String key, long offset, long length) throws IOException;
+
+    default InputStream get(String key) throws IOException {
+        return get(key, 0, -1);
+    }
+
+    // null when there's no such object.
+    ObjectInfo stat(String key) throws IOException;
+
+    // Every object below prefix, recursively.
+    List<ObjectInfo> list(String prefix) throws IOException;
+
+    boolean delete(String key) throws IOException;
+
+    MultipartUpload startMultipart(String key) throws IOException;
+}
@@ -0,0 +1,191 @@
+package com.fastfile.storage;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Decides on which data volume a user's files live.
+// New users are placed by consistent hashing (or by free space), existing users stay where their directory is,
+// so adding a volume doesn't move anyone until the rebalancer does.
+@Service
+public class StoragePlacement {
+
+    private static final int VIRTUAL_NODES = 64;
+
+    private final MeterRegistry registry;
+    private final List<StorageVolume> volumes = new ArrayList<>();
+    private final NavigableMap<Long, StorageVolume> ring = new TreeMap<>();
+    private final Map<Long, StorageVolume> userVolumes = new ConcurrentHashMap<>();
+
+    @Value("${files.root-dir}")
+    private String rootDir;
+    // Comma separated, root-dir alone when empty.
+    @Value("${files.volumes:}")
+    private String volumesConfig;
+    // hash | free-space
+    @Value("${files.placement:hash}")
+    private String strategy;
+
+    public StoragePlacement(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        List<String> roots = volumesConfig == null || volumesConfig.isBlank()
+                ? List.of(rootDir)
+                : Arrays.stream(volumesConfig.split(",")).map(String::trim).filter(root -> !root.isEmpty()).toList();
+        for (String root : roots) {
+            StorageVolume volume = new StorageVolume(root.endsWith("/") ? root : root + "/");
+            Files.createDirectories(volume.rootPath());
+            volumes.add(volume);
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(volume.root() + "#" + i), volume);
+            }
+            Gauge.builder("fastfile.volume.usable", volume, v -> usableSpace(v))
+                    .baseUnit("bytes")
+                    .tag("volume", volume.root())
+                    .register(registry);
+            Gauge.builder("fastfile.volume.total", volume, v -> totalSpace(v))
+                    .baseUnit("bytes")
+                    .tag("volume", volume.root())
+                    .register(registry);
+            Gauge.builder("fastfile.volume.healthy", volume, v -> isHealthy(v) ? 1 : 0)
+                    .tag("volume", volume.root())
+                    .register(registry);
+        }
+    }
+
+    public List<StorageVolume> volumes() {
+        return Collections.unmodifiableList(volumes);
+    }
+
+    public StorageVolume volumeFor(long userId) {
+        return userVolumes.computeIfAbsent(userId, this::locate);
+    }
+
+    public Path userRoot(long userId) {
+        return volumeFor(userId).userRoot(userId);
+    }
+
+    // Same shape as the old FILES_ROOT + userId + "/" + directory, FileLink paths depend on it.
+    public Path userPath(long userId, String directory) {
+        return Paths.get(volumeFor(userId).root() + userId + "/" + directory);
+    }
+
+    // Where the hash ring wants the user, skipping unhealthy volumes.
+    public StorageVolume preferredVolume(long userId) {
+        long key = hash(Long.toString(userId));
+        for (StorageVolume volume : ringFrom(key)) {
+            if (isHealthy(volume)) return volume;
+        }
+        throw new RuntimeException("No healthy storage volume");
+    }
+
+    // Volume holding the path (longest root wins), null when it's outside all of them.
+    public StorageVolume volumeOf(Path path) {
+        StorageVolume found = null;
+        for (StorageVolume volume : volumes) {
+            if (volume.contains(path) && (found == null || volume.root().length() > found.root().length())) {
+                found = volume;
+            }
+        }
+        return found;
+    }
+
+    // Path relative to its volume root, e.g. "42/docs/a.txt".
+    public String relativize(Path path) {
+        StorageVolume volume = volumeOf(path);
+        if (volume == null) return path.toString();
+        return volume.rootPath().toAbsolutePath().normalize().relativize(path.toAbsolutePath().normalize()).toString();
+    }
+
+    // Root directory of the user owning path ("<volume>/<userId>"), null outside user directories.
+    public Path userRootOf(Path path) {
+        StorageVolume volume = volumeOf(path);
+        if (volume == null) return null;
+        Path volumeRoot = volume.rootPath().toAbsolutePath().normalize();
+        Path relative = volumeRoot.relativize(path.toAbsolutePath().normalize());
+        if (relative.toString().isEmpty() || !relative.getName(0).toString().matches("-?\\d+")) return null;
+        return volumeRoot.resolve(relative.getName(0));
+    }
+
+    public boolean isHealthy(StorageVolume volume) {
+        Path root = volume.rootPath();
+        return Files.isDirectory(root) && Files.isWritable(root);
+    }
+
+    public long usableSpace(StorageVolume volume) {
+        try {
+            return Files.getFileStore(volume.rootPath()).getUsableSpace();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    public long totalSpace(StorageVolume volume) {
+        try {
+            return Files.getFileStore(volume.rootPath()).getTotalSpace();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    public void forget(long userId) {
+        userVolumes.remove(userId);
+    }
+
+    void assign(long userId, StorageVolume volume) {
+        userVolumes.put(userId, volume);
+    }
+
+    private StorageVolume locate(long userId) {
+        // Existing directory wins, whatever placement says today.
+        for (StorageVolume volume : volumes) {
+            if (Files.isDirectory(volume.userRoot(userId))) return volume;
+        }
+        if ("free-space".equals(strategy)) {
+            return volumes.stream()
+                    .filter(this::isHealthy)
+                    .max(Comparator.comparingLong(this::usableSpace))
+                    .orElseThrow(() -> new RuntimeException("No healthy storage volume"));
+        }
+        return preferredVolume(userId);
+    }
+
+    private Collection<StorageVolume> ringFrom(long key) {
+        List<StorageVolume> ordered = new ArrayList<>();
+        for (StorageVolume volume : ring.tailMap(key, true).values()) {
+            if (!ordered.contains(volume)) ordered.add(volume);
+        }
+        for (StorageVolume volume : ring.headMap(key, false).values()) {
+            if (!ordered.contains(volume)) ordered.add(volume);
+        }
+        return ordered;
+    }
+
+    private static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
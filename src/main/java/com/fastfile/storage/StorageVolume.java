@@ -0,0 +1,27 @@
+package com.fastfile.storage;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// One configured data root, e.g. "files/" or "/mnt/disk2/fastfile/". Root always ends with "/".
+public record StorageVolume(String root) {
+
+    // Old file versions live next to the user roots, on the same file system so they can share data by hardlink.
+    public static final String VERSIONS_DIR = ".versions";
+
+    public Path rootPath() {
+        return Paths.get(root);
+    }
+
+    public Path userRoot(long userId) {
+        return Paths.get(root + userId);
+    }
+
+    public Path versionsRoot(long userId) {
+        return Paths.get(root + VERSIONS_DIR + "/" + userId);
+    }
+
+    boolean contains(Path path) {
+        return path.toAbsolutePath().normalize().startsWith(rootPath().toAbsolutePath().normalize());
+    }
+}
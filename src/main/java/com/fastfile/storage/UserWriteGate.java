@@ -0,0 +1,80 @@
+package com.fastfile.storage;
+
+import com.fastfile.transfer.TransferRejectedException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Lets the rebalancer shut out a user's writes while it does the final sync and switches placement.
+// Writers hold a pass for the whole request (see WriteGateFilter); a closed gate turns new ones away with 429 and
+// waits for the ones inside. Passes aren't tied to a thread, closing one from another thread is fine.
+@Service
+public class UserWriteGate {
+
+    // Closing twice is harmless.
+    public class Pass implements AutoCloseable {
+        private final long userId;
+        private boolean closed;
+
+        private Pass(long userId) {
+            this.userId = userId;
+        }
+
+        @Override
+        public void close() {
+            synchronized (UserWriteGate.this) {
+                if (closed) return;
+                closed = true;
+                State state = states.get(userId);
+                if (--state.writers == 0 && !state.shut) states.remove(userId);
+                UserWriteGate.this.notifyAll();
+            }
+        }
+    }
+
+    private static class State {
+        int writers;
+        boolean shut;
+    }
+
+    private final Map<Long, State> states = new HashMap<>();
+
+    @Value("${files.rebalance.retry-after-seconds:5}")
+    private long retryAfterSeconds;
+
+    public synchronized Pass enter(long userId) {
+        State state = states.computeIfAbsent(userId, id -> new State());
+        if (state.shut) {
+            throw new TransferRejectedException("Storage is being moved", retryAfterSeconds);
+        }
+        state.writers++;
+        return new Pass(userId);
+    }
+
+    // Turns new writers away and waits up to timeoutMs for the current ones. false (and open again) when some
+    // are still inside by then.
+    public synchronized boolean shut(long userId, long timeoutMs) throws InterruptedException {
+        State state = states.computeIfAbsent(userId, id -> new State());
+        state.shut = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (state.writers > 0) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                open(userId);
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return true;
+    }
+
+    public synchronized void open(long userId) {
+        State state = states.get(userId);
+        if (state == null) return;
+        state.shut = false;
+        if (state.writers == 0) states.remove(userId);
+    }
+}
@@ -0,0 +1,210 @@
+package com.fastfile.storage;
+
+import com.fastfile.model.FileVersion;
+import com.fastfile.repository.FileVersionRepository;
+import com.fastfile.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.transaction.Transactional;
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Keeps replaced and deleted files as versions under <volume>/.versions/<userId>/<uuid>/<name>.
+// All our writes go to a temp file that is renamed over the target, never into the file itself,
+// so a version can be a hardlink to the old inode and costs no copy. Copies only where links aren't supported.
+@Service
+public class VersionStore {
+
+    private static final int PRUNE_BATCH = 500;
+
+    private final FileVersionRepository fileVersionRepository;
+    private final UserRepository userRepository;
+    private final StoragePlacement placement;
+    private final Counter copiedVersions;
+    private final Counter prunedVersions;
+
+    @Value("${files.versions.enabled:true}")
+    private boolean enabled;
+    @Value("${files.versions.keep-count:10}")
+    private int keepCount;
+    @Value("${files.versions.keep-days:30}")
+    private int keepDays;
+
+    public VersionStore(FileVersionRepository fileVersionRepository, UserRepository userRepository, StoragePlacement placement, MeterRegistry registry) {
+        this.fileVersionRepository = fileVersionRepository;
+        this.userRepository = userRepository;
+        this.placement = placement;
+        this.copiedVersions = Counter.builder("fastfile.versions.copied").description("Versions stored by copy, hardlink not supported").register(registry);
+        this.prunedVersions = Counter.builder("fastfile.versions.pruned").register(registry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Stores the current content of file as a version, the caller may then replace or delete it.
+    @Transactional
+    public FileVersion preserve(long userId, Path file) throws IOException {
+        Path abs = file.toAbsolutePath().normalize();
+        StorageVolume volume = placement.volumeOf(abs);
+        if (volume == null) throw new RuntimeException("File isn't on a storage volume: " + file);
+        Path blob = volume.versionsRoot(userId).resolve(UUID.randomUUID().toString()).resolve(abs.getFileName().toString());
+        BasicFileAttributes attrs = Files.readAttributes(abs, BasicFileAttributes.class);
+        Files.createDirectories(blob.getParent());
+        link(abs, blob);
+
+        FileVersion version = new FileVersion();
+        version.setOwnerId(userId);
+        version.setPath(relativePath(userId, abs));
+        version.setBlobPath(blob.toString());
+        version.setSize(attrs.size());
+        version.setLastModified(attrs.lastModifiedTime().toMillis());
+        version.setCreatedAt(System.currentTimeMillis());
+        fileVersionRepository.save(version);
+
+        // Keep-count is applied right away for this file, the pruner catches up on policy changes and age.
+        List<FileVersion> versions = fileVersionRepository.findAllByOwnerIdAndPathOrderByIdDesc(userId, version.getPath());
+        if (versions.size() > keepCount) {
+            remove(versions.subList(keepCount, versions.size()));
+        }
+        return version;
+    }
+
+    // Puts the version's content back at target, keeping what is there now as a version. Returns whether target existed.
+    @Transactional
+    public boolean restore(FileVersion version, Path target) throws IOException {
+        Path blob = Paths.get(version.getBlobPath());
+        Path abs = target.toAbsolutePath().normalize();
+        Files.createDirectories(abs.getParent());
+        Path temp = abs.resolveSibling("." + abs.getFileName() + "." + UUID.randomUUID() + ".part");
+        try {
+            link(blob, temp);
+            boolean replaced = Files.isRegularFile(abs);
+            if (replaced) preserve(version.getOwnerId(), abs);
+            Files.move(temp, abs, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return replaced;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public List<FileVersion> versions(long userId, String path) {
+        return fileVersionRepository.findAllByOwnerIdAndPathOrderByIdDesc(userId, path);
+    }
+
+    public FileVersion version(long userId, long versionId) {
+        return fileVersionRepository.findByIdAndOwnerId(versionId, userId).orElse(null);
+    }
+
+    // History follows moves and renames.
+    public void pathMoved(long userId, Path source, Path target) {
+        fileVersionRepository.replacePath(userId, relativePath(userId, source), relativePath(userId, target));
+    }
+
+    // Counted at full size, also while a version still shares its inode with the live file.
+    public long storedBytes(long userId) {
+        return fileVersionRepository.sumSizeByOwnerId(userId);
+    }
+
+    public String relativePath(long userId, Path path) {
+        Path userRoot = placement.userRoot(userId).toAbsolutePath().normalize();
+        return userRoot.relativize(path.toAbsolutePath().normalize()).toString();
+    }
+
+    @Transactional
+    public void deleteAll(long userId) throws IOException {
+        fileVersionRepository.deleteAllByOwnerId(userId);
+        afterCommit(() -> {
+            // Rebalancing moves user roots but not versions, they may be on any volume.
+            for (StorageVolume volume : placement.volumes()) {
+                Path root = volume.versionsRoot(userId);
+                if (Files.exists(root)) FileUtils.deleteDirectory(root.toFile());
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${files.versions.prune-interval-ms:3600000}", initialDelayString = "${files.versions.prune-interval-ms:3600000}")
+    @Transactional
+    public int prune() throws IOException {
+        long cutoff = System.currentTimeMillis() - keepDays * 86_400_000L;
+        Map<Long, Long> freed = new HashMap<>();
+        int pruned = 0;
+        List<FileVersion> batch;
+        while (!(batch = fileVersionRepository.findAllByCreatedAtBefore(cutoff, Limit.of(PRUNE_BATCH))).isEmpty()) {
+            pruned += remove(batch, freed);
+        }
+        while (!(batch = fileVersionRepository.findAllBeyondNewest(keepCount, Limit.of(PRUNE_BATCH))).isEmpty()) {
+            pruned += remove(batch, freed);
+        }
+        freed.forEach((userId, bytes) -> userRepository.addUsedStorage(userId, -bytes));
+        return pruned;
+    }
+
+    private int remove(List<FileVersion> versions) throws IOException {
+        return remove(versions, new HashMap<>());
+    }
+
+    private int remove(List<FileVersion> versions, Map<Long, Long> freed) throws IOException {
+        List<Path> blobs = new ArrayList<>();
+        for (FileVersion version : versions) {
+            blobs.add(Paths.get(version.getBlobPath()));
+            freed.merge(version.getOwnerId(), version.getSize(), Long::sum);
+        }
+        fileVersionRepository.deleteAllInBatch(versions);
+        prunedVersions.increment(versions.size());
+        afterCommit(() -> {
+            for (Path blob : blobs) {
+                Files.deleteIfExists(blob);
+                Files.deleteIfExists(blob.getParent());
+            }
+        });
+        return versions.size();
+    }
+
+    private interface BlobDeletion {
+        void run() throws IOException;
+    }
+
+    // Blobs go once their rows are gone for good, a rolled back delete keeps versions that can still be restored.
+    // A failed deletion leaves orphaned blobs, never rows without content.
+    private void afterCommit(BlobDeletion deletion) throws IOException {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            deletion.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    deletion.run();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    private void link(Path existing, Path link) throws IOException {
+        try {
+            Files.createLink(link, existing);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.copy(existing, link, StandardCopyOption.COPY_ATTRIBUTES);
+            copiedVersions.increment();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.fastfile.storage;
+
+import com.fastfile.repository.FileLinkRepository;
+import com.fastfile.service.FileLinkCache;
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Moves user directories to the volume the hash ring prefers, while the app keeps serving them.
+// Copy runs against the live tree and a catch-up pass mirrors what changed meanwhile. Then the user's writes are shut
+// out (UserWriteGate) for a last mirror pass and the switch, so nothing written or deleted in between gets lost.
+// Users whose writes don't drain within drain-timeout-ms are skipped for this run.
+@Service
+public class VolumeRebalancer {
+
+    private final StoragePlacement placement;
+    private final FileLinkRepository fileLinkRepository;
+    private final FileLinkCache fileLinkCache;
+    private final DirectoryStats directoryStats;
+    private final UserWriteGate writeGate;
+
+    @Value("${files.rebalance.drain-timeout-ms:10000}")
+    private long drainTimeoutMs;
+
+    public VolumeRebalancer(StoragePlacement placement, FileLinkRepository fileLinkRepository, FileLinkCache fileLinkCache, DirectoryStats directoryStats, UserWriteGate writeGate) {
+        this.placement = placement;
+        this.fileLinkRepository = fileLinkRepository;
+        this.fileLinkCache = fileLinkCache;
+        this.directoryStats = directoryStats;
+        this.writeGate = writeGate;
+    }
+
+    // Moves at most limit misplaced users, returns their ids.
+    public synchronized List<Long> rebalance(int limit) throws IOException {
+        List<Long> moved = new ArrayList<>();
+        for (StorageVolume volume : placement.volumes()) {
+            for (long userId : usersOn(volume)) {
+                if (moved.size() >= limit) return moved;
+                StorageVolume target = placement.preferredVolume(userId);
+                if (!target.equals(volume) && moveUser(userId, volume, target)) {
+                    moved.add(userId);
+                }
+            }
+        }
+        return moved;
+    }
+
+    public List<Long> usersOn(StorageVolume volume) throws IOException {
+        try (Stream<Path> dirs = Files.list(volume.rootPath())) {
+            return dirs.filter(Files::isDirectory)
+                    .map(dir -> dir.getFileName().toString())
+                    .filter(name -> name.matches("-?\\d+"))
+                    .map(Long::parseLong)
+                    .toList();
+        }
+    }
+
+    boolean moveUser(long userId, StorageVolume source, StorageVolume target) throws IOException {
+        Path sourceDir = source.userRoot(userId);
+        Path targetDir = target.userRoot(userId);
+        // Leftover from an earlier run or a manual copy, needs a look by hand.
+        if (Files.exists(targetDir)) return false;
+        Path stagingDir = Paths.get(target.root() + userId + ".rebalance");
+        FileUtils.deleteDirectory(stagingDir.toFile());
+
+        copyTree(sourceDir, stagingDir);
+        mirror(sourceDir, stagingDir);
+
+        try {
+            if (!writeGate.shut(userId, drainTimeoutMs)) {
+                FileUtils.deleteDirectory(stagingDir.toFile());
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            FileUtils.deleteDirectory(stagingDir.toFile());
+            return false;
+        }
+        try {
+            mirror(sourceDir, stagingDir);
+            // Same volume, so the rename is atomic and the user never sees a half copied root.
+            Files.move(stagingDir, targetDir, StandardCopyOption.ATOMIC_MOVE);
+            placement.assign(userId, target);
+            directoryStats.invalidate(sourceDir);
+
+            String oldPrefix = source.root() + userId + "/";
+            fileLinkRepository.replacePathPrefix(oldPrefix, target.root() + userId + "/");
+            fileLinkCache.invalidatePath(source.root() + userId);
+        } finally {
+            writeGate.open(userId);
+        }
+
+        FileUtils.deleteDirectory(sourceDir.toFile());
+        return true;
+    }
+
+    private static void copyTree(Path source, Path target) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, target.resolve(source.relativize(file).toString()),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // Makes target match source: copies files that are missing or differ in size or modification time (renames keep
+    // the time, so a moved file is missing under its new name), then removes what source no longer has.
+    static void mirror(Path source, Path target) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path copy = target.resolve(source.relativize(file).toString());
+                if (Files.isDirectory(copy)) FileUtils.deleteDirectory(copy.toFile());
+                BasicFileAttributes copyAttrs = Files.exists(copy) ? Files.readAttributes(copy, BasicFileAttributes.class) : null;
+                if (copyAttrs == null || copyAttrs.size() != attrs.size() || !copyAttrs.lastModifiedTime().equals(attrs.lastModifiedTime())) {
+                    Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Files.walkFileTree(target, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(target) && !Files.isDirectory(source.resolve(target.relativize(dir).toString()))) {
+                    FileUtils.deleteDirectory(dir.toFile());
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!Files.isRegularFile(source.resolve(target.relativize(file).toString()))) {
+                    Files.delete(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,207 @@
+package com.fastfile.storage;
+
+import com.fastfile.event.FileChangeEvent;
+import com.fastfile.repository.UserRepository;
+import com.fastfile.service.FileLinkCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+// Notices changes made behind FileService's back (rsync restores, imports) through inotify (WatchService).
+// Events are coalesced per user root and applied once the root has been quiet for debounce-ms (or after max-delay-ms):
+// the root is walked again, its usage saved and its cached links dropped. Our own writes are recognized and skipped.
+// Every directory below the volumes takes one inotify watch, fs.inotify.max_user_watches has to cover them.
+@Service
+public class VolumeWatcher {
+
+    private static final class PendingRoot {
+        final long firstEvent = System.currentTimeMillis();
+        final Set<Path> paths = ConcurrentHashMap.newKeySet();
+        volatile long lastEvent = firstEvent;
+        volatile boolean overflow;
+    }
+
+    private final StoragePlacement placement;
+    private final DirectoryStats directoryStats;
+    private final UserRepository userRepository;
+    private final FileLinkCache fileLinkCache;
+    private final MeterRegistry registry;
+    private final ApplicationEventPublisher eventPublisher;
+    private final VersionStore versionStore;
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private final Map<Path, PendingRoot> pending = new ConcurrentHashMap<>();
+
+    private WatchService watchService;
+    private Thread watchThread;
+    private ScheduledExecutorService flusher;
+
+    @Value("${files.watch.enabled:false}")
+    private boolean enabled;
+    @Value("${files.watch.debounce-ms:2000}")
+    private long debounceMs;
+    @Value("${files.watch.max-delay-ms:10000}")
+    private long maxDelayMs;
+
+    public VolumeWatcher(StoragePlacement placement, DirectoryStats directoryStats, UserRepository userRepository, FileLinkCache fileLinkCache, MeterRegistry registry, ApplicationEventPublisher eventPublisher, VersionStore versionStore) {
+        this.placement = placement;
+        this.directoryStats = directoryStats;
+        this.userRepository = userRepository;
+        this.fileLinkCache = fileLinkCache;
+        this.registry = registry;
+        this.eventPublisher = eventPublisher;
+        this.versionStore = versionStore;
+    }
+
+    @PostConstruct
+    void start() throws IOException {
+        if (!enabled) return;
+        directoryStats.trackTouches(true);
+        watchService = FileSystems.getDefault().newWatchService();
+        watchThread = Thread.ofPlatform().name("volume-watcher").daemon().start(this::watchLoop);
+        flusher = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("volume-watcher-flush").daemon().factory());
+        flusher.scheduleWithFixedDelay(this::flush, debounceMs, Math.max(100, debounceMs / 2), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() throws IOException {
+        if (!enabled) return;
+        flusher.shutdownNow();
+        watchThread.interrupt();
+        watchService.close();
+    }
+
+    private void watchLoop() {
+        for (StorageVolume volume : placement.volumes()) {
+            registerTree(volume.rootPath());
+        }
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = watchedDirs.get(key);
+            if (dir != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    handle(dir, event);
+                }
+            }
+            if (!key.reset()) watchedDirs.remove(key);
+        }
+    }
+
+    private void handle(Path dir, WatchEvent<?> event) {
+        if (event.kind() == OVERFLOW) {
+            overflow(dir);
+            return;
+        }
+        Path child = dir.resolve((Path) event.context());
+        if (LocalStorageBackend.isTempName(child.getFileName().toString())) return;
+        if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+            registerTree(child);
+        }
+        Path root = placement.userRootOf(child);
+        if (root == null) return;
+        pending.compute(root, (r, existing) -> {
+            PendingRoot pendingRoot = existing != null ? existing : new PendingRoot();
+            pendingRoot.lastEvent = System.currentTimeMillis();
+            pendingRoot.paths.add(child);
+            return pendingRoot;
+        });
+    }
+
+    // Events were dropped. Inside a user root only that root is rescanned,
+    // on a volume root every tree of the volume is dropped and rebuilt lazily on next use.
+    private void overflow(Path dir) {
+        Path root = placement.userRootOf(dir);
+        if (root != null) {
+            registerTree(root);
+            pending.computeIfAbsent(root, r -> new PendingRoot()).overflow = true;
+            return;
+        }
+        registerTree(dir);
+        StorageVolume volume = placement.volumeOf(dir);
+        if (volume == null) return;
+        try (var users = Files.list(volume.rootPath())) {
+            users.map(placement::userRootOf).filter(Objects::nonNull).forEach(directoryStats::invalidate);
+        } catch (IOException ignored) {
+            // Volume went away, health gauges report it.
+        }
+        Counter.builder("fastfile.watch.rescans").tag("reason", "volume-overflow").register(registry).increment();
+    }
+
+    void flush() {
+        long now = System.currentTimeMillis();
+        for (var entry : pending.entrySet()) {
+            Path root = entry.getKey();
+            PendingRoot pendingRoot = entry.getValue();
+            boolean quiet = now - pendingRoot.lastEvent >= debounceMs;
+            boolean overdue = now - pendingRoot.firstEvent >= maxDelayMs;
+            if (!quiet && !overdue) continue;
+            if (!pending.remove(root, pendingRoot)) continue;
+
+            // Skip storms caused by our own writes, FileService already updated the aggregates.
+            long since = pendingRoot.firstEvent - debounceMs;
+            boolean outOfBand = pendingRoot.overflow
+                    || pendingRoot.paths.stream().anyMatch(path -> !directoryStats.touchedSince(path, since));
+            if (outOfBand) rescan(root, pendingRoot.overflow ? "overflow" : "change");
+        }
+        directoryStats.forgetTouchesBefore(now - maxDelayMs - debounceMs);
+    }
+
+    private void rescan(Path root, String reason) {
+        try {
+            directoryStats.invalidate(root);
+            DirectoryStats.Stats stats = directoryStats.stats(root);
+            long userId = Long.parseLong(root.getFileName().toString());
+            if (stats != null) userRepository.setUsedStorage(userId, stats.size() + versionStore.storedBytes(userId));
+            StorageVolume volume = placement.volumeOf(root);
+            if (volume != null) fileLinkCache.invalidatePath(volume.root() + userId);
+            // We don't know what changed, subscribers re-list their directory.
+            eventPublisher.publishEvent(FileChangeEvent.of(userId, FileChangeEvent.Type.RESCANNED, "", true));
+            Counter.builder("fastfile.watch.rescans").tag("reason", reason).register(registry).increment();
+        } catch (IOException | RuntimeException e) {
+            // Next event or read tries again.
+            directoryStats.invalidate(root);
+        }
+    }
+
+    private void registerTree(Path start) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    String name = dir.getFileName().toString();
+                    if (LocalStorageBackend.isTempName(name) || name.equals(StorageVolume.VERSIONS_DIR)) return FileVisitResult.SKIP_SUBTREE;
+                    watchedDirs.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ignored) {
+            // Directory vanished before we got to it, its parent's event covers it.
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.fastfile.storage;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.jspecify.annotations.Nullable;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// GET /actuator/volumes for health and capacity per volume, POST to move misplaced users. Served on the management
+// port only (management.server), which listens on loopback.
+@Component
+@Endpoint(id = "volumes")
+public class VolumesEndpoint {
+
+    public record VolumeStatus(String root, boolean healthy, long usableBytes, long totalBytes, int users) {
+    }
+
+    private final StoragePlacement placement;
+    private final VolumeRebalancer rebalancer;
+
+    public VolumesEndpoint(StoragePlacement placement, VolumeRebalancer rebalancer) {
+        this.placement = placement;
+        this.rebalancer = rebalancer;
+    }
+
+    @ReadOperation
+    public List<VolumeStatus> volumes() throws IOException {
+        List<VolumeStatus> statuses = new ArrayList<>();
+        for (StorageVolume volume : placement.volumes()) {
+            boolean healthy = placement.isHealthy(volume);
+            statuses.add(new VolumeStatus(
+                    volume.root(),
+                    healthy,
+                    placement.usableSpace(volume),
+                    placement.totalSpace(volume),
+                    healthy ? rebalancer.usersOn(volume).size() : 0
+            ));
+        }
+        return statuses;
+    }
+
+    @WriteOperation
+    public List<Long> rebalance(@Nullable Integer limit) throws IOException {
+        return rebalancer.rebalance(limit == null ? 100 : limit);
+    }
+}
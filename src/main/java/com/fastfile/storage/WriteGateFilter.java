@@ -0,0 +1,56 @@
+package com.fastfile.storage;
+
+import com.fastfile.transfer.TransferRejectedException;
+import io.jsonwebtoken.Claims;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Set;
+
+// Every authenticated request that may write holds a UserWriteGate pass until it's done. Runs after the security
+// filter chain, the user id comes from the JWT claims.
+@Component
+public class WriteGateFilter extends OncePerRequestFilter {
+
+    private static final Set<String> READ_METHODS = Set.of("GET", "HEAD", "OPTIONS");
+
+    private final UserWriteGate writeGate;
+
+    public WriteGateFilter(UserWriteGate writeGate) {
+        this.writeGate = writeGate;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return READ_METHODS.contains(request.getMethod());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth == null || !(auth.getDetails() instanceof Claims claims) || claims.get("userId") == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        UserWriteGate.Pass pass;
+        try {
+            pass = writeGate.enter(Long.parseLong(String.valueOf(claims.get("userId"))));
+        } catch (TransferRejectedException e) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds()));
+            response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), e.getMessage());
+            return;
+        }
+        try (pass) {
+            filterChain.doFilter(request, response);
+        }
+    }
+}
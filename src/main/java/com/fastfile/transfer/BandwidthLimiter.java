@@ -0,0 +1,113 @@
+package com.fastfile.transfer;
+
+import com.fastfile.model.User;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Hands out throttles for downloads and uploads. Rates are bytes per second, 0 means unlimited.
+@Service
+public class BandwidthLimiter {
+
+    private static final int MAX_IDLE_BUCKETS = 1024;
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Long, TokenBucket> downloadBuckets = new ConcurrentHashMap<>();
+    private final Map<Long, TokenBucket> uploadBuckets = new ConcurrentHashMap<>();
+    private final Map<UUID, TokenBucket> linkBuckets = new ConcurrentHashMap<>();
+    private TokenBucket globalBucket;
+
+    @Value("${transfer.bandwidth.free:0}")
+    private long freeRate;
+    @Value("${transfer.bandwidth.premium:0}")
+    private long premiumRate;
+    @Value("${transfer.bandwidth.link:0}")
+    private long linkRate;
+    @Value("${transfer.bandwidth.global:0}")
+    private long globalRate;
+    @Value("${transfer.bandwidth.burst:1048576}")
+    private long burst;
+
+    public BandwidthLimiter(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void init() {
+        if (globalRate > 0) {
+            globalBucket = new TokenBucket(globalRate, burst);
+        }
+    }
+
+    long rateFor(User user) {
+        return rateFor(user.getUserType());
+    }
+
+    long rateFor(String userType) {
+        return Objects.equals(userType, "premium") ? premiumRate : freeRate;
+    }
+
+    public Throttle forDownload(User user) {
+        return forDownload(user.getId(), user.getUserType());
+    }
+
+    // Same buckets as forDownload(User), for callers that know the tier without loading the user.
+    public Throttle forDownload(Long userId, String userType) {
+        List<TokenBucket> buckets = new ArrayList<>();
+        addBucket(buckets, downloadBuckets, userId, rateFor(userType));
+        if (globalBucket != null) buckets.add(globalBucket);
+        return throttle(buckets, "download", userType);
+    }
+
+    public Throttle forLinkDownload(UUID linkUuid, Long userId, String userType) {
+        List<TokenBucket> buckets = new ArrayList<>();
+        addBucket(buckets, linkBuckets, linkUuid, linkRate);
+        addBucket(buckets, downloadBuckets, userId, rateFor(userType));
+        if (globalBucket != null) buckets.add(globalBucket);
+        return throttle(buckets, "link", userType);
+    }
+
+    public Throttle forUpload(User user) {
+        List<TokenBucket> buckets = new ArrayList<>();
+        addBucket(buckets, uploadBuckets, user.getId(), rateFor(user));
+        return throttle(buckets, "upload", user.getUserType());
+    }
+
+    private <K> void addBucket(List<TokenBucket> buckets, Map<K, TokenBucket> map, K key, long rate) {
+        if (rate <= 0) return;
+        if (map.size() > MAX_IDLE_BUCKETS) {
+            long now = System.nanoTime();
+            map.values().removeIf(bucket -> bucket.isIdle(now, IDLE_NANOS));
+        }
+        // A tier change (free -> premium) replaces the bucket with one of the new rate.
+        buckets.add(map.compute(key, (k, bucket) ->
+                bucket != null && bucket.bytesPerSecond() == rate ? bucket : new TokenBucket(rate, burst)));
+    }
+
+    private Throttle throttle(List<TokenBucket> buckets, String direction, String tier) {
+        if (buckets.isEmpty()) return Throttle.NONE;
+        Counter bytes = Counter.builder("fastfile.transfer.throttled.bytes")
+                .tag("direction", direction)
+                .tag("tier", String.valueOf(tier))
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Timer waits = Timer.builder("fastfile.transfer.throttle.wait")
+                .tag("direction", direction)
+                .tag("tier", String.valueOf(tier))
+                .register(meterRegistry);
+        return new Throttle(buckets, bytes, waits);
+    }
+}
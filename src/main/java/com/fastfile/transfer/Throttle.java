@@ -0,0 +1,64 @@
+package com.fastfile.transfer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.List;
+
+// Set of token buckets a single transfer has to pass through (user, link, node).
+public class Throttle {
+
+    public static final Throttle NONE = new Throttle(List.of(), null, null);
+
+    private final List<TokenBucket> buckets;
+    private final Counter bytes;
+    private final Timer waits;
+
+    Throttle(List<TokenBucket> buckets, Counter bytes, Timer waits) {
+        this.buckets = buckets;
+        this.bytes = bytes;
+        this.waits = waits;
+    }
+
+    public void acquire(long byteCount) throws IOException {
+        if (buckets.isEmpty()) return;
+        long waitNanos = 0;
+        for (TokenBucket bucket : buckets) {
+            waitNanos = Math.max(waitNanos, bucket.reserve(byteCount));
+        }
+        bytes.increment(byteCount);
+        if (waitNanos > 0) {
+            waits.record(Duration.ofNanos(waitNanos));
+            try {
+                Thread.sleep(Duration.ofNanos(waitNanos));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Transfer interrupted while throttled");
+            }
+        }
+    }
+
+    public InputStream wrap(InputStream in) {
+        if (buckets.isEmpty()) return in;
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) acquire(1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int off, int len) throws IOException {
+                int read = super.read(buffer, off, len);
+                if (read > 0) acquire(read);
+                return read;
+            }
+        };
+    }
+}
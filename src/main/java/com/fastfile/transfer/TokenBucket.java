@@ -0,0 +1,44 @@
+package com.fastfile.transfer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lock-free token bucket (GCRA). Instead of counting tokens it keeps the "theoretical arrival time" of
+// the next byte; a caller reserves its bytes with one CAS and is told how long to wait for them.
+// An idle bucket holds burstBytes, the arrival time never lags behind now.
+public class TokenBucket {
+
+    private final long bytesPerSecond;
+    private final long burstNanos;
+    private final AtomicLong theoreticalArrival;
+
+    public TokenBucket(long bytesPerSecond, long burstBytes) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.burstNanos = nanosFor(burstBytes);
+        this.theoreticalArrival = new AtomicLong(System.nanoTime());
+    }
+
+    public long bytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    private long nanosFor(long bytes) {
+        return (long) (bytes * 1_000_000_000d / bytesPerSecond);
+    }
+
+    // Reserves bytes and returns nanoseconds the caller has to wait before sending them.
+    public long reserve(long bytes) {
+        long cost = nanosFor(bytes);
+        while (true) {
+            long now = System.nanoTime();
+            long current = theoreticalArrival.get();
+            long next = Math.max(current, now) + cost;
+            if (theoreticalArrival.compareAndSet(current, next)) {
+                return Math.max(0, next - burstNanos - now);
+            }
+        }
+    }
+
+    boolean isIdle(long now, long idleNanos) {
+        return theoreticalArrival.get() < now - idleNanos;
+    }
+}
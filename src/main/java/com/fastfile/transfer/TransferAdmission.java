@@ -0,0 +1,154 @@
+package com.fastfile.transfer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Caps concurrent transfers per user and per node for every operation class.
+// Over the per-user limit a request is rejected right away; over the node limit it waits in a bounded queue.
+@Service
+public class TransferAdmission {
+
+    // Holds a slot until closed. Closing more than once is harmless.
+    public static class Permit implements AutoCloseable {
+        private final Runnable release;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Runnable release) {
+            this.release = release;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release.run();
+            }
+        }
+
+        // For slots held by a streaming body: also released when the request's async processing ends (completed,
+        // timed out or failed), and when the request finishes without going async, so a body that never runs can't
+        // keep the slot. Does nothing outside a request.
+        public Permit bindToRequest() {
+            if (!(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes)) return this;
+            WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(attributes.getRequest());
+            asyncManager.registerCallableInterceptor(this, new CallableProcessingInterceptor() {
+                @Override
+                public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+                    close();
+                }
+            });
+            attributes.registerDestructionCallback(Permit.class.getName() + "@" + System.identityHashCode(this), () -> {
+                if (!asyncManager.isConcurrentHandlingStarted()) close();
+            }, RequestAttributes.SCOPE_REQUEST);
+            return this;
+        }
+    }
+
+    private static class Lane {
+        int perUserLimit;
+        Semaphore global;
+        final AtomicInteger waiting = new AtomicInteger();
+        final Map<Long, Integer> perUser = new ConcurrentHashMap<>();
+        Counter userRejections;
+        Counter queueRejections;
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final Environment env;
+    private final Map<TransferType, Lane> lanes = new EnumMap<>(TransferType.class);
+
+    @Value("${transfer.admission.queue-size:32}")
+    private int queueSize;
+    @Value("${transfer.admission.max-wait-ms:2000}")
+    private long maxWaitMs;
+    @Value("${transfer.admission.retry-after-seconds:5}")
+    private long retryAfterSeconds;
+
+    public TransferAdmission(MeterRegistry meterRegistry, Environment env) {
+        this.meterRegistry = meterRegistry;
+        this.env = env;
+    }
+
+    @PostConstruct
+    void init() {
+        for (TransferType type : TransferType.values()) {
+            Lane lane = new Lane();
+            String prefix = "transfer.admission." + type.key;
+            lane.perUserLimit = env.getProperty(prefix + ".per-user", Integer.class, 4);
+            int globalLimit = env.getProperty(prefix + ".global", Integer.class, 64);
+            lane.global = new Semaphore(globalLimit, true);
+
+            Gauge.builder("fastfile.admission.queue", lane.waiting, AtomicInteger::get)
+                    .tag("operation", type.key)
+                    .register(meterRegistry);
+            Gauge.builder("fastfile.admission.active", lane.global, s -> globalLimit - s.availablePermits())
+                    .tag("operation", type.key)
+                    .register(meterRegistry);
+            lane.userRejections = Counter.builder("fastfile.admission.rejected")
+                    .tag("operation", type.key)
+                    .tag("scope", "user")
+                    .register(meterRegistry);
+            lane.queueRejections = Counter.builder("fastfile.admission.rejected")
+                    .tag("operation", type.key)
+                    .tag("scope", "global")
+                    .register(meterRegistry);
+            lanes.put(type, lane);
+        }
+    }
+
+    public Permit admit(TransferType type, Long userId) {
+        Lane lane = lanes.get(type);
+
+        if (lane.perUser.merge(userId, 1, Integer::sum) > lane.perUserLimit) {
+            releaseUser(lane, userId);
+            lane.userRejections.increment();
+            throw new TransferRejectedException("Too many concurrent " + type.key + "s for this user", retryAfterSeconds);
+        }
+
+        if (!lane.global.tryAcquire()) {
+            boolean acquired = false;
+            if (lane.waiting.incrementAndGet() <= queueSize) {
+                try {
+                    acquired = lane.global.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            lane.waiting.decrementAndGet();
+            if (!acquired) {
+                releaseUser(lane, userId);
+                lane.queueRejections.increment();
+                throw new TransferRejectedException("Server is busy with other " + type.key + "s", retryAfterSeconds);
+            }
+        }
+
+        return new Permit(() -> {
+            lane.global.release();
+            releaseUser(lane, userId);
+        });
+    }
+
+    private void releaseUser(Lane lane, Long userId) {
+        lane.perUser.computeIfPresent(userId, (id, count) -> count <= 1 ? null : count - 1);
+    }
+}
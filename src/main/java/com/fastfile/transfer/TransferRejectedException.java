@@ -0,0 +1,14 @@
+package com.fastfile.transfer;
+
+import lombok.Getter;
+
+@Getter
+public class TransferRejectedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public TransferRejectedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
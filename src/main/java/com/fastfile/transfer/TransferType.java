@@ -0,0 +1,13 @@
+package com.fastfile.transfer;
+
+public enum TransferType {
+    DOWNLOAD("download"),
+    UPLOAD("upload"),
+    ARCHIVE("archive");
+
+    public final String key;
+
+    TransferType(String key) {
+        this.key = key;
+    }
+}
@@ -0,0 +1,34 @@
+-- Schema as ddl-auto: update left it before migrations were introduced. Databases created that way are baselined at
+-- this version (baseline-on-migrate), everything added since comes from the later migrations.
+
+create table _user
+(
+    id           bigint generated by default as identity primary key,
+    username     varchar(255) not null,
+    email        varchar(255) not null,
+    first_name   varchar(255) not null,
+    last_name    varchar(255) not null,
+    password     varchar(255) not null,
+    user_type    varchar(255),
+    used_storage bigint,
+    constraint uk_user_username unique (username),
+    constraint uk_user_email unique (email)
+);
+
+create table file_link
+(
+    uuid      uuid primary key,
+    owner_id  bigint       not null,
+    path      varchar(255) not null,
+    is_public boolean      not null,
+    constraint uk_file_link_path unique (path),
+    constraint fk_file_link_owner foreign key (owner_id) references _user (id)
+);
+
+create table file_link_share
+(
+    id                bigint generated by default as identity primary key,
+    file_link_uuid    uuid         not null,
+    shared_user_email varchar(255) not null,
+    constraint fk_file_link_share_file_link foreign key (file_link_uuid) references file_link (uuid)
+);
@@ -0,0 +1,15 @@
+-- Postgres doesn't index foreign keys or lookup columns on its own. "if not exists" because databases baselined at 1
+-- may have picked some of these up by hand.
+
+-- FileLinkRepository.findAllByOwnerId: my links, user deletion.
+create index if not exists idx_file_link_owner_id on file_link (owner_id);
+
+-- FileLinkShareRepository.findAllByFileLinkUuid / deleteAllByFileLinkUuidIn, and the foreign key side of link deletes.
+create index if not exists idx_file_link_share_file_link_uuid on file_link_share (file_link_uuid);
+
+-- FileLinkShareRepository.findAllBySharedUserEmail: links shared to me.
+create index if not exists idx_file_link_share_shared_user_email on file_link_share (shared_user_email);
+
+-- Prefix moves and deletes of directories (path like 'dir/%'). The unique index on path only serves equality
+-- unless the database collation is C, pattern ops compare byte-wise.
+create index if not exists idx_file_link_path_prefix on file_link (path text_pattern_ops);
@@ -0,0 +1,13 @@
+-- Rotating refresh tokens, see RefreshTokenService. Only SHA-256 hashes of the tokens are stored.
+create table refresh_token
+(
+    id         bigint generated by default as identity primary key,
+    user_id    bigint      not null,
+    family     uuid        not null,
+    token_hash varchar(64) not null,
+    expires_at bigint      not null,
+    used_at    bigint,
+    constraint uk_refresh_token_token_hash unique (token_hash)
+);
+create index idx_refresh_token_user_id on refresh_token (user_id);
+create index idx_refresh_token_family on refresh_token (family);
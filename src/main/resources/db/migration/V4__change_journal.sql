@@ -0,0 +1,15 @@
+-- Change journal for delta sync, see ChangeJournal. "if not exists" here and below because databases from ddl-auto:
+-- update may already have these from before migrations were introduced.
+create table if not exists file_change
+(
+    id         bigint generated by default as identity primary key,
+    user_id    bigint        not null,
+    type       varchar(16)   not null check (type in ('CREATED', 'MODIFIED', 'DELETED', 'RESCANNED')),
+    path       varchar(4096) not null,
+    directory  boolean       not null,
+    created_at bigint        not null
+);
+create index if not exists idx_file_change_user_id_id on file_change (user_id, id);
+
+-- Cursor below which the journal was compacted away, clients behind it have to resync.
+alter table _user add column if not exists change_floor bigint;
@@ -0,0 +1,12 @@
+-- Older contents of overwritten and deleted files, see VersionStore.
+create table if not exists file_version
+(
+    id            bigint generated by default as identity primary key,
+    owner_id      bigint        not null,
+    path          varchar(1024) not null,
+    blob_path     varchar(1024) not null,
+    size          bigint        not null,
+    last_modified bigint        not null,
+    created_at    bigint        not null
+);
+create index if not exists idx_file_version_owner_id_path on file_version (owner_id, path);
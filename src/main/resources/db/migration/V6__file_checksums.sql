@@ -0,0 +1,12 @@
+-- SHA-256 and CRC32C computed on upload, see ChecksumStore.
+create table if not exists file_checksum
+(
+    id            bigint generated by default as identity primary key,
+    owner_id      bigint        not null,
+    path          varchar(1024) not null,
+    sha256        varchar(64)   not null,
+    crc32c        varchar(8)    not null,
+    size          bigint        not null,
+    last_modified bigint        not null,
+    constraint uk_file_checksum_owner_id_path unique (owner_id, path)
+);
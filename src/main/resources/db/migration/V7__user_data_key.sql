@@ -0,0 +1,2 @@
+-- Per-user data key for encryption at rest, wrapped by the master key, see FileEncryption.
+alter table _user add column if not exists data_key varchar(128);
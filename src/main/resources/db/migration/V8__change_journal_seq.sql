@@ -0,0 +1,11 @@
+-- Journal cursors become per-user seqs assigned in commit order (ChangeJournal.append) instead of identity ids.
+-- Existing entries keep their id as seq and counters continue above them, so cursors held by clients stay valid.
+alter table _user add column change_seq bigint not null default 0;
+alter table file_change add column seq bigint;
+
+update file_change set seq = id;
+update _user u set change_seq = greatest(coalesce(u.change_floor, 0), coalesce((select max(c.id) from file_change c where c.user_id = u.id), 0));
+
+alter table file_change alter column seq set not null;
+drop index if exists idx_file_change_user_id_id;
+alter table file_change add constraint uk_file_change_user_id_seq unique (user_id, seq);
@@ -4,6 +4,7 @@ import com.fastfile.auth.JwtService;
 import com.fastfile.config.FilesConfig;
 import com.fastfile.repository.UserRepository;
 import com.fastfile.service.AuthService;
+import com.fastfile.storage.DirectoryStats;
 import io.jsonwebtoken.Claims;
 import org.apache.commons.io.FileUtils;
 import org.springframework.core.io.ClassPathResource;
@@ -62,6 +63,12 @@ public class IntegrationTestSetup {
         }
     }
 
+    // Cleaning bypasses FileService, so cached directory sizes have to go too.
+    public static void afterEachConfig(DirectoryStats directoryStats) throws IOException {
+        afterEachConfig();
+        directoryStats.clear();
+    }
+
     // Can't use TEST_USER_DIR in static classes.
     public static void afterAllConfig(Path testUserDir) throws IOException {
         // Remove user directory with everything inside
@@ -0,0 +1,44 @@
+package com.fastfile;
+
+import jakarta.persistence.EntityManager;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Fails a test when a call issues more SQL statements than expected, catches N+1 regressions.
+// Pending changes are flushed before and after the call, so its writes are counted, not the test setup.
+public class QueryCountAssertions {
+
+    @FunctionalInterface
+    public interface QueryCall<T> {
+        T call() throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface VoidQueryCall {
+        void call() throws Exception;
+    }
+
+    public static <T> T assertMaxStatements(EntityManager em, long maxStatements, QueryCall<T> call) throws Exception {
+        Statistics statistics = em.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        em.flush();
+        statistics.clear();
+
+        T result = call.call();
+        em.flush();
+
+        long statements = statistics.getPrepareStatementCount();
+        assertThat(statements)
+                .as("SQL statements issued, expected at most %d", maxStatements)
+                .isLessThanOrEqualTo(maxStatements);
+        return result;
+    }
+
+    public static void assertMaxStatements(EntityManager em, long maxStatements, VoidQueryCall call) throws Exception {
+        assertMaxStatements(em, maxStatements, () -> {
+            call.call();
+            return null;
+        });
+    }
+}
@@ -0,0 +1,85 @@
+package com.fastfile.auth;
+
+import com.fastfile.transfer.TransferRejectedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Unit test for the limits of {@link PasswordHasher}: a login storm is turned away before it holds the request threads.
+public class PasswordHasherTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private PasswordHasher hasher;
+
+    // Blocks every hash until released, like a pool busy with a storm.
+    private final PasswordEncoder stuckEncoder = new PasswordEncoder() {
+        @Override
+        public String encode(CharSequence rawPassword) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "hash";
+        }
+
+        @Override
+        public boolean matches(CharSequence rawPassword, String encodedPassword) {
+            return encode(rawPassword).equals(encodedPassword);
+        }
+    };
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (hasher != null) hasher.shutdown();
+    }
+
+    @Test
+    void poolAndQueueHaveToLeaveRequestThreads() {
+        assertThrows(IllegalStateException.class,
+                () -> new PasswordHasher(stuckEncoder, new SimpleMeterRegistry(), 8, 256, 1000, 2, 200));
+        // Unset threads follow the request threads down.
+        hasher = new PasswordHasher(stuckEncoder, new SimpleMeterRegistry(), 0, 4, 1000, 2, 20);
+    }
+
+    @Test
+    void fullQueueIsRejectedRightAway() throws Exception {
+        hasher = new PasswordHasher(stuckEncoder, new SimpleMeterRegistry(), 1, 1, 5000, 2, 200);
+        List<CompletableFuture<String>> waiting = new ArrayList<>();
+        // One hashing, one queued.
+        for (int i = 0; i < 2; i++) {
+            waiting.add(CompletableFuture.supplyAsync(() -> hasher.encode("secret")));
+        }
+        Thread.sleep(100);
+
+        long start = System.nanoTime();
+        TransferRejectedException rejected = assertThrows(TransferRejectedException.class, () -> hasher.encode("secret"));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(100);
+        assertThat(rejected.getRetryAfterSeconds()).isEqualTo(2);
+
+        release.countDown();
+        for (CompletableFuture<String> hash : waiting) {
+            assertThat(hash.get()).isEqualTo("hash");
+        }
+    }
+
+    @Test
+    void waitIsCutAtMaxWait() {
+        hasher = new PasswordHasher(stuckEncoder, new SimpleMeterRegistry(), 1, 4, 200, 2, 200);
+
+        long start = System.nanoTime();
+        assertThrows(TransferRejectedException.class, () -> hasher.verify("secret", "hash"));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isBetween(150L, 1000L);
+    }
+}
@@ -0,0 +1,163 @@
+package com.fastfile.config;
+
+import com.fastfile.IntegrationTestSetup;
+import com.fastfile.auth.JwtService;
+import com.fastfile.dto.FileDTO;
+import com.fastfile.model.FileLink;
+import com.fastfile.repository.UserRepository;
+import com.fastfile.service.AuthService;
+import com.fastfile.service.FileLinkCache;
+import com.fastfile.service.FileLinkService;
+import com.fastfile.storage.DirectoryStats;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.Container.ExecResult;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.images.builder.Transferable;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+
+import static com.fastfile.IntegrationTestSetup.TEST_USER_DIR;
+import static com.fastfile.IntegrationTestSetup.TEST_USER_ID;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Integration test for {@link ReplicaRoutingDataSource}. The "replica" is a second Postgres holding a snapshot of the
+// primary, so whatever is written afterwards shows which of the two a query went to. Not @Transactional, a test
+// transaction would pin every query to one connection.
+@Testcontainers
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"datasource.replica.enabled=true", "datasource.replica.sticky-ms=60000"})
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class ReplicaRoutingIT {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> primary = new PostgreSQLContainer<>("postgres:latest");
+
+    @Container
+    static PostgreSQLContainer<?> replica = new PostgreSQLContainer<>("postgres:latest");
+
+    @DynamicPropertySource
+    static void replicaProperties(DynamicPropertyRegistry registry) {
+        registry.add("datasource.replica.url", replica::getJdbcUrl);
+        registry.add("datasource.replica.username", replica::getUsername);
+        registry.add("datasource.replica.password", replica::getPassword);
+    }
+
+    private static boolean replicaSeeded;
+
+    @Autowired
+    private FileLinkService fileLinkService;
+
+    @Autowired
+    private FileLinkCache fileLinkCache;
+
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+
+    // CONFIG
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private JwtService jwtService;
+    @Autowired
+    private AuthService authService;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private DirectoryStats directoryStats;
+
+    @BeforeEach
+    void beforeEachConfig() throws Exception {
+        if (!replicaSeeded) {
+            // Test user on the primary, then the whole primary (schema and user) copied over.
+            jdbcTemplate.execute(new ClassPathResource("schema.sql").getContentAsString(StandardCharsets.UTF_8));
+            copyPrimaryToReplica();
+            replicaSeeded = true;
+        }
+        IntegrationTestSetup.beforeTransactionConfig(jdbcTemplate, userRepository, authService, jwtService);
+    }
+
+    @AfterEach
+    void afterEachConfig() throws IOException {
+        IntegrationTestSetup.afterEachConfig(directoryStats);
+    }
+
+    @AfterAll
+    static void afterAllConfig() throws IOException {
+        Path testUserDir = Paths.get(FilesConfig.FILES_ROOT, TEST_USER_ID.toString());
+        IntegrationTestSetup.afterAllConfig(testUserDir);
+    }
+    // END OF CONFIG
+
+    private static void copyPrimaryToReplica() throws IOException, InterruptedException {
+        ExecResult dump = primary.execInContainer("pg_dump", "-U", primary.getUsername(), "--no-owner", primary.getDatabaseName());
+        assertThat(dump.getExitCode()).as(dump.getStderr()).isZero();
+        replica.copyFileToContainer(Transferable.of(dump.getStdout()), "/tmp/primary.sql");
+        ExecResult restore = replica.execInContainer("psql", "-U", replica.getUsername(), "-d", replica.getDatabaseName(),
+                "-v", "ON_ERROR_STOP=1", "-q", "-f", "/tmp/primary.sql");
+        assertThat(restore.getExitCode()).as(restore.getStderr()).isZero();
+    }
+
+    private static String createFile(String name) throws IOException {
+        Path file = Files.writeString(TEST_USER_DIR.resolve(name), "replica");
+        return file.toString();
+    }
+
+    @Test
+    @Order(1)
+    void readOnlyTransactionsReadTheReplica() throws IOException {
+        String path = createFile("primary-only.txt");
+        // Outside of a transaction, so it's on the primary and doesn't make the user sticky.
+        jdbcTemplate.update("insert into file_link (uuid, owner_id, path, is_public) values (?, ?, ?, true)", UUID.randomUUID(), TEST_USER_ID, path);
+
+        assertThat(jdbcTemplate.queryForObject("select count(*) from file_link where owner_id = ?", Long.class, TEST_USER_ID)).isEqualTo(1);
+        assertThat(fileLinkService.myLinks()).isEmpty();
+    }
+
+    @Test
+    @Order(2)
+    void ownWritesAreReadFromThePrimary() throws IOException {
+        createFile("primary-only.txt");
+        String path = createFile("mine.txt");
+        FileLink link = fileLinkService.createPublicFileLink(path);
+        assertThat(link).isNotNull();
+
+        // The committed write keeps this user on the primary for sticky-ms.
+        assertThat(fileLinkService.myLinks()).extracting(FileDTO::fileLink).extracting(FileLink::getPath).contains(path).hasSize(2);
+
+        // Anyone else still reads the replica, which never got the link.
+        SecurityContextHolder.clearContext();
+        assertThat(fileLinkService.myLinks()).hasSize(1);
+    }
+
+    @Test
+    @Order(3)
+    void cacheMissesAndLoginReadThePrimary() throws IOException {
+        String path = createFile("cached.txt");
+        UUID uuid = UUID.randomUUID();
+        jdbcTemplate.update("insert into file_link (uuid, owner_id, path, is_public) values (?, ?, ?, true)", uuid, TEST_USER_ID, path);
+        jdbcTemplate.update("update _user set password = ? where id = ?", passwordEncoder.encode("changed"), TEST_USER_ID);
+        SecurityContextHolder.clearContext();
+
+        // Cached for everyone, so it has to come from the primary.
+        assertThat(fileLinkCache.get(uuid)).isPresent();
+        // The replica still has the old password.
+        assertThat(authService.verifyCredentials(userRepository.findById(TEST_USER_ID).orElseThrow().getUsername(), "changed").getId()).isEqualTo(TEST_USER_ID);
+    }
+}
@@ -4,12 +4,15 @@ import com.fastfile.IntegrationTestSetup;
 import com.fastfile.auth.JwtService;
 import com.fastfile.config.FilesConfig;
 import com.fastfile.config.GlobalVariables;
+import com.fastfile.dto.RefreshTokenDTO;
+import com.fastfile.dto.TokenDTO;
 import com.fastfile.dto.UserDTO;
 import com.fastfile.dto.UserLoginDTO;
 import com.fastfile.dto.UserTypeDTO;
 import com.fastfile.model.User;
 import com.fastfile.repository.UserRepository;
 import com.fastfile.service.AuthService;
+import com.fastfile.storage.DirectoryStats;
 import jakarta.transaction.Transactional;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
@@ -66,6 +69,8 @@ public class AuthControllerIT {
     private AuthService authService;
     @Autowired
     private UserRepository userRepository;
+    @Autowired
+    private DirectoryStats directoryStats;
 
     private String token;
 
@@ -87,7 +92,7 @@ public class AuthControllerIT {
 
     @AfterEach
     void afterEachConfig() throws IOException {
-        IntegrationTestSetup.afterEachConfig();
+        IntegrationTestSetup.afterEachConfig(directoryStats);
     }
 
     @AfterAll
@@ -266,4 +271,53 @@ public class AuthControllerIT {
         assertNotNull(userDTO);
         assertThat(userDTO.userType()).isEqualTo("free");
     }
-}
\ No newline at end of file
+
+    // Not @Transactional, the server has to see the legacy hash and the test the rehashed one.
+    @Test
+    public void loginRehashesLegacyPasswordIT() throws IOException {
+        IntegrationTestSetup.beforeTransactionConfig(jdbcTemplate, userRepository, authService, jwtService);
+        // BCrypt hash of "secretPassword" from before encoder ids were stored.
+        jdbcTemplate.update("update _user set password = ? where id = ?", "$2a$10$M8OifbnBh7y9PyOrTObzS.cq6MuOFR87dws9cET6MajFMjWQnJs9u", TEST_USER_ID);
+
+        UserLoginDTO login = new UserLoginDTO("testUser", "secretPassword");
+        String jwtToken = restClient.post().uri("/auth/login").body(login).retrieve().body(String.class);
+        assertThat(jwtToken).isNotBlank();
+
+        String stored = jdbcTemplate.queryForObject("select password from _user where id = ?", String.class, TEST_USER_ID);
+        assertThat(stored).startsWith("{bcrypt}$2a$10$");
+        assertThat(restClient.post().uri("/auth/login").body(login).retrieve().body(String.class)).isNotBlank();
+    }
+
+    // Not @Transactional, the refresh tokens have to be committed for the server to see them.
+    @Test
+    public void refreshTokenRotationIT() throws IOException {
+        IntegrationTestSetup.beforeTransactionConfig(jdbcTemplate, userRepository, authService, jwtService);
+        UserLoginDTO login = new UserLoginDTO("testUser", "secretPassword");
+        TokenDTO first = restClient.post().uri("/auth/token").body(login).retrieve().body(TokenDTO.class);
+        assertNotNull(first);
+        assertThat(first.expiresIn()).isEqualTo(900);
+        assertThat(restClient.get().uri("/auth/user").headers(authHeader(first.accessToken())).retrieve().body(UserDTO.class).id())
+                .isEqualTo(TEST_USER_ID);
+
+        // Rotated, the new pair works and the old refresh token is spent.
+        TokenDTO second = restClient.post().uri("/auth/refresh").body(new RefreshTokenDTO(first.refreshToken())).retrieve().body(TokenDTO.class);
+        assertNotNull(second);
+        assertThat(second.refreshToken()).isNotEqualTo(first.refreshToken());
+        assertThat(restClient.get().uri("/auth/user").headers(authHeader(second.accessToken())).retrieve().body(UserDTO.class).id())
+                .isEqualTo(TEST_USER_ID);
+
+        // Reusing the spent token revokes the family, including the token that replaced it.
+        assertThrows(HttpClientErrorException.Forbidden.class,
+                () -> restClient.post().uri("/auth/refresh").body(new RefreshTokenDTO(first.refreshToken())).retrieve().toBodilessEntity());
+        assertThrows(HttpClientErrorException.Forbidden.class,
+                () -> restClient.post().uri("/auth/refresh").body(new RefreshTokenDTO(second.refreshToken())).retrieve().toBodilessEntity());
+
+        // Logout ends a fresh family.
+        TokenDTO third = restClient.post().uri("/auth/token").body(login).retrieve().body(TokenDTO.class);
+        assertNotNull(third);
+        assertThat(restClient.post().uri("/auth/logout").body(new RefreshTokenDTO(third.refreshToken())).retrieve().body(Boolean.class)).isTrue();
+        assertThrows(HttpClientErrorException.Forbidden.class,
+                () -> restClient.post().uri("/auth/refresh").body(new RefreshTokenDTO(third.refreshToken())).retrieve().toBodilessEntity());
+        assertThat(jdbcTemplate.queryForObject("select count(*) from refresh_token where user_id = ?", Long.class, TEST_USER_ID)).isZero();
+    }
+}
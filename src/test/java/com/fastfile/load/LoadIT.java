@@ -0,0 +1,250 @@
+package com.fastfile.load;
+
+import com.fastfile.config.FilesConfig;
+import com.fastfile.dto.SearchFileDTO;
+import com.fastfile.dto.UserDTO;
+import com.fastfile.dto.UserLoginDTO;
+import com.fastfile.model.User;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestClient;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// End-to-end load test. Skipped unless run through the "load" profile:
+// ./mvnw -Pload verify -Dload.concurrency=32 -Dload.duration=120
+//
+// Every virtual user registers, logs in and then loops over a weighted mix of endpoints until the deadline.
+// Report goes to the test log and target/load-report.txt.
+@Testcontainers
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@EnabledIfSystemProperty(named = "load.enabled", matches = "true")
+public class LoadIT {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+    private static final Logger log = LoggerFactory.getLogger(LoadIT.class);
+
+    @LocalServerPort
+    private int port;
+
+    private final int concurrency = Integer.getInteger("load.concurrency", 16);
+    private final int durationSeconds = Integer.getInteger("load.duration", 60);
+    private final int warmupSeconds = Integer.getInteger("load.warmup", 10);
+    private final int fileSize = Integer.getInteger("load.file-size", 64 * 1024);
+    private final double maxErrorRate = Double.parseDouble(System.getProperty("load.max-error-rate", "0.01"));
+    private final String mix = System.getProperty("load.mix",
+            "login=2,list=30,search=10,upload=10,download=25,link-create=5,link-download=18");
+
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+
+    @Test
+    void mixedWorkload() throws Exception {
+        NavigableMap<Integer, String> operations = parseMix(mix);
+        long warmupEnd = System.nanoTime() + warmupSeconds * 1_000_000_000L;
+        long deadline = warmupEnd + durationSeconds * 1_000_000_000L;
+
+        List<Long> userIds = Collections.synchronizedList(new ArrayList<>());
+        List<Map<String, LatencySamples>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(concurrency)) {
+            List<Future<Map<String, LatencySamples>>> futures = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                int userNumber = i;
+                futures.add(executor.submit(() -> new VirtualUser(userNumber, operations, userIds).run(warmupEnd, deadline)));
+            }
+            for (Future<Map<String, LatencySamples>> future : futures) {
+                results.add(future.get());
+            }
+        }
+
+        LoadReport report = new LoadReport(results, durationSeconds);
+        Path reportFile = Paths.get("target", "load-report.txt");
+        report.writeTo(reportFile);
+        log.info("Load report ({}):\n{}", reportFile, report.format());
+
+        for (Long userId : userIds) {
+            FileUtils.deleteDirectory(Paths.get(FilesConfig.FILES_ROOT, userId.toString()).toFile());
+        }
+
+        assertThat(report.totalRequests()).isPositive();
+        assertThat((double) report.totalErrors() / report.totalRequests()).isLessThanOrEqualTo(maxErrorRate);
+    }
+
+    // "name=weight,..." -> cumulative weight -> operation
+    private static NavigableMap<Integer, String> parseMix(String mix) {
+        NavigableMap<Integer, String> operations = new TreeMap<>();
+        int total = 0;
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            int weight = Integer.parseInt(parts[1]);
+            if (weight <= 0) continue;
+            total += weight;
+            operations.put(total, parts[0]);
+        }
+        return operations;
+    }
+
+    private class VirtualUser {
+        private final int number;
+        private final NavigableMap<Integer, String> operations;
+        private final List<Long> userIds;
+        private final Random random;
+        private final RestClient restClient = RestClient.builder().baseUrl("http://localhost:" + port).build();
+        private final Map<String, LatencySamples> samples = new HashMap<>();
+
+        private final List<String> files = new ArrayList<>();
+        private final Deque<String> unlinkedFiles = new ArrayDeque<>();
+        private final List<String> links = new ArrayList<>();
+        private final byte[] payload;
+        private String username;
+        private String token;
+        private Long userId;
+        private int uploads;
+
+        VirtualUser(int number, NavigableMap<Integer, String> operations, List<Long> userIds) {
+            this.number = number;
+            this.operations = operations;
+            this.userIds = userIds;
+            this.random = new Random(number);
+            this.payload = new byte[fileSize];
+            random.nextBytes(payload);
+        }
+
+        Map<String, LatencySamples> run(long warmupEnd, long deadline) {
+            username = "load-" + runId + "-" + number;
+            UserDTO user = restClient.post()
+                    .uri("/auth/register")
+                    .body(new User(username, username + "@load.test", "Load", "User", "loadPassword"))
+                    .retrieve()
+                    .body(UserDTO.class);
+            userId = Objects.requireNonNull(user).id();
+            userIds.add(userId);
+            login();
+            upload();
+
+            int totalWeight = operations.lastKey();
+            while (System.nanoTime() < deadline) {
+                String operation = operations.ceilingEntry(random.nextInt(totalWeight) + 1).getValue();
+                long start = System.nanoTime();
+                boolean ok = true;
+                try {
+                    execute(operation);
+                } catch (Exception e) {
+                    ok = false;
+                }
+                if (start >= warmupEnd) {
+                    samples.computeIfAbsent(operation, o -> new LatencySamples()).record(System.nanoTime() - start, ok);
+                }
+            }
+            return samples;
+        }
+
+        private void execute(String operation) {
+            switch (operation) {
+                case "login" -> login();
+                case "list" -> restClient.get()
+                        .uri("/api/v1/files/list/")
+                        .headers(auth())
+                        .retrieve()
+                        .toBodilessEntity();
+                case "search" -> restClient.post()
+                        .uri("/api/v1/files/search")
+                        .headers(auth())
+                        .body(new SearchFileDTO("file-1", ""))
+                        .retrieve()
+                        .toBodilessEntity();
+                case "upload" -> upload();
+                case "download" -> restClient.get()
+                        .uri("/api/v1/files/download/{name}", randomOf(files))
+                        .headers(auth())
+                        .retrieve()
+                        .body(byte[].class);
+                case "link-create" -> createLink();
+                case "link-download" -> {
+                    if (links.isEmpty()) createLink();
+                    restClient.get()
+                            .uri("/api/v1/files/link/{uuid}", randomOf(links))
+                            .headers(auth())
+                            .retrieve()
+                            .body(byte[].class);
+                }
+                default -> throw new IllegalArgumentException("Unknown operation: " + operation);
+            }
+        }
+
+        private void login() {
+            token = restClient.post()
+                    .uri("/auth/login")
+                    .body(new UserLoginDTO(username, "loadPassword"))
+                    .retrieve()
+                    .body(String.class);
+        }
+
+        private void upload() {
+            String name = "file-" + uploads++ + ".bin";
+            MultiValueMap<String, Object> parts = new LinkedMultiValueMap<>();
+            parts.add("file", new ByteArrayResource(payload) {
+                @Override
+                public String getFilename() {
+                    return name;
+                }
+            });
+            parts.add("filePath", "/");
+            restClient.post()
+                    .uri("/api/v1/files/upload")
+                    .headers(auth())
+                    .contentType(MediaType.MULTIPART_FORM_DATA)
+                    .body(parts)
+                    .retrieve()
+                    .toBodilessEntity();
+            files.add(name);
+            unlinkedFiles.add(name);
+        }
+
+        @SuppressWarnings("rawtypes")
+        private void createLink() {
+            if (unlinkedFiles.isEmpty()) upload();
+            String name = unlinkedFiles.poll();
+            Map link = restClient.post()
+                    .uri("/api/v1/files/link/create")
+                    .headers(auth())
+                    .contentType(MediaType.TEXT_PLAIN)
+                    .body(FilesConfig.FILES_ROOT + userId + "/" + name)
+                    .retrieve()
+                    .body(Map.class);
+            links.add(String.valueOf(Objects.requireNonNull(link).get("uuid")));
+        }
+
+        private Consumer<HttpHeaders> auth() {
+            return headers -> headers.setBearerAuth(token);
+        }
+
+        private String randomOf(List<String> values) {
+            return values.get(random.nextInt(values.size()));
+        }
+    }
+}
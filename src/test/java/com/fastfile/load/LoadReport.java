@@ -0,0 +1,57 @@
+package com.fastfile.load;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Throughput, error rate and latency percentiles per endpoint.
+final class LoadReport {
+
+    private final Map<String, LatencySamples> byEndpoint = new TreeMap<>();
+    private final double seconds;
+
+    LoadReport(List<Map<String, LatencySamples>> workerSamples, double seconds) {
+        this.seconds = seconds;
+        for (Map<String, LatencySamples> samples : workerSamples) {
+            samples.forEach((endpoint, s) -> byEndpoint.computeIfAbsent(endpoint, e -> new LatencySamples()).addAll(s));
+        }
+    }
+
+    long totalErrors() {
+        return byEndpoint.values().stream().mapToLong(LatencySamples::errors).sum();
+    }
+
+    long totalRequests() {
+        return byEndpoint.values().stream().mapToLong(LatencySamples::count).sum();
+    }
+
+    String format() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-16s %9s %8s %7s %9s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "errors", "err%", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+        byEndpoint.forEach((endpoint, samples) -> {
+            long[] sorted = samples.sorted();
+            sb.append(String.format("%-16s %9d %8d %6.2f%% %9.1f %9.2f %9.2f %9.2f %9.2f%n",
+                    endpoint,
+                    samples.count(),
+                    samples.errors(),
+                    samples.count() == 0 ? 0 : 100.0 * samples.errors() / samples.count(),
+                    samples.count() / seconds,
+                    LatencySamples.percentileMillis(sorted, 50),
+                    LatencySamples.percentileMillis(sorted, 99),
+                    LatencySamples.percentileMillis(sorted, 99.9),
+                    LatencySamples.percentileMillis(sorted, 100)));
+        });
+        sb.append(String.format("total: %d requests in %.1f s (%.1f req/s), %d errors%n",
+                totalRequests(), seconds, totalRequests() / seconds, totalErrors()));
+        return sb.toString();
+    }
+
+    void writeTo(Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, format());
+    }
+}
@@ -0,0 +1,101 @@
+package com.fastfile.metrics;
+
+import io.jsonwebtoken.Jwts;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Unit test for the meters {@link FileMetrics} registers and the request tags on them.
+public class FileMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final FileMetrics fileMetrics = new FileMetrics(registry);
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+        SecurityContextHolder.clearContext();
+    }
+
+    private static void request(String pattern, String userType) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, pattern);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(1L, null, List.of());
+        auth.setDetails(Jwts.claims().add("userType", userType).build());
+        SecurityContextHolder.getContext().setAuthentication(auth);
+    }
+
+    @Test
+    void requestTagsComeFromTheHandlerPatternAndToken() {
+        request("/api/v1/files/download/{*path}", "PREMIUM");
+
+        assertThat(fileMetrics.requestTags()).isEqualTo(Tags.of("endpoint", "/api/v1/files/download/{*path}", "tier", "PREMIUM"));
+    }
+
+    @Test
+    void outsideARequestTagsAreFilledIn() {
+        assertThat(fileMetrics.requestTags()).isEqualTo(Tags.of("endpoint", "none", "tier", "unknown"));
+    }
+
+    @Test
+    void transferRecordsBytesDurationAndThroughput() {
+        fileMetrics.recordTransfer(Tags.of("endpoint", "/upload", "tier", "FREE"), "upload", 1000, TimeUnit.MILLISECONDS.toNanos(500));
+
+        var bytes = registry.get("fastfile.transfer.bytes").tags("endpoint", "/upload", "tier", "FREE", "direction", "upload").summary();
+        assertThat(bytes.count()).isEqualTo(1);
+        assertThat(bytes.totalAmount()).isEqualTo(1000);
+        assertThat(registry.get("fastfile.transfer.duration").tag("direction", "upload").timer().totalTime(TimeUnit.MILLISECONDS)).isEqualTo(500);
+        assertThat(registry.get("fastfile.transfer.throughput").tag("direction", "upload").summary().max()).isEqualTo(2000);
+    }
+
+    @Test
+    void instantTransferHasNoThroughput() {
+        fileMetrics.recordTransfer(Tags.of("endpoint", "/upload", "tier", "FREE"), "upload", 1000, 0);
+
+        assertThat(registry.find("fastfile.transfer.bytes").summary()).isNotNull();
+        assertThat(registry.find("fastfile.transfer.throughput").summary()).isNull();
+    }
+
+    @Test
+    void walkArchiveAndRecountAreTaggedWithTheRequest() {
+        request("/api/v1/files/download-multiple", "FREE");
+        long start = System.nanoTime();
+
+        fileMetrics.recordWalk("stats", 42, start);
+        fileMetrics.recordArchiveBuild(3, 300, start);
+        fileMetrics.recordStorageRecount(start);
+
+        assertThat(registry.get("fastfile.walk.entries").tags("operation", "stats", "tier", "FREE").summary().totalAmount()).isEqualTo(42);
+        assertThat(registry.get("fastfile.walk.duration").tag("operation", "stats").timer().count()).isEqualTo(1);
+        assertThat(registry.get("fastfile.archive.entries").tag("endpoint", "/api/v1/files/download-multiple").summary().totalAmount()).isEqualTo(3);
+        assertThat(registry.get("fastfile.archive.bytes").summary().totalAmount()).isEqualTo(300);
+        assertThat(registry.get("fastfile.archive.build").timer().count()).isEqualTo(1);
+        assertThat(registry.get("fastfile.storage.recount").tag("tier", "FREE").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void linkCountersSplitByResult() {
+        fileMetrics.linkDownload(true);
+        fileMetrics.linkDownload(false);
+        fileMetrics.linkDownload(false);
+        fileMetrics.linkCacheLookup(true);
+
+        assertThat(registry.get("fastfile.link.downloads").tag("result", "found").counter().count()).isEqualTo(1);
+        assertThat(registry.get("fastfile.link.downloads").tag("result", "not_found").counter().count()).isEqualTo(2);
+        assertThat(registry.get("fastfile.link.cache").tag("result", "hit").counter().count()).isEqualTo(1);
+        assertThat(registry.find("fastfile.link.cache").tag("result", "miss").counter()).isNull();
+    }
+}
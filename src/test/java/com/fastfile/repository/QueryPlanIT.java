@@ -0,0 +1,108 @@
+package com.fastfile.repository;
+
+import jakarta.transaction.Transactional;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Checks that the Flyway schema (db/migration) has an index behind every hot link lookup.
+// Tables are empty, so sequential scans are turned off and a plan without a usable index still shows one.
+@Testcontainers
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class QueryPlanIT {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private String plan(String sql) {
+        jdbcTemplate.execute("set local enable_seqscan = off");
+        return String.join("\n", jdbcTemplate.queryForList("explain " + sql, String.class));
+    }
+
+    @Test
+    void migrationsAreApplied() {
+        assertThat(jdbcTemplate.queryForList("select version from flyway_schema_history where success order by installed_rank", String.class))
+                .contains("1", "2", "3", "4", "5", "6", "7");
+    }
+
+    // A database from before migrations (ddl-auto: update, just the V1 tables) gets baselined at 1 and has to end up
+    // with everything added since. Simulated in a schema of its own.
+    @Test
+    void preMigrationDatabaseCatchesUp() throws IOException {
+        jdbcTemplate.execute("create schema legacy");
+        // One statement, so the search path is set and reset on the same pooled connection.
+        jdbcTemplate.execute("set search_path to legacy;\n"
+                + new ClassPathResource("db/migration/V1__baseline.sql").getContentAsString(StandardCharsets.UTF_8)
+                + "\nset search_path to public;");
+
+        Flyway.configure()
+                .dataSource(jdbcTemplate.getDataSource())
+                .schemas("legacy")
+                .baselineOnMigrate(true)
+                .baselineVersion("1")
+                .load()
+                .migrate();
+
+        assertThat(jdbcTemplate.queryForList("select table_name from information_schema.tables where table_schema = 'legacy'", String.class))
+                .contains("_user", "file_link", "file_link_share", "file_change", "file_version", "file_checksum", "refresh_token");
+        assertThat(jdbcTemplate.queryForList("select column_name from information_schema.columns where table_schema = 'legacy' and table_name = '_user'", String.class))
+                .contains("change_floor", "data_key");
+    }
+
+    @Test
+    @Transactional
+    void linksByOwnerUseIndex() {
+        assertThat(plan("select * from file_link where owner_id = -1"))
+                .contains("idx_file_link_owner_id")
+                .doesNotContain("Seq Scan");
+    }
+
+    @Test
+    @Transactional
+    void sharesByLinkUseIndex() {
+        assertThat(plan("select * from file_link_share where file_link_uuid = '00000000-0000-0000-0000-000000000000'"))
+                .contains("idx_file_link_share_file_link_uuid")
+                .doesNotContain("Seq Scan");
+        assertThat(plan("delete from file_link_share where file_link_uuid in ('00000000-0000-0000-0000-000000000000')"))
+                .contains("idx_file_link_share_file_link_uuid")
+                .doesNotContain("Seq Scan");
+    }
+
+    @Test
+    @Transactional
+    void sharesByEmailUseIndex() {
+        assertThat(plan("select * from file_link_share where shared_user_email = 'example@example.com'"))
+                .contains("idx_file_link_share_shared_user_email")
+                .doesNotContain("Seq Scan");
+    }
+
+    @Test
+    @Transactional
+    void pathPrefixUsesIndex() {
+        String pattern = FileLinkRepository.likePrefix("files/-1/my_dir/");
+        assertThat(pattern).isEqualTo("files/-1/my!_dir/%");
+
+        assertThat(plan("update file_link set path = 'files/-1/moved/' || substring(path, 17) where path like '" + pattern + "' escape '!'"))
+                .contains("idx_file_link_path_prefix")
+                .doesNotContain("Seq Scan");
+        assertThat(plan("delete from file_link where path = 'files/-1/my_dir' or path like '" + pattern + "' escape '!'"))
+                .contains("idx_file_link_path_prefix")
+                .doesNotContain("Seq Scan");
+    }
+}
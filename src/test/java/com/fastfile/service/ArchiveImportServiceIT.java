@@ -0,0 +1,153 @@
+package com.fastfile.service;
+
+import com.fastfile.IntegrationTestSetup;
+import com.fastfile.auth.JwtService;
+import com.fastfile.config.FilesConfig;
+import com.fastfile.dto.ArchiveImportDTO;
+import com.fastfile.model.User;
+import com.fastfile.repository.UserRepository;
+import com.fastfile.storage.DirectoryStats;
+import jakarta.transaction.Transactional;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.transaction.BeforeTransaction;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static com.fastfile.IntegrationTestSetup.TEST_USER_DIR;
+import static com.fastfile.IntegrationTestSetup.TEST_USER_ID;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Integration test for {@link ArchiveImportService}
+@Testcontainers
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ArchiveImportServiceIT {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+    @Autowired
+    private ArchiveImportService archiveImportService;
+
+    @Autowired
+    private UserService userService;
+
+    // CONFIG
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private JwtService jwtService;
+    @Autowired
+    private AuthService authService;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private DirectoryStats directoryStats;
+
+    @BeforeTransaction
+    void beforeTransactionConfig() throws IOException {
+        IntegrationTestSetup.beforeTransactionConfig(jdbcTemplate, userRepository, authService, jwtService);
+    }
+
+    @AfterEach
+    void afterEachConfig() throws IOException {
+        IntegrationTestSetup.afterEachConfig(directoryStats);
+    }
+
+    @AfterAll
+    static void afterAllConfig() throws IOException {
+        Path testUserDir = Paths.get(FilesConfig.FILES_ROOT, TEST_USER_ID.toString());
+        IntegrationTestSetup.afterAllConfig(testUserDir);
+    }
+    // END OF CONFIG
+
+    private static byte[] zip(Map<String, String> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (var entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue().getBytes());
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] tarGz(Map<String, String> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(bytes))) {
+            for (var entry : entries.entrySet()) {
+                TarArchiveEntry tarEntry = new TarArchiveEntry(entry.getKey());
+                tarEntry.setSize(entry.getValue().length());
+                tar.putArchiveEntry(tarEntry);
+                tar.write(entry.getValue().getBytes());
+                tar.closeArchiveEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    @Transactional
+    void importZipIntoDirectory() throws IOException {
+        byte[] archive = zip(Map.of("a.txt", "aaa", "src/main/b.txt", "bbbb", "empty/", "", "../evil.txt", "x"));
+
+        ArchiveImportDTO result = archiveImportService.importMyArchive("project", new ByteArrayInputStream(archive));
+
+        assertThat(result.error()).isNull();
+        assertThat(result.files()).isEqualTo(2);
+        assertThat(result.bytes()).isEqualTo(7L);
+        assertThat(result.skipped()).containsExactly("../evil.txt");
+        assertThat(Files.readString(TEST_USER_DIR.resolve("project/src/main/b.txt"))).isEqualTo("bbbb");
+        assertThat(Files.isDirectory(TEST_USER_DIR.resolve("project/empty"))).isTrue();
+        assertThat(Files.exists(TEST_USER_DIR.resolve("evil.txt"))).isFalse();
+        assertThat(userService.getMyUsedStorage()).isEqualTo(7L);
+        assertThat(directoryStats.stats(TEST_USER_DIR.resolve("project")).files()).isEqualTo(2L);
+    }
+
+    @Test
+    @Transactional
+    void importTarGzStopsAtQuota() throws IOException {
+        User me = userService.getMe();
+        me.setUsedStorage(userService.getMyUserStorageLimit() - 5);
+        userRepository.save(me);
+
+        byte[] archive = tarGz(Map.of("fits.txt", "1234"));
+        ArchiveImportDTO result = archiveImportService.importMyArchive("", new ByteArrayInputStream(archive));
+        assertThat(result.error()).isNull();
+        assertThat(result.files()).isEqualTo(1);
+
+        me = userService.getMe();
+        me.setUsedStorage(userService.getMyUserStorageLimit() - 5);
+        userRepository.save(me);
+        archive = tarGz(Map.of("too-big.txt", "123456"));
+        result = archiveImportService.importMyArchive("", new ByteArrayInputStream(archive));
+        assertThat(result.error()).isNotNull();
+        assertThat(Files.exists(TEST_USER_DIR.resolve("too-big.txt"))).isFalse();
+        try (var siblings = Files.list(TEST_USER_DIR)) {
+            assertThat(siblings).containsExactly(TEST_USER_DIR.resolve("fits.txt"));
+        }
+
+        assertThat(archiveImportService.importMyArchive("", new ByteArrayInputStream("not an archive".getBytes())).error()).isNotNull();
+    }
+}
@@ -4,8 +4,11 @@ import com.fastfile.IntegrationTestSetup;
 import com.fastfile.auth.JwtService;
 import com.fastfile.config.FilesConfig;
 import com.fastfile.model.User;
+import com.fastfile.repository.FileLinkRepository;
 import com.fastfile.repository.UserRepository;
 import com.fastfile.service.deleteUser.DeleteUserService;
+import com.fastfile.storage.DirectoryStats;
+import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
 import org.junit.jupiter.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,8 +25,11 @@ import java.io.*;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 
+import static com.fastfile.IntegrationTestSetup.TEST_USER_DIR;
 import static com.fastfile.IntegrationTestSetup.TEST_USER_ID;
+import static com.fastfile.QueryCountAssertions.assertMaxStatements;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertThrows;
 
@@ -45,6 +51,15 @@ public class DeleteUserServiceIT {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private FileLinkService fileLinkService;
+
+    @Autowired
+    private FileLinkRepository fileLinkRepository;
+
+    @Autowired
+    private EntityManager em;
+
     // CONFIG
     @Autowired
     private JdbcTemplate jdbcTemplate;
@@ -54,6 +69,8 @@ public class DeleteUserServiceIT {
     private AuthService authService;
     @Autowired
     private UserRepository userRepository;
+    @Autowired
+    private DirectoryStats directoryStats;
 
     @BeforeTransaction
     void beforeTransactionConfig() throws IOException {
@@ -62,7 +79,7 @@ public class DeleteUserServiceIT {
 
     @AfterEach
     void afterEachConfig() throws IOException {
-        IntegrationTestSetup.afterEachConfig();
+        IntegrationTestSetup.afterEachConfig(directoryStats);
     }
 
     @AfterAll
@@ -155,4 +172,21 @@ public class DeleteUserServiceIT {
         User me = userService.getMe();
         assertThat(me).isNull();
     }
+
+    @Test
+    @Transactional
+    void deleteUserWithLinksQueryCount() throws Exception {
+        List<String> emails = List.of("a@example.com", "b@example.com");
+        for (int i = 0; i < 3; i++) {
+            MockMultipartFile file = new MockMultipartFile("file", "linked" + i + ".txt", "text/plain", "12345".getBytes());
+            assertThat(fileService.uploadFile(file, "/")).isTrue();
+            fileLinkService.createPrivateFileLink(TEST_USER_DIR + "/linked" + i + ".txt", emails);
+        }
+
+        // Links lookup, shares delete, links delete, change journal, checksums, refresh tokens and versions delete and user delete, independent of link count.
+        User me = userService.getMe();
+        boolean success = assertMaxStatements(em, 9, () -> deleteUserService.deleteUser(me));
+        assertThat(success).isTrue();
+        assertThat(fileLinkRepository.findAllByOwnerId(TEST_USER_ID)).isEmpty();
+    }
 }
@@ -0,0 +1,183 @@
+package com.fastfile.service;
+
+import com.fastfile.IntegrationTestSetup;
+import com.fastfile.auth.JwtService;
+import com.fastfile.config.FilesConfig;
+import com.fastfile.repository.UserRepository;
+import com.fastfile.storage.DirectoryStats;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.transaction.BeforeTransaction;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static com.fastfile.IntegrationTestSetup.TEST_USER_ID;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Integration test for {@link DeltaSyncService}
+@Testcontainers
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class DeltaSyncServiceIT {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+    private static final int BLOCK_SIZE = 1024;
+
+    @Autowired
+    private DeltaSyncService deltaSyncService;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private UserService userService;
+
+    // CONFIG
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private JwtService jwtService;
+    @Autowired
+    private AuthService authService;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private DirectoryStats directoryStats;
+
+    @BeforeTransaction
+    void beforeTransactionConfig() throws IOException {
+        IntegrationTestSetup.beforeTransactionConfig(jdbcTemplate, userRepository, authService, jwtService);
+    }
+
+    @AfterEach
+    void afterEachConfig() throws IOException {
+        IntegrationTestSetup.afterEachConfig(directoryStats);
+    }
+
+    @AfterAll
+    static void afterAllConfig() throws IOException {
+        Path testUserDir = Paths.get(FilesConfig.FILES_ROOT, TEST_USER_ID.toString());
+        IntegrationTestSetup.afterAllConfig(testUserDir);
+    }
+    // END OF CONFIG
+
+    private byte[] uploadRandom(String name, int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+        assertThat(fileService.uploadFile(new MockMultipartFile("file", name, "application/octet-stream", content), "")).isTrue();
+        return content;
+    }
+
+    // Keeps blocks [0, changedBlock) and (changedBlock, end], replaces changedBlock with literal data.
+    private static byte[] delta(byte[] base, int changedBlock, byte[] literal, byte[] expected) throws IOException {
+        int blocks = Math.ceilDiv(base.length, BLOCK_SIZE);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (changedBlock > 0) {
+            out.writeByte('C');
+            out.writeLong(0);
+            out.writeInt(changedBlock);
+        }
+        out.writeByte('L');
+        out.writeInt(literal.length);
+        out.write(literal);
+        if (changedBlock + 1 < blocks) {
+            out.writeByte('C');
+            out.writeLong(changedBlock + 1);
+            out.writeInt(blocks - changedBlock - 1);
+        }
+        out.writeByte('E');
+        out.write(sha256(expected));
+        return bytes.toByteArray();
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    @Transactional
+    void signaturesCoverWholeFile() throws IOException {
+        byte[] content = uploadRandom("sig.bin", 10 * BLOCK_SIZE + 100);
+
+        DeltaSyncService.FileSignatures signatures = deltaSyncService.mySignatures("sig.bin", BLOCK_SIZE);
+
+        assertThat(signatures.size()).isEqualTo(content.length);
+        assertThat(signatures.blockSize()).isEqualTo(BLOCK_SIZE);
+        assertThat(signatures.blocks()).hasSize(11);
+        assertThat(signatures.blocks().getFirst().strong())
+                .isEqualTo(HexFormat.of().formatHex(sha256(Arrays.copyOf(content, BLOCK_SIZE))));
+        assertThat(deltaSyncService.mySignatures("missing.bin", BLOCK_SIZE)).isNull();
+    }
+
+    @Test
+    @Transactional
+    void applyDeltaReplacesChangedBlock() throws IOException {
+        byte[] base = uploadRandom("image.bin", 8 * BLOCK_SIZE + 10);
+        String version = deltaSyncService.mySignatures("image.bin", BLOCK_SIZE).version();
+
+        // Block 3 grows by 20 bytes.
+        byte[] literal = new byte[BLOCK_SIZE + 20];
+        Arrays.fill(literal, (byte) 7);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(base, 0, 3 * BLOCK_SIZE);
+        expected.write(literal);
+        expected.write(base, 4 * BLOCK_SIZE, base.length - 4 * BLOCK_SIZE);
+
+        byte[] delta = delta(base, 3, literal, expected.toByteArray());
+        String errorMsg = deltaSyncService.applyMyDelta("image.bin", version, BLOCK_SIZE, new ByteArrayInputStream(delta));
+
+        assertThat(errorMsg).isNull();
+        assertThat(Files.readAllBytes(userService.getMyUserPath("image.bin"))).isEqualTo(expected.toByteArray());
+        assertThat(userService.getMyUsedStorage()).isEqualTo(expected.size());
+        assertThat(delta.length).isLessThan(base.length / 4);
+    }
+
+    @Test
+    @Transactional
+    void applyDeltaRejectsStaleVersionAndBadChecksum() throws IOException {
+        byte[] base = uploadRandom("doc.bin", 4 * BLOCK_SIZE);
+        String version = deltaSyncService.mySignatures("doc.bin", BLOCK_SIZE).version();
+        byte[] literal = new byte[BLOCK_SIZE];
+
+        String errorMsg = deltaSyncService.applyMyDelta("doc.bin", "0-0", BLOCK_SIZE, new ByteArrayInputStream(delta(base, 0, literal, base)));
+        assertThat(errorMsg).isEqualTo(DeltaSyncService.VERSION_CONFLICT);
+
+        errorMsg = deltaSyncService.applyMyDelta("doc.bin", version, BLOCK_SIZE, new ByteArrayInputStream(delta(base, 0, literal, base)));
+        assertThat(errorMsg).isNotNull();
+
+        // Rejected deltas leave the file and its directory untouched.
+        Path path = userService.getMyUserPath("doc.bin");
+        assertThat(Files.readAllBytes(path)).isEqualTo(base);
+        try (var siblings = Files.list(path.getParent())) {
+            assertThat(siblings).containsExactly(path);
+        }
+    }
+}
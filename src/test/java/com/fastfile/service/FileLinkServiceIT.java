@@ -10,6 +10,7 @@ import com.fastfile.model.User;
 import com.fastfile.repository.FileLinkRepository;
 import com.fastfile.repository.FileLinkShareRepository;
 import com.fastfile.repository.UserRepository;
+import com.fastfile.storage.DirectoryStats;
 import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
 import org.junit.jupiter.api.AfterAll;
@@ -30,6 +31,7 @@ import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
@@ -37,6 +39,7 @@ import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.fastfile.IntegrationTestSetup.TEST_USER_DIR;
+import static com.fastfile.QueryCountAssertions.assertMaxStatements;
 import static com.fastfile.IntegrationTestSetup.TEST_USER_ID;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertThrows;
@@ -68,6 +71,8 @@ public class FileLinkServiceIT {
     @Autowired
     private UserRepository userRepository;
     @Autowired
+    private DirectoryStats directoryStats;
+    @Autowired
     private FileLinkRepository fileLinkRepository;
     @Autowired
     private FileLinkShareRepository fileLinkShareRepository;
@@ -79,7 +84,7 @@ public class FileLinkServiceIT {
 
     @AfterEach
     void afterEachConfig() throws IOException {
-        IntegrationTestSetup.afterEachConfig();
+        IntegrationTestSetup.afterEachConfig(directoryStats);
     }
 
     @AfterAll
@@ -210,6 +215,25 @@ public class FileLinkServiceIT {
         assertThat(emailsFromLink).isEqualTo(updatedEmails);
     }
 
+    @Transactional
+    @Test
+    void lookupPrivateLinkAfterUpdate() throws IOException {
+        uploadSomeFiles();
+        List<String> emails = List.of("example@example.com", "example2@example.com");
+        FileLink fileLink = fileLinkService.createPrivateFileLink(TEST_USER_DIR + "/file2.txt", emails);
+
+        // First lookup puts link in cache.
+        FileDTO file = fileLinkService.lookupFile(fileLink.getUuid());
+        assertThat(file.fileLink().getFileLinkShares()).hasSize(2);
+
+        // Update has to invalidate cached link.
+        List<String> updatedEmails = List.of("different@different.com");
+        fileLinkService.updatePrivateLinkEmails(fileLink.getUuid(), updatedEmails);
+        file = fileLinkService.lookupFile(fileLink.getUuid());
+        List<String> emailsFromLink = file.fileLink().getFileLinkShares().stream().map(FileLinkShare::getSharedUserEmail).toList();
+        assertThat(emailsFromLink).isEqualTo(updatedEmails);
+    }
+
     @Transactional
     @Test
     void removeFileLink() throws IOException {
@@ -301,7 +325,7 @@ public class FileLinkServiceIT {
 
     @Test
     @Transactional
-    void downloadLink() throws IOException {
+    void downloadLink() throws Exception {
         uploadSomeFiles();
 
         // Create public link
@@ -314,8 +338,8 @@ public class FileLinkServiceIT {
         assertThat(file.fileLink().getIsPublic()).isTrue();
         assertThat(file.fileLink().getFileLinkShares()).isNull();
 
-        // Download file from link
-        ResponseEntity<StreamingResponseBody> response = fileLinkService.downloadFileFromLink(file.fileLink().getUuid());
+        // Download file from link, the link is cached and the user comes from the token: only the checksum lookup
+        ResponseEntity<StreamingResponseBody> response = assertMaxStatements(em, 1, () -> fileLinkService.downloadFileFromLink(file.fileLink().getUuid()));
         assertThat(response.getStatusCode().toString()).isEqualTo("200 OK");
         assertThat(response.getBody()).isNotNull();
 
@@ -361,4 +385,88 @@ public class FileLinkServiceIT {
         assertThat(files).hasSize(3);
         assertThat(files.get(2).metadata().name()).isEqualTo("file3.txt");
     }
+
+    @Test
+    @Transactional
+    void listingWithLinksQueryCount() throws Exception {
+        uploadSomeFiles();
+        fileLinkService.createPublicFileLink(TEST_USER_DIR + "/file1.txt");
+        fileLinkService.createPublicFileLink(TEST_USER_DIR + "/file2.txt");
+
+        // One query for all links and one for all checksums of the listing, not one per file.
+        List<FileDTO> files = assertMaxStatements(em, 2, () -> fileService.filesInMyDirectory(""));
+        assertThat(files).hasSize(3);
+        assertThat(files.stream().filter(file -> file.fileLink() != null)).hasSize(2);
+    }
+
+    @Test
+    @Transactional
+    void linksSharedToMeQueryCount() throws Exception {
+        uploadSomeFiles();
+        List<String> emails = List.of("example@example.com", "example2@example.com");
+        fileLinkService.createPrivateFileLink(TEST_USER_DIR + "/file1.txt", emails);
+        fileLinkService.createPrivateFileLink(TEST_USER_DIR + "/file2.txt", emails);
+        fileLinkService.createPrivateFileLink(TEST_USER_DIR + "/nested/file3.txt", emails);
+        em.clear();
+
+        // Me, my shares, their links and the checksums of their files.
+        List<FileDTO> files = assertMaxStatements(em, 4, () -> fileLinkService.linksSharedToMe());
+        assertThat(files).hasSize(3);
+        assertThat(files.get(2).metadata().name()).isEqualTo("file3.txt");
+    }
+
+    @Test
+    @Transactional
+    void deleteLinkedFileQueryCount() throws Exception {
+        uploadSomeFiles();
+        List<String> emails = List.of("a@example.com", "b@example.com", "c@example.com", "d@example.com");
+        FileLink fileLink = fileLinkService.createPrivateFileLink(TEST_USER_DIR + "/file1.txt", emails);
+
+        // Links, shares delete, link delete, checksum delete, change journal seq and insert and storage update, no matter how many shares.
+        boolean deleted = assertMaxStatements(em, 8, () -> fileService.delete("file1.txt"));
+        assertThat(deleted).isTrue();
+        assertThat(fileLinkRepository.findById(fileLink.getUuid())).isEmpty();
+        assertThat(fileLinkShareRepository.findAllByFileLinkUuid(fileLink.getUuid())).isEmpty();
+    }
+
+    @Test
+    @Transactional
+    void moveDirectoryRewritesLinks() throws Exception {
+        uploadSomeFiles();
+        FileLink nested = fileLinkService.createPublicFileLink(TEST_USER_DIR + "/nested/file3.txt");
+        FileLink top = fileLinkService.createPublicFileLink(TEST_USER_DIR + "/file1.txt");
+
+        assertThat(fileService.move("nested", "moved/deeper")).isNull();
+        assertThat(fileService.rename("file1.txt", "renamed.txt")).isNull();
+        em.flush();
+        em.clear();
+
+        assertThat(fileLinkRepository.findById(nested.getUuid()).orElseThrow().getPath()).isEqualTo(TEST_USER_DIR + "/moved/deeper/file3.txt");
+        assertThat(fileLinkRepository.findById(top.getUuid()).orElseThrow().getPath()).isEqualTo(TEST_USER_DIR + "/renamed.txt");
+        assertThat(fileLinkService.lookupFile(nested.getUuid())).isNotNull();
+        assertThat(Files.exists(TEST_USER_DIR.resolve("nested"))).isFalse();
+    }
+
+    @Test
+    @Transactional
+    void deleteDirectoryRemovesLinksBelow() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "file.txt", "text/plain", "x".getBytes());
+        fileService.createMyPersonalDirectory("dir_a/sub");
+        fileService.uploadFile(file, "/dir_a/sub");
+        fileService.createMyPersonalDirectory("dirxa");
+        fileService.uploadFile(file, "/dirxa");
+        FileLink inside = fileLinkService.createPrivateFileLink(TEST_USER_DIR + "/dir_a/sub/file.txt", List.of("a@example.com"));
+        FileLink directory = fileLinkService.createPublicFileLink(TEST_USER_DIR + "/dir_a");
+        // "_" would match any character if it weren't escaped.
+        FileLink sibling = fileLinkService.createPublicFileLink(TEST_USER_DIR + "/dirxa/file.txt");
+
+        assertThat(fileService.delete("dir_a", true)).isTrue();
+        em.flush();
+        em.clear();
+
+        assertThat(fileLinkRepository.findById(inside.getUuid())).isEmpty();
+        assertThat(fileLinkRepository.findById(directory.getUuid())).isEmpty();
+        assertThat(fileLinkShareRepository.findAllByFileLinkUuid(inside.getUuid())).isEmpty();
+        assertThat(fileLinkRepository.findById(sibling.getUuid())).isPresent();
+    }
 }
@@ -3,11 +3,22 @@ package com.fastfile.service;
 import com.fastfile.IntegrationTestSetup;
 import com.fastfile.auth.JwtService;
 import com.fastfile.config.FilesConfig;
+import com.fastfile.dto.FileChangesDTO;
 import com.fastfile.dto.FileDTO;
 import com.fastfile.dto.FilePathsDTO;
+import com.fastfile.dto.UploadResultDTO;
+import com.fastfile.event.ChangeJournal;
+import com.fastfile.event.FileChangeEvent;
+import com.fastfile.model.FileChange;
 import com.fastfile.model.User;
 import com.fastfile.repository.UserRepository;
+import com.fastfile.storage.DirectoryStats;
+import com.fastfile.storage.StoragePlacement;
+import com.fastfile.transfer.TransferAdmission;
+import com.fastfile.transfer.TransferRejectedException;
+import com.fastfile.transfer.TransferType;
 import jakarta.transaction.Transactional;
+import org.assertj.core.groups.Tuple;
 import org.junit.jupiter.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -15,7 +26,11 @@ import org.springframework.boot.testcontainers.service.connection.ServiceConnect
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
 import org.springframework.test.context.transaction.BeforeTransaction;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.testcontainers.containers.PostgreSQLContainer;
 import org.testcontainers.junit.jupiter.Container;
@@ -25,7 +40,12 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -37,6 +57,7 @@ import static org.junit.Assert.assertThrows;
 // Integration test for {@link FileService}
 @Testcontainers
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@RecordApplicationEvents
 public class FileServiceIT {
 
     @Container
@@ -49,6 +70,21 @@ public class FileServiceIT {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private TransferAdmission transferAdmission;
+
+    @Autowired
+    private StoragePlacement storagePlacement;
+
+    @Autowired
+    private ApplicationEvents applicationEvents;
+
+    @Autowired
+    private ChangeJournal changeJournal;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     // CONFIG
     @Autowired
     private JdbcTemplate jdbcTemplate;
@@ -58,6 +94,8 @@ public class FileServiceIT {
     private AuthService authService;
     @Autowired
     private UserRepository userRepository;
+    @Autowired
+    private DirectoryStats directoryStats;
 
     @BeforeTransaction
     void beforeTransactionConfig() throws IOException {
@@ -66,7 +104,7 @@ public class FileServiceIT {
 
     @AfterEach
     void afterEachConfig() throws IOException {
-        IntegrationTestSetup.afterEachConfig();
+        IntegrationTestSetup.afterEachConfig(directoryStats);
     }
 
     @AfterAll
@@ -103,6 +141,49 @@ public class FileServiceIT {
         assertThat(Files.exists(Paths.get(TEST_USER_DIR + "/test.txt"))).isTrue();
     }
 
+    @Test
+    @Transactional
+    void userPathResolvesThroughPlacement() throws IOException {
+        // Single volume by default, the old root-dir layout.
+        assertThat(storagePlacement.volumes()).hasSize(1);
+        assertThat(storagePlacement.userRoot(TEST_USER_ID)).isEqualTo(TEST_USER_DIR);
+
+        MockMultipartFile file = new MockMultipartFile("file", "placed.txt", "text/plain", "c".getBytes());
+        fileService.uploadFile(file, "/");
+        FileDTO placed = fileService.filesInMyDirectory("").stream()
+                .filter(f -> f.metadata().name().equals("placed.txt"))
+                .findFirst()
+                .orElseThrow();
+        assertThat(placed.metadata().path()).isEqualTo(TEST_USER_ID + "/placed.txt");
+    }
+
+    @Test
+    @Transactional
+    void directorySizesInListing() throws IOException {
+        fileService.createMyPersonalDirectory("stats/inner");
+        fileService.uploadFile(new MockMultipartFile("file", "a.txt", "text/plain", "12345".getBytes()), "stats");
+        fileService.uploadFile(new MockMultipartFile("file", "b.txt", "text/plain", "123".getBytes()), "stats/inner");
+
+        FileDTO stats = fileService.filesInMyDirectory("").stream()
+                .filter(f -> f.metadata().name().equals("stats"))
+                .findFirst()
+                .orElseThrow();
+        assertThat(stats.metadata().size()).isEqualTo(8);
+        assertThat(stats.metadata().childCount()).isEqualTo(2);
+        assertThat(stats.metadata().fileCount()).isEqualTo(2);
+        assertThat(stats.metadata().hasFiles()).isTrue();
+
+        // Deleting updates the directory and its ancestors without a walk.
+        fileService.delete("stats/inner/b.txt");
+        stats = fileService.filesInMyDirectory("").stream()
+                .filter(f -> f.metadata().name().equals("stats"))
+                .findFirst()
+                .orElseThrow();
+        assertThat(stats.metadata().size()).isEqualTo(5);
+        assertThat(stats.metadata().fileCount()).isEqualTo(1);
+        assertThat(userRepository.findById(TEST_USER_ID).orElseThrow().getUsedStorage()).isEqualTo(5);
+    }
+
     @Test
     @Transactional
     void deleteFileTest() throws IOException {
@@ -140,6 +221,29 @@ public class FileServiceIT {
         assertThat(response.getBody()).isNull();
     }
 
+    @Test
+    @Transactional
+    void downloadRejectedOverUserLimit() throws IOException {
+        MockMultipartFile file = new MockMultipartFile("file", "limited.txt", "text/plain", "data".getBytes());
+        fileService.uploadFile(file, "/");
+
+        // Take every download slot of the user.
+        List<TransferAdmission.Permit> permits = new ArrayList<>();
+        try {
+            assertThrows(TransferRejectedException.class, () -> {
+                while (true) permits.add(transferAdmission.admit(TransferType.DOWNLOAD, TEST_USER_ID));
+            });
+            assertThrows(TransferRejectedException.class, () -> fileService.downloadFile("limited.txt"));
+        } finally {
+            permits.forEach(TransferAdmission.Permit::close);
+        }
+
+        // Slots are free again, streaming the body releases its own slot.
+        ResponseEntity<StreamingResponseBody> response = fileService.downloadFile("limited.txt");
+        assertThat(response.getStatusCode().toString()).isEqualTo("200 OK");
+        Objects.requireNonNull(response.getBody()).writeTo(OutputStream.nullOutputStream());
+    }
+
     @Test
     @Transactional
     void searchFilesByName() throws IOException {
@@ -302,4 +406,189 @@ public class FileServiceIT {
         // Assert that upload failed due to surpassing premium storage limit.
         assertThat(result).isFalse();
     }
+
+    @Test
+    @Transactional
+    void mutationsPublishChangeEvents() throws IOException {
+        fileService.createMyPersonalDirectory("docs");
+        fileService.uploadFile(new MockMultipartFile("file", "a.txt", "text/plain", "a".getBytes()), "docs");
+        fileService.delete("docs/a.txt");
+
+        List<FileChangeEvent> events = applicationEvents.stream(FileChangeEvent.class).toList();
+        assertThat(events).extracting(FileChangeEvent::type, FileChangeEvent::path, FileChangeEvent::directory).containsExactly(
+                Tuple.tuple(FileChangeEvent.Type.CREATED, "docs", true),
+                Tuple.tuple(FileChangeEvent.Type.CREATED, "docs/a.txt", false),
+                Tuple.tuple(FileChangeEvent.Type.DELETED, "docs/a.txt", false));
+        assertThat(events).allMatch(event -> event.userId() == TEST_USER_ID);
+    }
+
+    @Test
+    @Transactional
+    void changesSinceCursor() throws IOException {
+        long cursor = changeJournal.myChanges(null, 100).cursor();
+        fileService.createMyPersonalDirectory("docs");
+        fileService.uploadFile(new MockMultipartFile("file", "a.txt", "text/plain", "a".getBytes()), "docs");
+
+        FileChangesDTO page = changeJournal.myChanges(cursor, 1);
+        assertThat(page.changes()).extracting(FileChange::getPath).containsExactly("docs");
+        assertThat(page.hasMore()).isTrue();
+
+        page = changeJournal.myChanges(page.cursor(), 100);
+        assertThat(page.changes()).extracting(FileChange::getPath).containsExactly("docs/a.txt");
+        assertThat(page.hasMore()).isFalse();
+        assertThat(changeJournal.myChanges(page.cursor(), 100).changes()).isEmpty();
+    }
+
+    @Test
+    @Transactional
+    void compactedCursorRequiresResync() {
+        FileChange old = changeJournal.append(new FileChangeEvent(TEST_USER_ID, FileChangeEvent.Type.CREATED, "old.txt", false, 0L));
+
+        assertThat(changeJournal.compact()).isGreaterThanOrEqualTo(1);
+
+        FileChangesDTO page = changeJournal.myChanges(old.getSeq() - 1, 100);
+        assertThat(page.resyncRequired()).isTrue();
+        assertThat(page.cursor()).isEqualTo(old.getSeq());
+        assertThat(changeJournal.myChanges(page.cursor(), 100).resyncRequired()).isFalse();
+    }
+
+    // Not @Transactional, needs two transactions of its own. The one that appends first but commits last must not end
+    // up below a cursor that already covers the other one.
+    @Test
+    void journalSeqsFollowCommitOrder() throws Exception {
+        IntegrationTestSetup.beforeTransactionConfig(jdbcTemplate, userRepository, authService, jwtService);
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        CountDownLatch firstAppended = new CountDownLatch(1);
+        CountDownLatch commitFirst = new CountDownLatch(1);
+
+        CompletableFuture<FileChange> first = CompletableFuture.supplyAsync(() -> transaction.execute(status -> {
+            FileChange change = changeJournal.append(new FileChangeEvent(TEST_USER_ID, FileChangeEvent.Type.CREATED, "slow.txt", false, System.currentTimeMillis()));
+            firstAppended.countDown();
+            try {
+                commitFirst.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return change;
+        }));
+        assertThat(firstAppended.await(10, TimeUnit.SECONDS)).isTrue();
+
+        CompletableFuture<FileChange> second = CompletableFuture.supplyAsync(() -> transaction.execute(status ->
+                changeJournal.append(new FileChangeEvent(TEST_USER_ID, FileChangeEvent.Type.CREATED, "fast.txt", false, System.currentTimeMillis()))));
+        Thread.sleep(300);
+        assertThat(second).isNotDone();
+
+        commitFirst.countDown();
+        assertThat(second.get(10, TimeUnit.SECONDS).getSeq()).isGreaterThan(first.get(10, TimeUnit.SECONDS).getSeq());
+        jdbcTemplate.update("delete from file_change where user_id = ?", TEST_USER_ID);
+    }
+
+    @Test
+    @Transactional
+    void copyDirectoryAndRejectInvalidTargets() throws IOException {
+        fileService.createMyPersonalDirectory("docs");
+        fileService.uploadFile(new MockMultipartFile("file", "a.txt", "text/plain", "12345".getBytes()), "docs");
+
+        assertThat(fileService.copy("docs", "backup/docs")).isNull();
+
+        assertThat(Files.readString(TEST_USER_DIR.resolve("backup/docs/a.txt"))).isEqualTo("12345");
+        assertThat(Files.readString(TEST_USER_DIR.resolve("docs/a.txt"))).isEqualTo("12345");
+        assertThat(directoryStats.stats(TEST_USER_DIR.resolve("backup")).size()).isEqualTo(5L);
+        assertThat(userService.getMyUsedStorage()).isEqualTo(10L);
+
+        assertThat(fileService.copy("docs", "backup/docs")).isNotNull();
+        assertThat(fileService.move("docs", "docs/inside")).isNotNull();
+        assertThat(fileService.move("missing", "elsewhere")).isNotNull();
+        assertThat(fileService.rename("docs", "../escape")).isNotNull();
+    }
+
+    @Test
+    @Transactional
+    void uploadBatchWritesAllAndReportsPerFile() throws IOException {
+        List<MockMultipartFile> files = List.of(
+                new MockMultipartFile("file", "a.txt", "text/plain", "123".getBytes()),
+                new MockMultipartFile("file", "b.txt", "text/plain", "45".getBytes()),
+                new MockMultipartFile("file", "a.txt", "text/plain", "dup".getBytes()),
+                new MockMultipartFile("file", "c.txt", "text/plain", "6".getBytes()));
+        List<UploadResultDTO> results = fileService.uploadFiles(List.copyOf(files), List.of("batch", "batch/inner", "batch", "../escape"));
+
+        assertThat(results).extracting(UploadResultDTO::success).containsExactly(true, true, false, false);
+        assertThat(results.get(1).path()).isEqualTo("batch/inner/b.txt");
+        assertThat(Files.readString(TEST_USER_DIR.resolve("batch/a.txt"))).isEqualTo("123");
+        assertThat(Files.readString(TEST_USER_DIR.resolve("batch/inner/b.txt"))).isEqualTo("45");
+        assertThat(directoryStats.stats(TEST_USER_DIR.resolve("batch")).size()).isEqualTo(5L);
+        assertThat(userService.getMyUsedStorage()).isEqualTo(5L);
+    }
+
+    @Test
+    @Transactional
+    void uploadDirectoriesAreCountedWhenTheWriteFails() throws IOException {
+        String wrong = HexFormat.of().formatHex(new byte[32]);
+        assertThat(directoryStats.stats(TEST_USER_DIR).children()).isZero();
+
+        assertThat(fileService.uploadFile(new MockMultipartFile("file", "a.txt", "text/plain", "a".getBytes()), "single/inner", wrong)).isFalse();
+        List<UploadResultDTO> results = fileService.uploadFiles(List.of(new MockMultipartFile("file", "b.txt", "text/plain", "b".getBytes())),
+                List.of("batch/inner"), List.of(wrong));
+
+        assertThat(results).extracting(UploadResultDTO::success).containsExactly(false);
+        // Left behind empty, cached sizes know them without a walk.
+        assertThat(directoryStats.stats(TEST_USER_DIR).children()).isEqualTo(2);
+        assertThat(directoryStats.stats(TEST_USER_DIR.resolve("single")).children()).isEqualTo(1);
+        assertThat(directoryStats.stats(TEST_USER_DIR.resolve("batch/inner"))).isNotNull();
+    }
+
+    @Test
+    @Transactional
+    void uploadBatchOverQuotaWritesNothing() throws IOException {
+        // Each file fits on its own, both together don't.
+        byte[] big = new byte[64];
+        User me = userRepository.findById(TEST_USER_ID).orElseThrow();
+        me.setUsedStorage(userService.getMyUserStorageLimit() - big.length);
+        userRepository.save(me);
+
+        List<UploadResultDTO> results = fileService.uploadFiles(List.of(
+                new MockMultipartFile("file", "x.txt", "text/plain", big),
+                new MockMultipartFile("file", "y.txt", "text/plain", big)), List.of());
+
+        assertThat(results).extracting(UploadResultDTO::error).containsOnly("Storage limit exceeded.");
+        assertThat(Files.exists(TEST_USER_DIR.resolve("x.txt"))).isFalse();
+        assertThat(Files.exists(TEST_USER_DIR.resolve("y.txt"))).isFalse();
+    }
+
+    @Test
+    @Transactional
+    void uploadRecordsChecksumsAndServesDigest() throws Exception {
+        byte[] data = "checksummed".getBytes();
+        byte[] sha256 = MessageDigest.getInstance("SHA-256").digest(data);
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(data);
+
+        assertThat(fileService.uploadFile(new MockMultipartFile("file", "sum.txt", "text/plain", data), "docs", HexFormat.of().formatHex(sha256))).isTrue();
+
+        FileDTO listed = fileService.filesInMyDirectory("docs").getFirst();
+        assertThat(listed.metadata().sha256()).isEqualTo(HexFormat.of().formatHex(sha256));
+        assertThat(listed.metadata().crc32c()).isEqualTo(String.format("%08x", crc32c.getValue()));
+
+        ResponseEntity<StreamingResponseBody> response = fileService.downloadFile("docs/sum.txt");
+        assertThat(response.getHeaders().getFirst("Repr-Digest")).isEqualTo("sha-256=:" + Base64.getEncoder().encodeToString(sha256) + ":");
+        Objects.requireNonNull(response.getBody()).writeTo(OutputStream.nullOutputStream());
+
+        // Checksums follow moves, a file changed behind our back has none.
+        assertThat(fileService.move("docs/sum.txt", "moved.txt")).isNull();
+        assertThat(fileService.filesInMyDirectory("").stream().filter(f -> f.metadata().name().equals("moved.txt")).findFirst().orElseThrow().metadata().sha256()).isEqualTo(HexFormat.of().formatHex(sha256));
+        Files.writeString(TEST_USER_DIR.resolve("moved.txt"), "changed elsewhere");
+        assertThat(fileService.filesInMyDirectory("").stream().filter(f -> f.metadata().name().equals("moved.txt")).findFirst().orElseThrow().metadata().sha256()).isNull();
+    }
+
+    @Test
+    @Transactional
+    void uploadWithWrongChecksumIsNotKept() throws IOException {
+        String wrong = HexFormat.of().formatHex(new byte[32]);
+        assertThat(fileService.upload(new MockMultipartFile("file", "bad.txt", "text/plain", "data".getBytes()), "/", wrong)).isEqualTo("Checksum doesn't match.");
+        assertThat(fileService.upload(new MockMultipartFile("file", "bad.txt", "text/plain", "data".getBytes()), "/", "not a hash")).isEqualTo("Invalid SHA-256.");
+        assertThat(Files.exists(TEST_USER_DIR.resolve("bad.txt"))).isFalse();
+        try (var files = Files.list(TEST_USER_DIR)) {
+            assertThat(files.map(path -> path.getFileName().toString())).noneMatch(name -> name.endsWith(".part"));
+        }
+    }
 }
@@ -0,0 +1,181 @@
+package com.fastfile.service;
+
+import com.fastfile.IntegrationTestSetup;
+import com.fastfile.auth.JwtService;
+import com.fastfile.config.FilesConfig;
+import com.fastfile.model.FileVersion;
+import com.fastfile.repository.FileVersionRepository;
+import com.fastfile.repository.UserRepository;
+import com.fastfile.storage.DirectoryStats;
+import com.fastfile.storage.StorageVolume;
+import com.fastfile.storage.VersionStore;
+import jakarta.transaction.Transactional;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.transaction.BeforeTransaction;
+import org.springframework.test.context.transaction.TestTransaction;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static com.fastfile.IntegrationTestSetup.TEST_USER_ID;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Integration test for {@link FileVersionService}
+@Testcontainers
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"files.versions.enabled=true", "files.versions.keep-count=2"})
+public class FileVersionServiceIT {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+    @Autowired
+    private FileVersionService fileVersionService;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private VersionStore versionStore;
+
+    @Autowired
+    private FileVersionRepository fileVersionRepository;
+
+    // CONFIG
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private JwtService jwtService;
+    @Autowired
+    private AuthService authService;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private DirectoryStats directoryStats;
+
+    @BeforeTransaction
+    void beforeTransactionConfig() throws IOException {
+        IntegrationTestSetup.beforeTransactionConfig(jdbcTemplate, userRepository, authService, jwtService);
+    }
+
+    @AfterEach
+    void afterEachConfig() throws IOException {
+        IntegrationTestSetup.afterEachConfig(directoryStats);
+        FileUtils.deleteDirectory(Paths.get(FilesConfig.FILES_ROOT, StorageVolume.VERSIONS_DIR).toFile());
+    }
+
+    @AfterAll
+    static void afterAllConfig() throws IOException {
+        Path testUserDir = Paths.get(FilesConfig.FILES_ROOT, TEST_USER_ID.toString());
+        IntegrationTestSetup.afterAllConfig(testUserDir);
+    }
+    // END OF CONFIG
+
+    private void upload(String content) throws IOException {
+        assertThat(fileService.uploadFile(new MockMultipartFile("file", "a.txt", "text/plain", content.getBytes()), "docs")).isTrue();
+    }
+
+    @Test
+    @Transactional
+    void uploadOverExistingFileKeepsVersion() throws IOException {
+        upload("first");
+        upload("second!");
+
+        assertThat(Files.readString(userService.getMyUserPath("docs/a.txt"))).isEqualTo("second!");
+        List<FileVersion> versions = fileVersionService.myVersions("docs/a.txt");
+        assertThat(versions).extracting(FileVersion::getSize).containsExactly(5L);
+        assertThat(Files.readString(Paths.get(versions.getFirst().getBlobPath()))).isEqualTo("first");
+        assertThat(userService.getMyUsedStorage()).isEqualTo(5L + 7L);
+    }
+
+    @Test
+    @Transactional
+    void restoreSwapsVersionBack() throws IOException {
+        upload("first");
+        upload("second!");
+        FileVersion first = fileVersionService.myVersions("docs/a.txt").getFirst();
+
+        assertThat(fileVersionService.restoreMyVersion(first.getId())).isNull();
+
+        assertThat(Files.readString(userService.getMyUserPath("docs/a.txt"))).isEqualTo("first");
+        // The replaced content became a version too.
+        assertThat(fileVersionService.myVersions("docs/a.txt")).extracting(FileVersion::getSize).containsExactly(7L, 5L);
+        assertThat(fileVersionService.restoreMyVersion(-1)).isNotNull();
+    }
+
+    @Test
+    @Transactional
+    void deleteKeepsVersionAndDownloadServesIt() throws Exception {
+        upload("first");
+        fileService.delete("docs/a.txt");
+
+        assertThat(Files.exists(userService.getMyUserPath("docs/a.txt"))).isFalse();
+        FileVersion version = fileVersionService.myVersions("docs/a.txt").getFirst();
+
+        ResponseEntity<StreamingResponseBody> response = fileVersionService.downloadMyVersion(version.getId());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        response.getBody().writeTo(body);
+        assertThat(body.toString()).isEqualTo("first");
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION)).contains("a.txt");
+    }
+
+    @Test
+    @Transactional
+    void keepCountAndAgeArePruned() throws IOException {
+        upload("1");
+        upload("22");
+        upload("333");
+        upload("4444");
+
+        // keep-count=2 is applied on every new version.
+        List<FileVersion> versions = fileVersionService.myVersions("docs/a.txt");
+        assertThat(versions).extracting(FileVersion::getSize).containsExactly(3L, 2L);
+
+        versions.forEach(version -> version.setCreatedAt(0L));
+        fileVersionRepository.saveAll(versions);
+        assertThat(versionStore.prune()).isEqualTo(2);
+
+        assertThat(fileVersionService.myVersions("docs/a.txt")).isEmpty();
+        // Blobs outlive the rows until commit, a rollback would bring the versions back.
+        assertThat(versions).allMatch(version -> Files.exists(Paths.get(version.getBlobPath())));
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+        assertThat(versions).allMatch(version -> !Files.exists(Paths.get(version.getBlobPath())));
+    }
+
+    @Test
+    @Transactional
+    void failedUploadKeepsNoVersion() throws IOException {
+        upload("first");
+
+        // Checksum of something else, the new content is thrown away before it replaces the file.
+        MockMultipartFile second = new MockMultipartFile("file", "a.txt", "text/plain", "second!".getBytes());
+        assertThat(fileService.uploadFile(second, "docs", "0".repeat(64))).isFalse();
+
+        assertThat(Files.readString(userService.getMyUserPath("docs/a.txt"))).isEqualTo("first");
+        assertThat(fileVersionService.myVersions("docs/a.txt")).isEmpty();
+        assertThat(userService.getMyUsedStorage()).isEqualTo(5L);
+    }
+}
@@ -0,0 +1,188 @@
+package com.fastfile.service;
+
+import com.fastfile.IntegrationTestSetup;
+import com.fastfile.auth.JwtService;
+import com.fastfile.config.FilesConfig;
+import com.fastfile.dto.PresignedUrlDTO;
+import com.fastfile.repository.UserRepository;
+import com.fastfile.storage.DirectoryStats;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.transaction.BeforeTransaction;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+import static com.fastfile.IntegrationTestSetup.TEST_USER_DIR;
+import static com.fastfile.IntegrationTestSetup.TEST_USER_ID;
+import static com.fastfile.QueryCountAssertions.assertMaxStatements;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Integration test for {@link PresignedDownloadService}
+@Testcontainers
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class PresignedDownloadServiceIT {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private PresignedDownloadService presignedDownloadService;
+
+    @Autowired
+    private EntityManager em;
+
+    // CONFIG
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private JwtService jwtService;
+    @Autowired
+    private AuthService authService;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private DirectoryStats directoryStats;
+
+    @BeforeTransaction
+    void beforeTransactionConfig() throws IOException {
+        IntegrationTestSetup.beforeTransactionConfig(jdbcTemplate, userRepository, authService, jwtService);
+    }
+
+    @AfterEach
+    void afterEachConfig() throws IOException {
+        IntegrationTestSetup.afterEachConfig(directoryStats);
+    }
+
+    @AfterAll
+    static void afterAllConfig() throws IOException {
+        Path testUserDir = Paths.get(FilesConfig.FILES_ROOT, TEST_USER_ID.toString());
+        IntegrationTestSetup.afterAllConfig(testUserDir);
+    }
+    // END OF CONFIG
+
+    private static void createFile(String name, String content) throws IOException {
+        Path file = TEST_USER_DIR.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    private ResponseEntity<StreamingResponseBody> download(PresignedUrlDTO presigned, String path, String signature) throws IOException {
+        MultiValueMap<String, String> query = UriComponentsBuilder.fromUriString(presigned.url()).build().getQueryParams();
+        return presignedDownloadService.download(TEST_USER_ID, path, Long.parseLong(query.getFirst("expires")),
+                query.getFirst("tier"), query.getFirst("v"), signature == null ? query.getFirst("sig") : signature);
+    }
+
+    private static String sig(PresignedUrlDTO presigned) {
+        return UriComponentsBuilder.fromUriString(presigned.url()).build().getQueryParams().getFirst("sig");
+    }
+
+    private static String v(PresignedUrlDTO presigned) {
+        return UriComponentsBuilder.fromUriString(presigned.url()).build().getQueryParams().getFirst("v");
+    }
+
+    @Test
+    @Transactional
+    void presignedDownloadWithoutQueries() throws Exception {
+        createFile("docs/report.txt", "presigned");
+        PresignedUrlDTO presigned = presignedDownloadService.presign("docs/report.txt", 120L);
+        assertThat(presigned).isNotNull();
+        assertThat(presigned.url()).startsWith("/dl/" + TEST_USER_ID + "/docs/report.txt?");
+        assertThat(presigned.expiresAt()).isGreaterThanOrEqualTo(System.currentTimeMillis() / 1000 + 120);
+
+        // Same granularity window, same URL, so a cache in front keeps one entry.
+        assertThat(presignedDownloadService.presign("/docs/report.txt", 120L).url()).isEqualTo(presigned.url());
+
+        ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+        ResponseEntity<StreamingResponseBody> response = assertMaxStatements(em, 0, () -> {
+            ResponseEntity<StreamingResponseBody> r = download(presigned, "/docs/report.txt", null);
+            r.getBody().writeTo(downloaded);
+            return r;
+        });
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(downloaded.toString()).isEqualTo("presigned");
+        assertThat(response.getHeaders().getCacheControl()).startsWith("public, max-age=");
+    }
+
+    @Test
+    @Transactional
+    void tamperedOrMissingIsRejected() throws Exception {
+        createFile("a.txt", "a");
+        createFile("b.txt", "b");
+        PresignedUrlDTO presigned = presignedDownloadService.presign("a.txt", null);
+
+        assertThat(download(presigned, "b.txt", null).getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+        assertThat(download(presigned, "a.txt", sig(presigned).substring(1) + "A").getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+        assertThat(presignedDownloadService.download(TEST_USER_ID, "a.txt", presigned.expiresAt() + 60, "free", v(presigned), sig(presigned)).getStatusCode())
+                .isEqualTo(HttpStatus.FORBIDDEN);
+        assertThat(presignedDownloadService.download(TEST_USER_ID, "a.txt", System.currentTimeMillis() / 1000 - 1, "free", v(presigned), sig(presigned)).getStatusCode())
+                .isEqualTo(HttpStatus.FORBIDDEN);
+        assertThat(presignedDownloadService.download(TEST_USER_ID, "a.txt", presigned.expiresAt(), "free", "1-1", sig(presigned)).getStatusCode())
+                .isEqualTo(HttpStatus.FORBIDDEN);
+
+        // Signed, but deleted since.
+        Files.delete(TEST_USER_DIR.resolve("a.txt"));
+        assertThat(download(presigned, "a.txt", null).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(presignedDownloadService.presign("missing.txt", null)).isNull();
+    }
+
+    @Test
+    @Transactional
+    void urlStopsWorkingOnceTheFileChanges() throws Exception {
+        createFile("a.txt", "first");
+        Files.setLastModifiedTime(TEST_USER_DIR.resolve("a.txt"), FileTime.fromMillis(1_000_000));
+        PresignedUrlDTO presigned = presignedDownloadService.presign("a.txt", null);
+
+        // Same size, only the time tells them apart.
+        createFile("a.txt", "other");
+        assertThat(download(presigned, "a.txt", null).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+
+        PresignedUrlDTO again = presignedDownloadService.presign("a.txt", null);
+        assertThat(again.url()).isNotEqualTo(presigned.url());
+        ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+        download(again, "a.txt", null).getBody().writeTo(downloaded);
+        assertThat(downloaded.toString()).isEqualTo("other");
+    }
+
+    // Not @Transactional, goes through the server without a JWT.
+    @Test
+    void presignedUrlOverHttp() throws IOException {
+        IntegrationTestSetup.beforeTransactionConfig(jdbcTemplate, userRepository, authService, jwtService);
+        createFile("my docs/file #1.txt", "over http");
+        PresignedUrlDTO presigned = presignedDownloadService.presign("my docs/file #1.txt", null);
+
+        ResponseEntity<String> response = RestClient.create().get()
+                .uri(URI.create("http://localhost:" + port + presigned.url()))
+                .retrieve()
+                .toEntity(String.class);
+        assertThat(response.getBody()).isEqualTo("over http");
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CACHE_CONTROL)).startsWith("public, max-age=");
+    }
+}
@@ -5,6 +5,7 @@ import com.fastfile.auth.JwtService;
 import com.fastfile.config.FilesConfig;
 import com.fastfile.model.User;
 import com.fastfile.repository.UserRepository;
+import com.fastfile.storage.DirectoryStats;
 import jakarta.transaction.Transactional;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
@@ -47,6 +48,8 @@ public class UserServiceIT {
     private AuthService authService;
     @Autowired
     private UserRepository userRepository;
+    @Autowired
+    private DirectoryStats directoryStats;
 
     @BeforeTransaction
     void beforeTransactionConfig() throws IOException {
@@ -55,7 +58,7 @@ public class UserServiceIT {
 
     @AfterEach
     void afterEachConfig() throws IOException {
-        IntegrationTestSetup.afterEachConfig();
+        IntegrationTestSetup.afterEachConfig(directoryStats);
     }
 
     @AfterAll
@@ -0,0 +1,89 @@
+package com.fastfile.storage;
+
+import com.fastfile.metrics.FileMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Unit test for the node budget of {@link DirectoryStats}. Out-of-band writes show which roots were walked again.
+public class DirectoryStatsTest {
+
+    @TempDir
+    Path dir;
+
+    private DirectoryStats stats;
+    private Path first;
+    private Path second;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        StoragePlacement placement = new StoragePlacement(registry);
+        ReflectionTestUtils.setField(placement, "rootDir", dir.toString());
+        placement.init();
+        stats = new DirectoryStats(placement, new FileMetrics(registry), new FileEncryption(null, placement, false, null, 65536));
+        // Two directories each.
+        ReflectionTestUtils.setField(stats, "maxNodes", 5L);
+        first = Files.createDirectories(dir.resolve("1/docs"));
+        second = Files.createDirectories(dir.resolve("2/docs"));
+    }
+
+    @Test
+    void leastRecentlyUsedRootIsDroppedOverBudget() throws IOException {
+        assertThat(stats.stats(first).files()).isZero();
+        assertThat(stats.stats(second).files()).isZero();
+        Files.writeString(first.resolve("a.txt"), "a");
+        Files.writeString(second.resolve("b.txt"), "b");
+
+        Files.createDirectories(dir.resolve("3/docs"));
+        assertThat(stats.stats(dir.resolve("3"))).isNotNull();
+
+        // The first root made room, the second is still served from memory.
+        assertThat(stats.stats(second).files()).isZero();
+        assertThat(stats.stats(first).files()).isEqualTo(1);
+    }
+
+    @Test
+    void readsKeepARootCached() throws IOException {
+        stats.stats(first);
+        stats.stats(second);
+        stats.stats(first);
+        Files.writeString(first.resolve("a.txt"), "a");
+
+        Files.createDirectories(dir.resolve("3/docs"));
+        stats.stats(dir.resolve("3"));
+
+        assertThat(stats.stats(first).files()).isZero();
+    }
+
+    @Test
+    void updatesAreChargedAgainstTheBudget() throws IOException {
+        stats.stats(first);
+        stats.stats(second);
+        Files.writeString(first.resolve("a.txt"), "a");
+
+        Path created = Files.createDirectories(second.resolve("more/and-more"));
+        stats.directoryCreated(created);
+
+        assertThat(stats.stats(second.resolve("more")).children()).isEqualTo(1);
+        assertThat(stats.stats(first).files()).isEqualTo(1);
+    }
+
+    @Test
+    void changesBeforeTheFirstWalkAreCountedOnce() throws IOException {
+        Files.writeString(first.resolve("a.txt"), "a");
+        // Not loaded yet, only the walk counts the file.
+        stats.fileAdded(first.resolve("a.txt"), 1);
+
+        assertThat(stats.stats(first.getParent()).files()).isEqualTo(1);
+        assertThat(stats.stats(first.getParent()).size()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,197 @@
+package com.fastfile.storage;
+
+import com.fastfile.IntegrationTestSetup;
+import com.fastfile.auth.JwtService;
+import com.fastfile.config.FilesConfig;
+import com.fastfile.dto.FileDTO;
+import com.fastfile.repository.UserRepository;
+import com.fastfile.service.AuthService;
+import com.fastfile.service.FileService;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.transaction.BeforeTransaction;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.fastfile.IntegrationTestSetup.TEST_USER_DIR;
+import static com.fastfile.IntegrationTestSetup.TEST_USER_ID;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Integration test for {@link FileEncryption} behind {@link LocalStorageBackend}, with the smallest segments.
+@Testcontainers
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"files.encryption.enabled=true", "files.encryption.segment-size=4096",
+                "files.encryption.master-key=AAECAwQFBgcICQoLDA0ODxAREhMUFRYXGBkaGxwdHh8="})
+public class FileEncryptionIT {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private StorageBackend storageBackend;
+
+    // CONFIG
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private JwtService jwtService;
+    @Autowired
+    private AuthService authService;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private DirectoryStats directoryStats;
+
+    @BeforeTransaction
+    void beforeTransactionConfig() throws IOException {
+        IntegrationTestSetup.beforeTransactionConfig(jdbcTemplate, userRepository, authService, jwtService);
+    }
+
+    @AfterEach
+    void afterEachConfig() throws IOException {
+        IntegrationTestSetup.afterEachConfig(directoryStats);
+    }
+
+    @AfterAll
+    static void afterAllConfig() throws IOException {
+        Path testUserDir = Paths.get(FilesConfig.FILES_ROOT, TEST_USER_ID.toString());
+        IntegrationTestSetup.afterAllConfig(testUserDir);
+    }
+    // END OF CONFIG
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(7).nextBytes(bytes);
+        return bytes;
+    }
+
+    private Path upload(byte[] content) throws IOException {
+        assertThat(fileService.uploadFile(new MockMultipartFile("file", "secret.bin", "application/octet-stream", content), "docs")).isTrue();
+        return TEST_USER_DIR.resolve("docs/secret.bin");
+    }
+
+    @Test
+    @Transactional
+    void uploadIsEncryptedAndDownloadsPlaintext() throws IOException {
+        byte[] content = randomBytes(10_000);
+        Path stored = upload(content);
+
+        byte[] onDisk = Files.readAllBytes(stored);
+        assertThat(Arrays.copyOf(onDisk, 4)).isEqualTo("FFE1".getBytes());
+        assertThat(onDisk.length).isEqualTo(SegmentedAesGcm.storedSize(content.length, 4096));
+        assertThat(Files.getFileAttributeView(stored, UserDefinedFileAttributeView.class).list()).contains(FileEncryption.MARKER);
+        assertThat(userRepository.findDataKey(TEST_USER_ID)).isNotNull();
+
+        ResponseEntity<StreamingResponseBody> response = fileService.downloadFile("docs/secret.bin");
+        ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+        response.getBody().writeTo(downloaded);
+        assertThat(downloaded.toByteArray()).isEqualTo(content);
+
+        FileDTO listed = fileService.filesInMyDirectory("docs").getFirst();
+        assertThat(listed.metadata().size()).isEqualTo(content.length);
+        assertThat(storageBackend.stat(stored.toString()).size()).isEqualTo(content.length);
+    }
+
+    @Test
+    @Transactional
+    void directorySizeIsTheSumOfItsChildren() throws IOException {
+        Path docs = upload(randomBytes(10_000)).getParent();
+        // Loaded now, the changes below are counted incrementally.
+        assertThat(directoryStats.stats(docs).files()).isEqualTo(1);
+        fileService.uploadFiles(List.of(new MockMultipartFile("file", "a.bin", "application/octet-stream", randomBytes(5000)),
+                new MockMultipartFile("file", "b.bin", "application/octet-stream", randomBytes(3 * 4096 + 1))), List.of("docs", "docs"));
+        assertThat(fileService.copy("docs/a.bin", "docs/c.bin")).isNull();
+        assertThat(fileService.move("docs/b.bin", "docs/d.bin")).isNull();
+        assertThat(fileService.delete("docs/secret.bin")).isTrue();
+
+        long children = fileService.filesInMyDirectory("docs").stream().mapToLong(file -> file.metadata().size()).sum();
+        assertThat(children).isEqualTo(2 * 5000 + 3 * 4096 + 1);
+        assertThat(directoryStats.stats(docs).size()).isEqualTo(children);
+        // And the same after walking it again.
+        directoryStats.clear();
+        assertThat(directoryStats.stats(docs).size()).isEqualTo(children);
+    }
+
+    @Test
+    @Transactional
+    void rangeReadAcrossSegments() throws IOException {
+        byte[] content = randomBytes(3 * 4096 + 100);
+        Path stored = upload(content);
+
+        try (InputStream in = storageBackend.get(stored.toString(), 4000, 5000)) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(content, 4000, 9000));
+        }
+        try (InputStream in = storageBackend.get(stored.toString(), 3 * 4096, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(content, 3 * 4096, content.length));
+        }
+        try (InputStream in = storageBackend.get(stored.toString(), content.length, 10)) {
+            assertThat(in.readAllBytes()).isEmpty();
+        }
+    }
+
+    @Test
+    @Transactional
+    void tamperedOrTruncatedSegmentFails() throws IOException {
+        byte[] content = randomBytes(3 * 4096);
+        Path stored = upload(content);
+        byte[] onDisk = Files.readAllBytes(stored);
+
+        // Second segment altered, the first one still reads.
+        onDisk[SegmentedAesGcm.HEADER_SIZE + 4096 + SegmentedAesGcm.TAG_SIZE + 10] ^= 1;
+        Files.write(stored, onDisk);
+        try (InputStream in = storageBackend.get(stored.toString(), 0, 4096)) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOf(content, 4096));
+        }
+        try (InputStream in = storageBackend.get(stored.toString())) {
+            assertThrows(IOException.class, in::readAllBytes);
+        }
+
+        // Dropping the last segment leaves a file whose new last segment isn't sealed as last.
+        Files.write(stored, Arrays.copyOf(onDisk, onDisk.length - 4096 - SegmentedAesGcm.TAG_SIZE));
+        try (InputStream in = storageBackend.get(stored.toString(), 4096, -1)) {
+            assertThrows(IOException.class, in::readAllBytes);
+        }
+    }
+
+    @Test
+    @Transactional
+    void plainFileLookingLikeAHeaderStaysPlain() throws IOException {
+        // Written before encryption was on, with content that starts like an encrypted file.
+        byte[] content = Arrays.copyOf("FFE1".getBytes(), 200);
+        content[8] = 16;
+        Path stored = TEST_USER_DIR.resolve("docs/lookalike.bin");
+        Files.createDirectories(stored.getParent());
+        Files.write(stored, content);
+
+        try (InputStream in = storageBackend.get(stored.toString())) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+        assertThat(storageBackend.stat(stored.toString()).size()).isEqualTo(content.length);
+    }
+}
@@ -0,0 +1,179 @@
+package com.fastfile.storage;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.testcontainers.containers.MinIOContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+// Integration test for {@link S3StorageBackend} and its selection through files.storage.backend, against a local MinIO.
+@Testcontainers
+public class S3StorageBackendIT {
+
+    private static final String BUCKET = "fastfile-test";
+
+    @Container
+    static MinIOContainer minio = new MinIOContainer("minio/minio:RELEASE.2024-01-16T16-07-38Z");
+
+    private static S3StorageBackend backend;
+
+    @BeforeAll
+    static void setUp() {
+        S3Client s3 = S3Client.builder()
+                .endpointOverride(URI.create(minio.getS3URL()))
+                .region(Region.US_EAST_1)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(minio.getUserName(), minio.getPassword())))
+                .forcePathStyle(true)
+                .build();
+        s3.createBucket(CreateBucketRequest.builder().bucket(BUCKET).build());
+        backend = new S3StorageBackend(s3, BUCKET, S3StorageBackend.MIN_PART_SIZE, 3);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        backend.close();
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(7).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    void putAndGetSmallObject() throws IOException {
+        byte[] content = "Hello FastFile!".getBytes();
+        long written = backend.put("files/1/hello.txt", new ByteArrayInputStream(content), content.length);
+        assertThat(written).isEqualTo(content.length);
+
+        try (InputStream in = backend.get("files/1/hello.txt")) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+        assertThat(backend.stat("files/1/hello.txt").size()).isEqualTo(content.length);
+    }
+
+    @Test
+    void multipartPutOfUnknownSize() throws IOException {
+        // Three and a half parts, uploaded in parallel.
+        byte[] content = randomBytes((int) (S3StorageBackend.MIN_PART_SIZE * 3 + S3StorageBackend.MIN_PART_SIZE / 2));
+        long written = backend.put("files/1/big.bin", new ByteArrayInputStream(content), -1);
+        assertThat(written).isEqualTo(content.length);
+
+        try (InputStream in = backend.get("files/1/big.bin")) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+    }
+
+    @Test
+    void rangedGet() throws IOException {
+        byte[] content = randomBytes(64 * 1024);
+        backend.put("files/1/range.bin", new ByteArrayInputStream(content), content.length);
+
+        try (InputStream in = backend.get("files/1/range.bin", 1000, 500)) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(content, 1000, 1500));
+        }
+        try (InputStream in = backend.get("files/1/range.bin", 60 * 1024, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo(Arrays.copyOfRange(content, 60 * 1024, content.length));
+        }
+    }
+
+    @Test
+    void explicitMultipartOutOfOrder() throws IOException {
+        byte[] part1 = randomBytes((int) S3StorageBackend.MIN_PART_SIZE);
+        byte[] part2 = "tail".getBytes();
+        StorageBackend.MultipartUpload upload = backend.startMultipart("files/1/parts.bin");
+        upload.putPart(2, new ByteArrayInputStream(part2), part2.length);
+        upload.putPart(1, new ByteArrayInputStream(part1), part1.length);
+        upload.complete();
+
+        assertThat(backend.stat("files/1/parts.bin").size()).isEqualTo(part1.length + part2.length);
+        try (InputStream in = backend.get("files/1/parts.bin", part1.length, -1)) {
+            assertThat(in.readAllBytes()).isEqualTo(part2);
+        }
+    }
+
+    @Test
+    void listAndDelete() throws IOException {
+        backend.put("files/2/a.txt", new ByteArrayInputStream("a".getBytes()), 1);
+        backend.put("files/2/nested/b.txt", new ByteArrayInputStream("b".getBytes()), 1);
+
+        List<String> keys = backend.list("files/2/").stream().map(StorageBackend.ObjectInfo::key).toList();
+        assertThat(keys).containsExactlyInAnyOrder("files/2/a.txt", "files/2/nested/b.txt");
+
+        assertThat(backend.delete("files/2/a.txt")).isTrue();
+        assertThat(backend.delete("files/2/a.txt")).isFalse();
+        assertThat(backend.stat("files/2/a.txt")).isNull();
+    }
+
+    private ApplicationContextRunner contextRunner(String backend) {
+        return new ApplicationContextRunner()
+                .withBean(LocalStorageBackend.class, () -> new LocalStorageBackend(mock(FileEncryption.class)))
+                .withUserConfiguration(S3StorageConfig.class)
+                .withPropertyValues("files.storage.backend=" + backend,
+                        "files.s3.endpoint=" + minio.getS3URL(),
+                        "files.s3.bucket=" + BUCKET,
+                        "files.s3.access-key=" + minio.getUserName(),
+                        "files.s3.secret-key=" + minio.getPassword());
+    }
+
+    @Test
+    void selectedBackendServesTheFileServices() {
+        contextRunner("s3").run(context -> {
+            StorageBackend selected = context.getBean(StorageBackend.class);
+            assertThat(selected).isInstanceOf(S3StorageBackend.class);
+
+            selected.put("files/3/selected.txt", new ByteArrayInputStream("through s3".getBytes()), -1);
+            // Landed in the bucket, not on a local volume.
+            assertThat(backend.stat("files/3/selected.txt").size()).isEqualTo("through s3".length());
+        });
+    }
+
+    @Test
+    void localStaysTheDefault() {
+        contextRunner("local").run(context -> {
+            assertThat(context.getBean(StorageBackend.class)).isInstanceOf(LocalStorageBackend.class);
+            assertThat(context).doesNotHaveBean(S3StorageBackend.class);
+        });
+    }
+
+    @Test
+    void failedPutLeavesTheObjectAndSkipsBeforeReplace() throws IOException {
+        backend.put("files/1/keep.txt", new ByteArrayInputStream("old".getBytes()), 3);
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("client gone");
+            }
+        };
+        boolean[] ran = {false};
+
+        try {
+            backend.put("files/1/keep.txt", failing, -1, () -> ran[0] = true);
+        } catch (IOException expected) {
+            // The read failure surfaces as is.
+        }
+
+        assertThat(ran[0]).isFalse();
+        try (InputStream in = backend.get("files/1/keep.txt")) {
+            assertThat(in.readAllBytes()).isEqualTo("old".getBytes());
+        }
+    }
+}
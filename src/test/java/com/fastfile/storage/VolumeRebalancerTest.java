@@ -0,0 +1,75 @@
+package com.fastfile.storage;
+
+import com.fastfile.transfer.TransferRejectedException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Unit test for the final sync of {@link VolumeRebalancer} and the {@link UserWriteGate} around it.
+public class VolumeRebalancerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void mirrorCopiesChangesAndRemovesDeletes() throws IOException {
+        Path source = Files.createDirectories(dir.resolve("source"));
+        Path target = Files.createDirectories(dir.resolve("target"));
+        Files.writeString(source.resolve("same.txt"), "same");
+        Files.copy(source.resolve("same.txt"), target.resolve("same.txt"), StandardCopyOption.COPY_ATTRIBUTES);
+        Files.writeString(source.resolve("changed.txt"), "new content");
+        Files.writeString(target.resolve("changed.txt"), "old");
+        Files.createDirectories(source.resolve("docs"));
+        // Renamed in source after the first copy, keeps its time.
+        Files.writeString(source.resolve("docs/renamed.txt"), "r");
+        Files.setLastModifiedTime(source.resolve("docs/renamed.txt"), FileTime.fromMillis(0));
+        Files.writeString(target.resolve("deleted.txt"), "gone");
+        Files.createDirectories(target.resolve("deleted-dir/sub"));
+        Files.writeString(target.resolve("deleted-dir/sub/a.txt"), "a");
+
+        VolumeRebalancer.mirror(source, target);
+
+        assertThat(target.resolve("same.txt")).hasContent("same");
+        assertThat(target.resolve("changed.txt")).hasContent("new content");
+        assertThat(target.resolve("docs/renamed.txt")).hasContent("r");
+        assertThat(target.resolve("deleted.txt")).doesNotExist();
+        assertThat(target.resolve("deleted-dir")).doesNotExist();
+    }
+
+    @Test
+    void shutGateRejectsNewWritersAndWaitsForCurrentOnes() throws Exception {
+        UserWriteGate gate = new UserWriteGate();
+        UserWriteGate.Pass pass = gate.enter(1);
+
+        // A writer that doesn't finish in time means no switch, and the gate opens again.
+        assertThat(gate.shut(1, 50)).isFalse();
+        gate.enter(1).close();
+
+        CompletableFuture<Boolean> shut = CompletableFuture.supplyAsync(() -> {
+            try {
+                return gate.shut(1, 5000);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertThat(shut).isNotDone();
+        pass.close();
+        assertThat(shut.get(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThrows(TransferRejectedException.class, () -> gate.enter(1));
+        gate.enter(2).close(); // other users aren't affected
+        gate.open(1);
+        gate.enter(1).close();
+    }
+}
@@ -0,0 +1,130 @@
+package com.fastfile.storage;
+
+import com.fastfile.IntegrationTestSetup;
+import com.fastfile.auth.JwtService;
+import com.fastfile.config.FilesConfig;
+import com.fastfile.repository.UserRepository;
+import com.fastfile.service.AuthService;
+import com.fastfile.service.FileService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.BooleanSupplier;
+
+import static com.fastfile.IntegrationTestSetup.TEST_USER_DIR;
+import static com.fastfile.IntegrationTestSetup.TEST_USER_ID;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Integration test for {@link VolumeWatcher} on the test volume, with short debounce times. Not @Transactional,
+// the watcher's flush thread has to see the test user.
+@Testcontainers
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"files.watch.enabled=true", "files.watch.debounce-ms=200", "files.watch.max-delay-ms=1000"})
+public class VolumeWatcherIT {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+    // Long enough for any pending root to be flushed.
+    private static final long SETTLE_MS = 1500;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // CONFIG
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private JwtService jwtService;
+    @Autowired
+    private AuthService authService;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private DirectoryStats directoryStats;
+
+    @BeforeEach
+    void beforeEachConfig() throws IOException {
+        IntegrationTestSetup.beforeTransactionConfig(jdbcTemplate, userRepository, authService, jwtService);
+    }
+
+    @AfterEach
+    void afterEachConfig() throws IOException {
+        IntegrationTestSetup.afterEachConfig(directoryStats);
+    }
+
+    @AfterAll
+    static void afterAllConfig() throws IOException {
+        Path testUserDir = Paths.get(FilesConfig.FILES_ROOT, TEST_USER_ID.toString());
+        IntegrationTestSetup.afterAllConfig(testUserDir);
+    }
+    // END OF CONFIG
+
+    private long usedStorage() {
+        return jdbcTemplate.queryForObject("select used_storage from _user where id = ?", Long.class, TEST_USER_ID);
+    }
+
+    private double rescans() {
+        return meterRegistry.find("fastfile.watch.rescans").counters().stream().mapToDouble(Counter::count).sum();
+    }
+
+    private static boolean eventually(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.getAsBoolean()) return true;
+            Thread.sleep(50);
+        }
+        return condition.getAsBoolean();
+    }
+
+    @Test
+    void outOfBandChangeIsRecounted() throws Exception {
+        // As an rsync restore would, behind FileService's back.
+        Files.writeString(TEST_USER_DIR.resolve("restored.txt"), "restored");
+
+        assertThat(eventually(() -> usedStorage() == "restored".length())).isTrue();
+        assertThat(directoryStats.stats(TEST_USER_DIR).files()).isEqualTo(1);
+    }
+
+    @Test
+    void filesInNewDirectoriesAreSeen() throws Exception {
+        Path nested = Files.createDirectories(TEST_USER_DIR.resolve("restored/deep"));
+        Thread.sleep(SETTLE_MS);
+        Files.writeString(nested.resolve("a.txt"), "nested");
+
+        assertThat(eventually(() -> usedStorage() == "nested".length())).isTrue();
+    }
+
+    @Test
+    void ownWritesAreNotRescanned() throws Exception {
+        // Cleanup of earlier tests is out of band too, let it pass.
+        Thread.sleep(SETTLE_MS);
+        double before = rescans();
+
+        assertThat(fileService.uploadFile(new MockMultipartFile("file", "mine.txt", "text/plain", "mine".getBytes()), "docs")).isTrue();
+        Thread.sleep(SETTLE_MS);
+
+        assertThat(rescans()).isEqualTo(before);
+        assertThat(usedStorage()).isEqualTo("mine".length());
+    }
+}
@@ -0,0 +1,90 @@
+package com.fastfile.transfer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Unit test for {@link Throttle} over several {@link TokenBucket}s (user, link, node).
+public class ThrottleTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private Throttle throttle(TokenBucket... buckets) {
+        return new Throttle(List.of(buckets), Counter.builder("bytes").register(registry), Timer.builder("waits").register(registry));
+    }
+
+    private static long millisToAcquire(Throttle throttle, long bytes) throws IOException {
+        long start = System.nanoTime();
+        throttle.acquire(bytes);
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Test
+    void waitsForTheSlowestBucket() throws IOException {
+        Throttle throttle = throttle(new TokenBucket(1_000_000, 0), new TokenBucket(1000, 0));
+
+        assertThat(millisToAcquire(throttle, 100)).isGreaterThanOrEqualTo(90);
+        assertThat(registry.get("bytes").counter().count()).isEqualTo(100);
+        assertThat(registry.get("waits").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void sharedBucketIsSplitBetweenTransfers() throws Exception {
+        // Own user buckets with plenty of room, one node bucket for both.
+        TokenBucket node = new TokenBucket(1000, 0);
+        Throttle first = throttle(new TokenBucket(1_000_000, 0), node);
+        Throttle second = throttle(new TokenBucket(1_000_000, 0), node);
+
+        long start = System.nanoTime();
+        CompletableFuture<Long> other = CompletableFuture.supplyAsync(() -> {
+            try {
+                return millisToAcquire(first, 50);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        millisToAcquire(second, 50);
+        other.get();
+        // Each alone takes 50 ms, together they queue on the node bucket.
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(90);
+    }
+
+    @Test
+    void burstGoesThroughWithoutWaiting() throws IOException {
+        Throttle throttle = throttle(new TokenBucket(1000, 10_000));
+
+        assertThat(millisToAcquire(throttle, 10_000)).isLessThan(50);
+        assertThat(registry.get("waits").timer().count()).isZero();
+    }
+
+    @Test
+    void wrappedStreamIsThrottledPerRead() throws IOException {
+        Throttle throttle = throttle(new TokenBucket(1000, 100));
+        InputStream in = throttle.wrap(new ByteArrayInputStream(new byte[200]));
+
+        long start = System.nanoTime();
+        assertThat(in.readAllBytes()).hasSize(200);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(90);
+        assertThat(registry.get("bytes").counter().count()).isEqualTo(200);
+    }
+
+    @Test
+    void noneNeverWaits() throws IOException {
+        InputStream in = new ByteArrayInputStream(new byte[10]);
+
+        assertThat(Throttle.NONE.wrap(in)).isSameAs(in);
+        assertThat(millisToAcquire(Throttle.NONE, Long.MAX_VALUE / 2)).isLessThan(50);
+    }
+}
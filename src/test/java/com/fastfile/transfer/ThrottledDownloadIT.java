@@ -0,0 +1,108 @@
+package com.fastfile.transfer;
+
+import com.fastfile.IntegrationTestSetup;
+import com.fastfile.auth.JwtService;
+import com.fastfile.config.FilesConfig;
+import com.fastfile.repository.UserRepository;
+import com.fastfile.service.AuthService;
+import com.fastfile.storage.DirectoryStats;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.boot.tomcat.TomcatConnectorCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.web.client.RestClient;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.fastfile.IntegrationTestSetup.TEST_USER_DIR;
+import static com.fastfile.IntegrationTestSetup.TEST_USER_ID;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Integration test for a throttled download outlasting the container's async timeout, cut to 1 s here so the
+// download doesn't have to run for Tomcat's default 30 s. Not @Transactional, it goes through the server.
+@Testcontainers
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"transfer.bandwidth.free=20000", "transfer.bandwidth.premium=20000", "transfer.bandwidth.burst=0"})
+public class ThrottledDownloadIT {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+    private static final long CONTAINER_ASYNC_TIMEOUT_MS = 1000;
+
+    @TestConfiguration
+    static class ShortContainerTimeout {
+        @Bean
+        TomcatConnectorCustomizer shortAsyncTimeout() {
+            return connector -> connector.setAsyncTimeout(CONTAINER_ASYNC_TIMEOUT_MS);
+        }
+    }
+
+    @LocalServerPort
+    private int port;
+
+    // CONFIG
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private JwtService jwtService;
+    @Autowired
+    private AuthService authService;
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private DirectoryStats directoryStats;
+
+    @BeforeEach
+    void beforeEachConfig() throws IOException {
+        IntegrationTestSetup.beforeTransactionConfig(jdbcTemplate, userRepository, authService, jwtService);
+    }
+
+    @AfterEach
+    void afterEachConfig() throws IOException {
+        IntegrationTestSetup.afterEachConfig(directoryStats);
+    }
+
+    @AfterAll
+    static void afterAllConfig() throws IOException {
+        Path testUserDir = Paths.get(FilesConfig.FILES_ROOT, TEST_USER_ID.toString());
+        IntegrationTestSetup.afterAllConfig(testUserDir);
+    }
+    // END OF CONFIG
+
+    @Test
+    void downloadLongerThanTheAsyncTimeoutIsNotCutOff() throws IOException {
+        // 50 KB at 20 KB/s, two and a half times the container timeout.
+        byte[] content = new byte[50_000];
+        new Random(7).nextBytes(content);
+        Files.write(TEST_USER_DIR.resolve("big.bin"), content);
+        String token = authService.authenticate("testUser", "secretPassword");
+
+        long start = System.nanoTime();
+        byte[] downloaded = RestClient.create().get()
+                .uri("http://localhost:" + port + "/api/v1/files/download/big.bin")
+                .headers(headers -> headers.setBearerAuth(token))
+                .retrieve()
+                .body(byte[].class);
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThan(2 * CONTAINER_ASYNC_TIMEOUT_MS);
+        assertThat(downloaded).isEqualTo(content);
+    }
+}
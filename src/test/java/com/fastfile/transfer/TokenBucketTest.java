@@ -0,0 +1,62 @@
+package com.fastfile.transfer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Unit test for {@link TokenBucket}. Waits are computed, not slept, so bounds only allow for the time the test takes.
+public class TokenBucketTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void burstIsFreeThenBytesWaitForTheRate() {
+        TokenBucket bucket = new TokenBucket(1000, 500);
+
+        assertThat(bucket.reserve(500)).isZero();
+        // 100 bytes at 1000 B/s.
+        assertThat(bucket.reserve(100)).isBetween(80 * MS, 100 * MS);
+    }
+
+    @Test
+    void refillsAtTheRate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000, 100);
+        assertThat(bucket.reserve(100)).isZero();
+
+        Thread.sleep(60);
+        // At least 60 bytes back.
+        assertThat(bucket.reserve(50)).isZero();
+        assertThat(bucket.reserve(50)).isBetween(1L, 40 * MS);
+    }
+
+    @Test
+    void neverHoldsMoreThanTheBurst() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000, 100);
+        Thread.sleep(200);
+
+        assertThat(bucket.reserve(100)).isZero();
+        assertThat(bucket.reserve(100)).isBetween(80 * MS, 100 * MS);
+    }
+
+    @Test
+    void waitsQueueUpBehindEarlierReservations() {
+        TokenBucket bucket = new TokenBucket(1000, 0);
+
+        long first = bucket.reserve(100);
+        long second = bucket.reserve(100);
+        assertThat(first).isBetween(80 * MS, 100 * MS);
+        assertThat(second).isBetween(180 * MS, 200 * MS);
+    }
+
+    @Test
+    void idleOnlyOnceDrainedForLong() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000, 0);
+        bucket.reserve(100);
+        assertThat(bucket.isIdle(System.nanoTime(), 10 * MS)).isFalse();
+
+        Thread.sleep(150);
+        assertThat(bucket.isIdle(System.nanoTime(), 10 * MS)).isTrue();
+    }
+}
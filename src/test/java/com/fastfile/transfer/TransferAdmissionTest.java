@@ -0,0 +1,87 @@
+package com.fastfile.transfer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.StandardServletAsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Unit test for releasing {@link TransferAdmission.Permit}s bound to a request whose streaming body never runs.
+public class TransferAdmissionTest {
+
+    private TransferAdmission admission;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+    private ServletRequestAttributes attributes;
+
+    @BeforeEach
+    void setUp() {
+        admission = new TransferAdmission(new SimpleMeterRegistry(), new MockEnvironment().withProperty("transfer.admission.download.per-user", "1"));
+        admission.init();
+        request = new MockHttpServletRequest();
+        request.setAsyncSupported(true);
+        response = new MockHttpServletResponse();
+        attributes = new ServletRequestAttributes(request, response);
+        RequestContextHolder.setRequestAttributes(attributes);
+    }
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    private boolean slotFree() {
+        try {
+            admission.admit(TransferType.DOWNLOAD, 1L).close();
+            return true;
+        } catch (TransferRejectedException e) {
+            return false;
+        }
+    }
+
+    @Test
+    void releasedWhenRequestEndsWithoutGoingAsync() {
+        admission.admit(TransferType.DOWNLOAD, 1L).bindToRequest();
+        assertThat(slotFree()).isFalse();
+
+        attributes.requestCompleted();
+        assertThat(slotFree()).isTrue();
+    }
+
+    @Test
+    void releasedWhenAsyncRequestEndsBeforeTheBodyRuns() throws Exception {
+        admission.admit(TransferType.DOWNLOAD, 1L).bindToRequest();
+        WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(request);
+        asyncManager.setAsyncWebRequest(new StandardServletAsyncWebRequest(request, response));
+        asyncManager.setTaskExecutor(new SimpleAsyncTaskExecutor());
+        CountDownLatch body = new CountDownLatch(1);
+        asyncManager.startCallableProcessing(() -> {
+            body.await();
+            return null;
+        });
+        try {
+            // Still streaming as far as the first dispatch knows.
+            attributes.requestCompleted();
+            assertThat(slotFree()).isFalse();
+
+            // The container ends the request (timeout, client gone) while the body is stuck.
+            ((MockAsyncContext) request.getAsyncContext()).complete();
+            assertThat(slotFree()).isTrue();
+        } finally {
+            body.countDown();
+        }
+    }
+}